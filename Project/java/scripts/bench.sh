@@ -0,0 +1,59 @@
+#!/bin/bash
+# Scale factor benchmark: for each scale factor, generates a data set, loads it
+# into a scratch database with the bulk loader and runs HotelBench against it.
+# Results are appended to bench.csv, one row per scale factor and menu operation.
+#
+# Bookings are spread over YEARS years (default 3), e.g. YEARS=10 for a decade
+# of history in the date partitions.  HEAP (default 2g) is the benchmark's JVM
+# heap, which holds the booking snapshot of the occupancy reports (SF1000 is
+# 100 million bookings, about 1 GB).
+#
+# HOTELS (default: 100 per scale factor) lists hotel counts to run at every
+# scale factor, e.g. HOTELS="20 10000 1000000" to compare viewHotels against
+# viewHotels/scan from a handful of hotels up to a million.
+#
+# SERVER_PREPARE (default false) lists the hotel.pool.serverPrepare settings
+# to run HotelBench with, e.g. SERVER_PREPARE="false true" to compare the
+# pooled statements, planned on every call or once, with the concatenated
+# SQL of viewRooms/concatenated; runs with it on are labelled _serverPrepare.
+#
+# usage: source bench.sh [iterations] [scale factors...]
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+export PGPORT=8192
+DB=$USER"_DB_bench"
+ITERATIONS=${1:-1000}
+shift
+SCALES=${@:-1 10 100}
+YEARS=${YEARS:-3}
+HEAP=${HEAP:-2g}
+HOTELS=${HOTELS:-default}
+SERVER_PREPARE=${SERVER_PREPARE:-false}
+CP=$DIR/../classes:$DIR/../lib/pg73jdbc3.jar
+
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java
+
+for SF in $SCALES; do
+for H in $HOTELS; do
+   DATA=/tmp/$USER"_hotel_sf"$SF
+   LABEL=SF$SF"_"$YEARS"y"
+   GEN="-Dhotel.gen.years=$YEARS"
+   if [ "$H" != default ]; then
+      DATA=$DATA"_"$H"h"
+      LABEL=$LABEL"_"$H"h"
+      GEN="$GEN -Dhotel.gen.hotels=$H"
+   fi
+   java $GEN -cp $CP DataGenerator $DATA $SF
+   dropdb -h localhost -p $PGPORT --if-exists $DB
+   createdb -h localhost -p $PGPORT $DB
+   psql -h localhost -p $PGPORT -q $DB < $DIR/../../sql/src/create_tables.sql
+   psql -h localhost -p $PGPORT -q $DB < $DIR/../../sql/src/create_indexes.sql
+   java -cp $CP BulkLoader $DB $PGPORT $USER $DATA 4
+   for P in $SERVER_PREPARE; do
+      RUN=$LABEL
+      if [ "$P" = true ]; then
+         RUN=$RUN"_serverPrepare"
+      fi
+      java -Xmx$HEAP -Dhotel.pool.serverPrepare=$P -cp $CP HotelBench $DB $PGPORT $USER $ITERATIONS $RUN $DIR/../bench.csv
+   done
+done
+done
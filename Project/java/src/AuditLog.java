@@ -0,0 +1,512 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind pipeline for RoomUpdatesLog.  record() puts the entry on a
+ * bounded queue and returns; a background thread takes whatever is queued
+ * and inserts it with one multi-row INSERT per batch.  When the queue is
+ * full record() blocks until the writer catches up, so a burst of updates
+ * slows the managers down instead of growing the heap.
+ *
+ * Every entry is appended to a local journal before it is queued, and the
+ * writer appends a commit line after each batch.  Entries without a commit
+ * line are inserted again on the next start, skipping those that made it
+ * to the database, as an entry keeps the time of the update it logs.
+ * The entry is journaled once the update has committed, so a crash in
+ * between loses that one entry.  A journal belongs to one process: start()
+ * locks it through a ".lock" file next to it and fails while another
+ * process holds that lock, so run each process with its own
+ * hotel.audit.journal.
+ *
+ * Only serialization failures, deadlocks and a database that cannot be
+ * reached are retried.  Any other failure, such as a foreign key to a
+ * deleted room, would fail again forever, so the batch is split: the
+ * good entries are written one at a time, and the bad ones are appended
+ * to the dead letter file (the journal's name with ".dead", in the
+ * journal's format, each after a line with its error) and committed in
+ * the journal.  A replay at start() does the same.
+ *
+ * Settings are read from the system properties hotel.audit ("async", the
+ * default, or "transaction" to log in the same statement as the update,
+ * see RoomDao), hotel.audit.queue (entries, default 10000), hotel.audit.batch
+ * (entries per INSERT, default 500), hotel.audit.journal (file, default
+ * audit_journal.log, empty for none) and hotel.audit.fsync (force the
+ * journal to disk on every entry, default false).
+ *
+ */
+public class AuditLog {
+
+   /**
+    * One RoomUpdatesLog row waiting to be written.
+    */
+   static class Entry {
+      final long seq;
+      final int managerID;
+      final int hotelID;
+      final int roomNumber;
+      final Timestamp updatedOn;
+
+      Entry(long seq, int managerID, int hotelID, int roomNumber, Timestamp updatedOn) {
+         this.seq = seq;
+         this.managerID = managerID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.updatedOn = updatedOn;
+      }
+   }//end Entry
+
+   private final Hotel esql;
+   private volatile boolean inTransaction;
+   private final BlockingQueue<Entry> queue;
+   private final int batchSize;
+   private final File journalFile;
+   private final boolean fsync;
+   private final File deadLetterFile;
+
+   // held from start() to close(), so no other process replays or truncates the journal
+   private RandomAccessFile lockFile = null;
+   private FileLock lock = null;
+
+   // guarded by this: the journal, the sequence and the entries not yet written
+   private FileOutputStream journalStream = null;
+   private Writer journal = null;
+   private long nextSeq = 0;
+   private long outstanding = 0;
+   private boolean closed = false;
+
+   private Thread writer = null;
+
+   private final AtomicLong recorded = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong batches = new AtomicLong();
+   private final AtomicLong stalls = new AtomicLong();
+   private final AtomicLong retries = new AtomicLong();
+   private final AtomicLong deadLettered = new AtomicLong();
+
+   public AuditLog(Hotel esql) {
+      this(esql, "transaction".equals(System.getProperty("hotel.audit")), Integer.getInteger("hotel.audit.queue", 10000),
+           Integer.getInteger("hotel.audit.batch", 500), System.getProperty("hotel.audit.journal", "audit_journal.log"),
+           Boolean.getBoolean("hotel.audit.fsync"));
+   }
+
+   public AuditLog(Hotel esql, boolean inTransaction, int queueSize, int batchSize, String journal, boolean fsync) {
+      this.esql = esql;
+      this.inTransaction = inTransaction;
+      this.queue = new ArrayBlockingQueue<Entry>(queueSize);
+      this.batchSize = batchSize;
+      this.journalFile = journal == null || journal.length() == 0 ? null : new File(journal);
+      this.deadLetterFile = new File(journalFile == null ? "audit_journal.log.dead" : journalFile.getPath() + ".dead");
+      this.fsync = fsync;
+   }
+
+   /**
+    * @return true when room updates write their log row in the same
+    *         statement instead of going through the queue
+    */
+   public boolean inTransaction() {
+      return inTransaction;
+   }
+
+   /**
+    * Switches between logging in the update statement and the queue, e.g.
+    * for a benchmark; entries already queued are still written.
+    */
+   public void setInTransaction(boolean inTransaction) {
+      this.inTransaction = inTransaction;
+   }
+
+   /**
+    * Inserts the journaled entries a previous run did not get to write,
+    * then starts the writer thread.
+    *
+    * @return a one line description of what was replayed
+    */
+   public synchronized String start() throws SQLException {
+      int replayed = 0;
+      long dead = deadLettered.get();
+      lockJournal();
+      if (journalFile != null && journalFile.exists()) {
+         try{
+            List<Entry> pending = readJournal(journalFile);
+            for (int from = 0; from < pending.size(); from += batchSize) {
+               List<Entry> chunk = pending.subList(from, Math.min(from + batchSize, pending.size()));
+               try{
+                  replayed += insert(chunk, true);
+               }catch (SQLException e){
+                  if (!permanent(e))
+                     throw e;
+                  for (Entry entry : chunk) {
+                     try{
+                        replayed += insert(Collections.singletonList(entry), true);
+                     }catch (SQLException x){
+                        if (!permanent(x))
+                           throw x;
+                        deadLetter(entry, x);
+                     }
+                  }
+               }
+            }
+         }catch (IOException e){
+            throw new SQLException("cannot read the audit journal " + journalFile + ": " + e.getMessage());
+         }
+      }
+      openJournal();
+      writer = new Thread("audit-writer") {
+         public void run() {
+            QueryMetrics.setOperation("auditLog");
+            drain();
+         }
+      };
+      writer.setDaemon(true);
+      writer.start();
+      dead = deadLettered.get() - dead;
+      return (inTransaction ? "logged with each update" : "write-behind") + ", " + replayed
+             + " journaled updates replayed" + (dead > 0 ? ", " + dead + " failed, see " + deadLetterFile : "");
+   }//end start
+
+   /**
+    * Logs that a manager changed a room.  The entry is journaled and queued,
+    * blocking while the queue is full; without a running writer it is
+    * inserted right away.
+    *
+    * @throws java.sql.SQLException when the entry could not be journaled
+    *         nor inserted
+    */
+   public void record(int managerID, int hotelID, int roomNumber) throws SQLException {
+      Entry entry;
+      boolean queued;
+      synchronized (this) {
+         entry = new Entry(++nextSeq, managerID, hotelID, roomNumber, new Timestamp(System.currentTimeMillis()));
+         queued = !closed && writer != null && journal(entry);
+         if (queued)
+            ++outstanding;
+      }
+      recorded.incrementAndGet();
+      if (!queued) {
+         insert(Collections.singletonList(entry), false);
+         written.incrementAndGet();
+         return;
+      }
+      try{
+         if (!queue.offer(entry)) {
+            stalls.incrementAndGet();
+            queue.put(entry);
+         }
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         // not queued, write it here so the journal and the count stay right
+         insert(Collections.singletonList(entry), false);
+         committed(Collections.singletonList(entry), false);
+      }
+   }//end record
+
+   private boolean journal(Entry e) {
+      if (journal == null)
+         return true;
+      try{
+         journal.write("E " + e.seq + " " + e.managerID + " " + e.hotelID + " " + e.roomNumber + " "
+                       + e.updatedOn.getTime() + " .\n");
+         journal.flush();
+         if (fsync)
+            journalStream.getFD().sync();
+         return true;
+      }catch (IOException ex){
+         return false;
+      }
+   }
+
+   /*
+    * Writer thread: takes up to batchSize entries at a time and inserts
+    * them, retrying a failed batch until it goes through or the log is
+    * closed.
+    */
+   private void drain() {
+      List<Entry> batch = new ArrayList<Entry>(batchSize);
+      while (true) {
+         try{
+            if (batch.isEmpty()) {
+               Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+               if (first == null) {
+                  synchronized (this) {
+                     if (closed && queue.isEmpty())
+                        return;
+                  }
+                  continue;
+               }
+               batch.add(first);
+               queue.drainTo(batch, batchSize - 1);
+            }
+            try{
+               insert(batch, false);
+               committed(batch, false);
+               batch.clear();
+            }catch (SQLException e){
+               if (!permanent(e))
+                  throw e;
+               insertEach(batch);
+            }
+         }catch (InterruptedException e){
+            return;
+         }catch (SQLException e){
+            retries.incrementAndGet();
+            synchronized (this) {
+               // give up on a dead database at close, the journal keeps the entries
+               if (closed)
+                  return;
+            }
+            Hotel.backoff(Math.min(10, (int) retries.get()));
+         }
+      }
+   }//end drain
+
+   /*
+    * Writes the entries of a batch that failed one at a time, taking each
+    * off the batch once it is written or dead-lettered.  A failure worth
+    * retrying is thrown with the rest of the batch left.
+    */
+   private void insertEach(List<Entry> batch) throws SQLException {
+      while (!batch.isEmpty()) {
+         List<Entry> one = Collections.singletonList(batch.get(0));
+         try{
+            insert(one, false);
+            committed(one, false);
+         }catch (SQLException e){
+            if (!permanent(e))
+               throw e;
+            deadLetter(one.get(0), e);
+            committed(one, true);
+         }
+         batch.remove(0);
+      }
+   }//end insertEach
+
+   /*
+    * @return true for a failure that would come back on every retry: not
+    *         a serialization failure or deadlock, and the database answers
+    */
+   private boolean permanent(SQLException e) {
+      if (Hotel.isRetryable(e))
+         return false;
+      try{
+         esql.queryFirst("SELECT 1", Hotel.INT);
+         return true;
+      }catch (SQLException down){
+         return false;
+      }
+   }
+
+   private synchronized void deadLetter(Entry e, SQLException failure) {
+      deadLettered.incrementAndGet();
+      String line = "E " + e.seq + " " + e.managerID + " " + e.hotelID + " " + e.roomNumber + " " + e.updatedOn.getTime() + " .";
+      System.err.println("Audit log: cannot write " + line + ": " + failure.getMessage());
+      try{
+         Writer out = new OutputStreamWriter(new FileOutputStream(deadLetterFile, true), "UTF-8");
+         try{
+            out.write("# " + String.valueOf(failure.getMessage()).replace('\n', ' ') + "\n" + line + "\n");
+         }finally{
+            out.close();
+         }
+      }catch (IOException x){
+         System.err.println("Audit log: cannot write the dead letter file " + deadLetterFile + ": " + x.getMessage());
+      }
+   }//end deadLetter
+
+   private synchronized void committed(List<Entry> batch, boolean dead) {
+      if (!dead) {
+         written.addAndGet(batch.size());
+         batches.incrementAndGet();
+      }
+      outstanding -= batch.size();
+      if (journal != null) {
+         try{
+            if (outstanding == 0) {
+               // everything journaled is in the database, start the journal over
+               journal.close();
+               openJournal();
+            } else {
+               StringBuilder line = new StringBuilder("C");
+               for (Entry e : batch)
+                  line.append(' ').append(e.seq);
+               journal.write(line.append(" .\n").toString());
+               journal.flush();
+            }
+         }catch (IOException e){
+            // a missing commit line only makes the next start skip rows that exist
+         }catch (SQLException e){
+            journal = null;
+         }
+      }
+      notifyAll();
+   }//end committed
+
+   private void lockJournal() throws SQLException {
+      if (journalFile == null)
+         return;
+      File file = new File(journalFile.getPath() + ".lock");
+      try{
+         lockFile = new RandomAccessFile(file, "rw");
+         lock = lockFile.getChannel().tryLock();
+      }catch (OverlappingFileLockException e){
+         lock = null;
+      }catch (IOException e){
+         throw new SQLException("cannot lock the audit journal " + journalFile + ": " + e.getMessage());
+      }
+      if (lock == null) {
+         unlockJournal();
+         throw new SQLException("the audit journal " + journalFile + " is in use by another process,"
+                                + " give this one its own with -Dhotel.audit.journal=<file>");
+      }
+   }
+
+   private void unlockJournal() {
+      try{
+         // closing the file releases the lock
+         if (lockFile != null)
+            lockFile.close();
+      }catch (IOException e){
+         // ignored.
+      }
+      lockFile = null;
+      lock = null;
+   }
+
+   private void openJournal() throws SQLException {
+      if (journalFile == null)
+         return;
+      try{
+         journalStream = new FileOutputStream(journalFile, false);
+         journal = new OutputStreamWriter(journalStream, "UTF-8");
+      }catch (IOException e){
+         throw new SQLException("cannot open the audit journal " + journalFile + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * @return the entries of the journal that have no commit line
+    */
+   static List<Entry> readJournal(File file) throws IOException {
+      Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try{
+         String line;
+         while ((line = in.readLine()) != null) {
+            String[] f = line.split(" ");
+            try{
+               // the trailing "." tells a complete line from one torn by a crash
+               if (!f[f.length - 1].equals("."))
+                  continue;
+               if (f[0].equals("E") && f.length == 7)
+                  pending.put(Long.parseLong(f[1]), new Entry(Long.parseLong(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+                                                              Integer.parseInt(f[4]), new Timestamp(Long.parseLong(f[5]))));
+               else if (f[0].equals("C"))
+                  for (int i = 1; i < f.length - 1; ++i)
+                     pending.remove(Long.parseLong(f[i]));
+            }catch (NumberFormatException e){
+               // not a line this class wrote, skip it
+            }
+         }
+      }finally{
+         in.close();
+      }
+      return new ArrayList<Entry>(pending.values());
+   }//end readJournal
+
+   /*
+    * One multi-row INSERT for the entries.  A replay skips the entries
+    * whose row is already there.
+    */
+   private int insert(List<Entry> entries, boolean replay) throws SQLException {
+      StringBuilder sql = new StringBuilder("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn)"
+                                            + " SELECT V.managerID, V.hotelID, V.roomNumber, V.updatedOn FROM (VALUES ");
+      Object[] params = new Object[entries.size() * 4];
+      int i = 0;
+      for (Entry e : entries) {
+         sql.append(i == 0 ? "" : ", ").append("(?::integer, ?::integer, ?::integer, ?::timestamp)");
+         params[i++] = e.managerID;
+         params[i++] = e.hotelID;
+         params[i++] = e.roomNumber;
+         params[i++] = e.updatedOn;
+      }
+      sql.append(") AS V(managerID, hotelID, roomNumber, updatedOn)");
+      if (replay)
+         sql.append(" WHERE NOT EXISTS (SELECT 1 FROM RoomUpdatesLog L WHERE L.managerID = V.managerID"
+                    + " AND L.updatedOn = V.updatedOn AND L.hotelID = V.hotelID AND L.roomNumber = V.roomNumber)");
+      return esql.update(sql.toString(), params);
+   }//end insert
+
+   /**
+    * Waits until every entry queued so far is in the database.
+    *
+    * @return false if that did not happen within the timeout
+    */
+   public synchronized boolean flush(long timeoutMillis) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      while (outstanding > 0) {
+         long left = deadline - System.currentTimeMillis();
+         if (left <= 0)
+            return false;
+         wait(left);
+      }
+      return true;
+   }
+
+   /**
+    * @return one line with the entries recorded, written, batches, stalls
+    *         on a full queue, retried batches and dead-lettered entries
+    */
+   public String metrics() {
+      long n = batches.get();
+      return String.format("audit log: %d recorded, %d written in %d batches (%.1f per batch), %d queued,"
+                           + " %d stalls on a full queue, %d retried batches, %d dead-lettered",
+                           recorded.get(), written.get(), n, n == 0 ? 0.0 : (double) written.get() / n, queue.size(),
+                           stalls.get(), retries.get(), deadLettered.get());
+   }
+
+   /**
+    * Writes what is still queued, waiting at most the given time, and
+    * stops the writer.  Entries left over stay in the journal.
+    */
+   public void close(long timeoutMillis) {
+      Thread w;
+      synchronized (this) {
+         closed = true;
+         w = writer;
+      }
+      try{
+         if (w != null)
+            w.join(timeoutMillis);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+      synchronized (this) {
+         try{
+            if (journal != null)
+               journal.close();
+         }catch (IOException e){
+            // ignored.
+         }
+         unlockJournal();
+      }
+   }//end close
+
+}//end AuditLog
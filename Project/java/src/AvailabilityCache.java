@@ -0,0 +1,185 @@
+import java.sql.Date;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches, per (hotelID, date), the set of room numbers that are booked as
+ * a BitSet.  Entries are evicted least recently used first once the cache
+ * is full, and expire after a time to live so bookings made by other
+ * processes are eventually seen.  Bookings made through this process
+ * update the cached entry right away (see markBooked).
+ *
+ * A load from the database is only cached if its key did not change while
+ * it ran: every booking and invalidation stamps the key (or the whole
+ * hotel) with the current clock, and put() compares that stamp with the
+ * token from beginLoad().  The stamps are kept for as many keys as there
+ * are entries; once one is dropped, loads that started before it are not
+ * cached for any key.
+ *
+ * Settings are read from the system properties hotel.availability.size
+ * (entries, default 10000) and hotel.availability.ttl (ms, default 60000).
+ *
+ */
+public class AvailabilityCache {
+
+   private static class Slot {
+      final BitSet booked;
+      final long loadedAt;
+
+      Slot(BitSet booked, long loadedAt) {
+         this.booked = booked;
+         this.loadedAt = loadedAt;
+      }
+   }//end Slot
+
+   private final int maxEntries;
+   private final long ttl;
+   private final Map<Long, Slot> entries;
+
+   // ticks on every write; changedAt holds the tick of the last write per key
+   private long clock = 0;
+   private final Map<Long, Long> changedAt;
+   // loads that started before this tick are not cached
+   private long floor = 0;
+
+   private long hits = 0;
+   private long misses = 0;
+   private long evictions = 0;
+   private long expirations = 0;
+   private long invalidations = 0;
+
+   public AvailabilityCache() {
+      this(Integer.getInteger("hotel.availability.size", 10000), Long.getLong("hotel.availability.ttl", 60000L));
+   }
+
+   public AvailabilityCache(final int maxEntries, long ttl) {
+      this.maxEntries = maxEntries;
+      this.ttl = ttl;
+      this.entries = new LinkedHashMap<Long, Slot>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<Long, Slot> eldest) {
+            if (size() <= AvailabilityCache.this.maxEntries)
+               return false;
+            ++evictions;
+            return true;
+         }
+      };
+      this.changedAt = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            if (size() <= AvailabilityCache.this.maxEntries)
+               return false;
+            floor = Math.max(floor, eldest.getValue());
+            return true;
+         }
+      };
+   }//end AvailabilityCache
+
+   static long key(int hotelID, Date date) {
+      return ((long) hotelID << 32) | (Hotel.epochDay(date) & 0xffffffffL);
+   }
+
+   // stamp key for a whole hotel; sharing it with the date 1969-12-31 only costs a load
+   private static long key(int hotelID) {
+      return ((long) hotelID << 32) | 0xffffffffL;
+   }
+
+   private void changed(long k) {
+      changedAt.put(k, ++clock);
+   }
+
+   private boolean changedSince(long k, long token) {
+      Long at = changedAt.get(k);
+      return at != null && at > token;
+   }
+
+   /**
+    * @return a copy of the booked room numbers, or null on a miss
+    */
+   public synchronized BitSet get(int hotelID, Date date) {
+      Long k = key(hotelID, date);
+      Slot e = entries.get(k);
+      if (e != null && System.currentTimeMillis() - e.loadedAt > ttl) {
+         entries.remove(k);
+         ++expirations;
+         e = null;
+      }
+      if (e == null) {
+         ++misses;
+         return null;
+      }
+      ++hits;
+      return (BitSet) e.booked.clone();
+   }//end get
+
+   /**
+    * @return a token to hand back to put() after loading from the database
+    */
+   public synchronized long beginLoad() {
+      return clock;
+   }
+
+   /**
+    * Stores a freshly loaded entry, unless something was booked or
+    * invalidated for that hotel and date since the matching beginLoad().
+    */
+   public synchronized void put(int hotelID, Date date, BitSet booked, long token) {
+      long k = key(hotelID, date);
+      if (token < floor || changedSince(k, token) || changedSince(key(hotelID), token))
+         return;
+      entries.put(k, new Slot((BitSet) booked.clone(), System.currentTimeMillis()));
+   }
+
+   /**
+    * Records a booking made by this process in the cached entry, if any.
+    */
+   public synchronized void markBooked(int hotelID, Date date, int roomNumber) {
+      long k = key(hotelID, date);
+      changed(k);
+      Slot e = entries.get(k);
+      if (e != null)
+         e.booked.set(roomNumber);
+   }
+
+   /**
+    * Drops the entry of one hotel and date.
+    */
+   public synchronized void invalidate(int hotelID, Date date) {
+      long k = key(hotelID, date);
+      changed(k);
+      if (entries.remove(k) != null)
+         ++invalidations;
+   }
+
+   /**
+    * Drops every entry of a hotel.
+    */
+   public synchronized void invalidate(int hotelID) {
+      changed(key(hotelID));
+      Iterator<Long> it = entries.keySet().iterator();
+      while (it.hasNext()) {
+         if ((it.next() >>> 32) == hotelID) {
+            it.remove();
+            ++invalidations;
+         }
+      }
+   }//end invalidate
+
+   public synchronized void clear() {
+      floor = ++clock;
+      changedAt.clear();
+      invalidations += entries.size();
+      entries.clear();
+   }
+
+   /**
+    * @return a one line summary of the cache counters
+    */
+   public synchronized String metrics() {
+      long lookups = hits + misses;
+      return String.format("availability cache: entries=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expired=%d invalidated=%d",
+                           entries.size(), hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                           evictions, expirations, invalidations);
+   }
+
+}//end AvailabilityCache
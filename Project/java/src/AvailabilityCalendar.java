@@ -0,0 +1,94 @@
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+
+/**
+ * Room by date availability of one hotel over a range of days, one bit
+ * per room and day.
+ *
+ */
+public class AvailabilityCalendar {
+
+   public final int hotelID;
+   public final Date firstDay;
+   public final int days;
+   // the hotel's room numbers, ascending
+   private final int[] rooms;
+   // bit room * days + day is set when the room is booked that day
+   private final BitSet booked;
+
+   public AvailabilityCalendar(int hotelID, Date firstDay, int days, int[] rooms) {
+      this.hotelID = hotelID;
+      this.firstDay = firstDay;
+      this.days = days;
+      this.rooms = rooms;
+      this.booked = new BitSet(rooms.length * days);
+   }
+
+   /**
+    * Marks the room booked on the given day of the range; rooms the
+    * calendar does not know are ignored.
+    */
+   void markBooked(int roomNumber, int day) {
+      int room = Arrays.binarySearch(rooms, roomNumber);
+      if (room >= 0 && day >= 0 && day < days)
+         booked.set(room * days + day);
+   }
+
+   public int roomCount() {
+      return rooms.length;
+   }
+
+   public int roomNumber(int room) {
+      return rooms[room];
+   }
+
+   public boolean isFree(int room, int day) {
+      return !booked.get(room * days + day);
+   }
+
+   /**
+    * @return the room numbers booked on the given day of the range
+    */
+   public BitSet bookedOn(int day) {
+      BitSet numbers = new BitSet();
+      for (int room = 0; room < rooms.length; ++room)
+         if (booked.get(room * days + day))
+            numbers.set(rooms[room]);
+      return numbers;
+   }
+
+   /**
+    * @return the number of free rooms on the given day of the range
+    */
+   public int freeRooms(int day) {
+      int free = rooms.length;
+      for (int room = 0; room < rooms.length; ++room)
+         if (booked.get(room * days + day))
+            --free;
+      return free;
+   }
+
+   /**
+    * @return the room's line of the calendar, '.' for a free day and 'X'
+    *         for a booked one, with a blank after every 7 days
+    */
+   public String row(int room) {
+      StringBuilder sb = new StringBuilder(days + days / 7);
+      for (int day = 0; day < days; ++day) {
+         if (day > 0 && day % 7 == 0)
+            sb.append(' ');
+         sb.append(isFree(room, day) ? '.' : 'X');
+      }
+      return sb.toString();
+   }
+
+   public Date date(int day) {
+      Calendar c = Calendar.getInstance();
+      c.setTime(firstDay);
+      c.add(Calendar.DATE, day);
+      return new Date(c.getTimeInMillis());
+   }
+
+}//end AvailabilityCalendar
@@ -0,0 +1,29 @@
+import java.sql.Date;
+
+/**
+ * A row of RoomBookings, optionally joined with the customer name and the
+ * room price depending on the query that produced it.
+ *
+ */
+public class Booking {
+
+   public final int bookingID;
+   public final int customerID;
+   public final String customerName;
+   public final int hotelID;
+   public final int roomNumber;
+   public final Date bookingDate;
+   public final int price;
+
+   public Booking(int bookingID, int customerID, String customerName, int hotelID, int roomNumber,
+                  Date bookingDate, int price) {
+      this.bookingID = bookingID;
+      this.customerID = customerID;
+      this.customerName = customerName;
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.bookingDate = bookingDate;
+      this.price = price;
+   }
+
+}//end Booking
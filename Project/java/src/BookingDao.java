@@ -0,0 +1,271 @@
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data access for RoomBookings and the reports built on it.
+ *
+ */
+public class BookingDao {
+
+   // bookingID, customerID, name, hotelID, roomNumber, bookingDate, price
+   private static final RowMapper<Booking> BOOKING = new RowMapper<Booking>() {
+      public Booking map(ResultSet rs) throws SQLException {
+         return new Booking(rs.getInt(1), rs.getInt(2), Hotel.trimmed(rs.getString(3)), rs.getInt(4),
+                            rs.getInt(5), rs.getDate(6), rs.getInt(7));
+      }
+   };
+
+   private static final RowMapper<CustomerCount> CUSTOMER_COUNT = new RowMapper<CustomerCount>() {
+      public CustomerCount map(ResultSet rs) throws SQLException {
+         return new CustomerCount(rs.getInt(1), Hotel.trimmed(rs.getString(2)), rs.getLong(3));
+      }
+   };
+
+   private final Hotel esql;
+
+   public BookingDao(Hotel esql) {
+      this.esql = esql;
+   }
+
+   // attempts made by book() before giving up on serialization failures
+   private static final int BOOK_ATTEMPTS = 5;
+
+   /**
+    * Books a room in a single statement.  The room and its price come from
+    * the catalog, and the unique (hotelID, roomNumber, bookingDate)
+    * constraint turns a concurrent booking of the same room into a no-op,
+    * so two clerks can never both get the room.
+    *
+    * @return the new booking with the charged price, or null if the room
+    *         does not exist or is already booked on that date
+    * @throws java.sql.SQLException when the insert keeps failing
+    */
+   public Booking book(int customerID, int hotelID, int roomNumber, Date date) throws SQLException {
+      for (int attempt = 1; ; ++attempt) {
+         try{
+            Room room = esql.rooms().find(hotelID, roomNumber);
+            if (room == null)
+               return null;
+            Integer bookingID = esql.queryFirst("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate)"
+                                                + " VALUES (?, ?, ?, ?) ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING"
+                                                + " RETURNING bookingID",
+                                                Hotel.INT, customerID, hotelID, roomNumber, date);
+            if (bookingID == null)
+               return null;
+            esql.availability().markBooked(hotelID, date, roomNumber);
+            return new Booking(bookingID, customerID, null, hotelID, roomNumber, date, room.price);
+         }catch (SQLException e){
+            if (attempt >= BOOK_ATTEMPTS || !Hotel.isRetryable(e))
+               throw e;
+            Hotel.backoff(attempt);
+         }
+      }
+   }//end book
+
+   // rows per VALUES list, keeps the bind parameter count far below the protocol limit
+   private static final int BATCH_CHUNK = 500;
+
+   /**
+    * Books several rooms and/or nights as one all-or-nothing transaction.
+    * Availability of every requested night is checked with one set-based
+    * query per chunk, then all of them are inserted with one multi-row
+    * INSERT per chunk.  If any night is taken, nothing is booked.
+    *
+    * @param requests the rooms and dates to book; duplicates are ignored
+    * @return the new bookings with their price
+    * @throws java.sql.SQLException when some of the requested nights are
+    *         not available (the message lists them) or the insert failed
+    */
+   public List<Booking> bookAll(int customerID, List<BookingRequest> requests) throws SQLException {
+      // one request per room night, however each Date was normalized
+      Map<String, BookingRequest> nights = new LinkedHashMap<String, BookingRequest>();
+      for (BookingRequest r : requests)
+         if (!nights.containsKey(night(r.hotelID, r.roomNumber, r.bookingDate)))
+            nights.put(night(r.hotelID, r.roomNumber, r.bookingDate), r);
+      List<BookingRequest> unique = new ArrayList<BookingRequest>(nights.values());
+      List<Booking> booked = new ArrayList<Booking>(unique.size());
+      if (unique.isEmpty())
+         return booked;
+
+      long start = System.nanoTime();
+      SQLException failure = null;
+      PooledConnection conn = esql.getConnection();
+      try{
+         conn.getConnection().setAutoCommit(false);
+
+         // set-based availability check, rooms missing from Rooms or already booked come back
+         Map<String, Integer> prices = new HashMap<String, Integer>();
+         List<BookingRequest> unavailable = new ArrayList<BookingRequest>();
+         for (int from = 0; from < unique.size(); from += BATCH_CHUNK) {
+            List<BookingRequest> chunk = unique.subList(from, Math.min(from + BATCH_CHUNK, unique.size()));
+            PreparedStatement stmt = conn.prepare("SELECT V.hotelID, V.roomNumber, V.bookingDate, R.price,"
+                                                  + " EXISTS (SELECT 1 FROM RoomBookings RB WHERE RB.hotelID = V.hotelID"
+                                                  + " AND RB.roomNumber = V.roomNumber AND RB.bookingDate = V.bookingDate)"
+                                                  + " FROM " + valuesList(chunk.size()) + " AS V(hotelID, roomNumber, bookingDate)"
+                                                  + " LEFT JOIN Rooms R ON R.hotelID = V.hotelID AND R.roomNumber = V.roomNumber");
+            Hotel.bind(stmt, flatten(chunk));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+               BookingRequest request = new BookingRequest(rs.getInt(1), rs.getInt(2), rs.getDate(3));
+               int price = rs.getInt(4);
+               if (rs.wasNull() || rs.getBoolean(5))
+                  unavailable.add(request);
+               else
+                  prices.put(night(request.hotelID, request.roomNumber, request.bookingDate), price);
+            }
+            rs.close();
+         }
+         if (!unavailable.isEmpty())
+            throw new SQLException("Not available: " + unavailable);
+
+         // insert every night; a conflict here means another session booked in between
+         for (int from = 0; from < unique.size(); from += BATCH_CHUNK) {
+            List<BookingRequest> chunk = unique.subList(from, Math.min(from + BATCH_CHUNK, unique.size()));
+            PreparedStatement stmt = conn.prepare("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate)"
+                                                  + " SELECT ?, V.hotelID, V.roomNumber, V.bookingDate"
+                                                  + " FROM " + valuesList(chunk.size()) + " AS V(hotelID, roomNumber, bookingDate)"
+                                                  + " ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING"
+                                                  + " RETURNING bookingID, hotelID, roomNumber, bookingDate");
+            Object[] params = flatten(chunk);
+            Object[] withCustomer = new Object[params.length + 1];
+            withCustomer[0] = customerID;
+            System.arraycopy(params, 0, withCustomer, 1, params.length);
+            Hotel.bind(stmt, withCustomer);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+               BookingRequest request = new BookingRequest(rs.getInt(2), rs.getInt(3), rs.getDate(4));
+               Integer price = prices.get(night(request.hotelID, request.roomNumber, request.bookingDate));
+               if (price == null)
+                  throw new SQLException("Unexpected booking of " + request + ", nothing was booked");
+               booked.add(new Booking(rs.getInt(1), customerID, null, request.hotelID, request.roomNumber,
+                                      request.bookingDate, price));
+            }
+            rs.close();
+         }
+         if (booked.size() != unique.size())
+            throw new SQLException("Some of the rooms were booked by someone else meanwhile, nothing was booked");
+
+         conn.getConnection().commit();
+         for (Booking b : booked)
+            esql.availability().markBooked(b.hotelID, b.bookingDate, b.roomNumber);
+         return booked;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         // release() rolls back whatever was not committed
+         conn.release();
+         // the whole transaction is recorded as one statement
+         esql.metrics().record("bookAll: " + unique.size() + " nights", start, booked.size(), failure);
+      }
+   }//end bookAll
+
+   /**
+    * @return a key for one room night that does not depend on the time of
+    *         day the Date carries
+    */
+   private static String night(int hotelID, int roomNumber, Date date) {
+      return hotelID + "/" + roomNumber + "/" + Hotel.epochDay(date);
+   }
+
+   private static String valuesList(int rows) {
+      StringBuilder sb = new StringBuilder("(VALUES ");
+      for (int i = 0; i < rows; ++i)
+         sb.append(i == 0 ? "" : ", ").append("(?::integer, ?::integer, ?::date)");
+      return sb.append(')').toString();
+   }
+
+   private static Object[] flatten(List<BookingRequest> requests) {
+      Object[] params = new Object[requests.size() * 3];
+      int i = 0;
+      for (BookingRequest r : requests) {
+         params[i++] = r.hotelID;
+         params[i++] = r.roomNumber;
+         params[i++] = r.bookingDate;
+      }
+      return params;
+   }
+
+   /**
+    * @return the customer's most recent bookings with the room price,
+    *         newest first
+    */
+   public List<Booking> recentForCustomer(int customerID, int limit) throws SQLException {
+      return customerPage(customerID, null, limit).bookings;
+   }
+
+   // a key after every booking, for the first page of a newest first history
+   private static final Date LAST_DATE = Date.valueOf("9999-12-31");
+
+   /**
+    * Reads one page of the customer's bookings, newest first.  The page
+    * is one backward range scan of the (customerID, bookingDate,
+    * bookingID) index that starts right before the given booking, so a
+    * deep page costs the same as the first one.
+    *
+    * @param after the last booking of the previous page, null for the
+    *        first page
+    */
+   public BookingPage customerPage(int customerID, Booking after, int size) throws SQLException {
+      Date date = after == null ? LAST_DATE : after.bookingDate;
+      int bookingID = after == null ? Integer.MAX_VALUE : after.bookingID;
+      // the plain date bound lets the planner skip the partitions after the key
+      List<Booking> rows = esql.query("SELECT RB.bookingID, RB.customerID, NULL, RB.hotelID, RB.roomNumber, RB.bookingDate, R.price"
+                                      + " FROM RoomBookings RB, Rooms R WHERE RB.customerID = ?"
+                                      + " AND RB.bookingDate <= ? AND (RB.bookingDate, RB.bookingID) < (?, ?)"
+                                      + " AND RB.hotelID = R.hotelID AND RB.roomNumber = R.roomNumber"
+                                      + " ORDER BY RB.bookingDate DESC, RB.bookingID DESC LIMIT ?",
+                                      BOOKING, customerID, date, date, bookingID, size + 1);
+      return page(rows, size);
+   }//end customerPage
+
+   /**
+    * Reads one page of the hotel's bookings between the two dates, both
+    * included, oldest first, as one range scan of the (hotelID,
+    * bookingDate, bookingID) index starting right after the given booking.
+    *
+    * @param after the last booking of the previous page, null for the
+    *        first page
+    */
+   public BookingPage hotelPage(int hotelID, Date from, Date to, Booking after, int size) throws SQLException {
+      // bookingIDs start at 1, so (from, 0) is before every booking of the range
+      Date date = after == null ? from : after.bookingDate;
+      int bookingID = after == null ? 0 : after.bookingID;
+      List<Booking> rows = esql.query("SELECT RB.bookingID, RB.customerID, U.name, RB.hotelID, RB.roomNumber, RB.bookingDate, 0"
+                                      + " FROM RoomBookings RB, Users U WHERE RB.hotelID = ?"
+                                      + " AND RB.bookingDate >= ? AND RB.bookingDate <= ? AND (RB.bookingDate, RB.bookingID) > (?, ?)"
+                                      + " AND RB.customerID = U.userID"
+                                      + " ORDER BY RB.bookingDate, RB.bookingID LIMIT ?",
+                                      BOOKING, hotelID, date, to, date, bookingID, size + 1);
+      return page(rows, size);
+   }//end hotelPage
+
+   // one row more than the page was read to know whether another page follows
+   private static BookingPage page(List<Booking> rows, int size) {
+      boolean hasMore = rows.size() > size;
+      return new BookingPage(hasMore ? new ArrayList<Booking>(rows.subList(0, size)) : rows, hasMore);
+   }
+
+   /**
+    * Reads the customers with the most bookings in the hotel from
+    * CustomerBookingCounts, which the RoomBookings triggers keep up to
+    * date, so only the first rows of its rank index are touched.
+    *
+    * @return the customers with the most bookings in the hotel, ties
+    *         broken by customerID
+    */
+   public List<CustomerCount> regularCustomers(int hotelID, int limit) throws SQLException {
+      return esql.query("SELECT C.customerID, U.name, C.bookings FROM CustomerBookingCounts C, Users U"
+                        + " WHERE C.hotelID = ? AND U.userID = C.customerID"
+                        + " ORDER BY C.bookings DESC, C.customerID LIMIT ?",
+                        CUSTOMER_COUNT, hotelID, limit);
+   }
+
+}//end BookingDao
@@ -0,0 +1,26 @@
+import java.util.List;
+
+/**
+ * One page of a booking history.  The next page starts after the last
+ * booking of this one, by (bookingDate, bookingID).
+ *
+ */
+public class BookingPage {
+
+   public final List<Booking> bookings;
+   public final boolean hasMore;
+
+   public BookingPage(List<Booking> bookings, boolean hasMore) {
+      this.bookings = bookings;
+      this.hasMore = hasMore;
+   }
+
+   /**
+    * @return the booking to pass as the key of the next page, null for
+    *         an empty page
+    */
+   public Booking last() {
+      return bookings.isEmpty() ? null : bookings.get(bookings.size() - 1);
+   }
+
+}//end BookingPage
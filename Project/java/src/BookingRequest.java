@@ -0,0 +1,34 @@
+import java.sql.Date;
+
+/**
+ * One room for one night, as requested by a batch booking.
+ *
+ */
+public class BookingRequest {
+
+   public final int hotelID;
+   public final int roomNumber;
+   public final Date bookingDate;
+
+   public BookingRequest(int hotelID, int roomNumber, Date bookingDate) {
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.bookingDate = bookingDate;
+   }
+
+   public boolean equals(Object other) {
+      if (!(other instanceof BookingRequest))
+         return false;
+      BookingRequest o = (BookingRequest) other;
+      return hotelID == o.hotelID && roomNumber == o.roomNumber && bookingDate.equals(o.bookingDate);
+   }
+
+   public int hashCode() {
+      return (hotelID * 31 + roomNumber) * 31 + bookingDate.hashCode();
+   }
+
+   public String toString() {
+      return "hotel " + hotelID + " room " + roomNumber + " on " + bookingDate;
+   }
+
+}//end BookingRequest
@@ -0,0 +1,434 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Every booking of RoomBookings held in memory as columns of primitive
+ * arrays, for occupancy and revenue reports over years of bookings that
+ * would otherwise be long aggregates on the live tables.
+ *
+ * A booking takes 8 bytes: the room as a dictionary code (the dictionary
+ * maps it to the hotel and room number) and the date as an epoch day.
+ * The columns are cut into segments of 64K rows, so growing never copies
+ * them and reports scan the segments in parallel on a fork/join pool of
+ * -Dhotel.analytics.threads (default one per processor) threads.  Prices
+ * are not stored: revenue is the nights booked times the room's current
+ * price in the catalog, as everywhere else in the application.
+ *
+ * load() reads the whole table once; refresh() then only reads the
+ * bookingIDs above the highest one seen.  As serial IDs can commit out of
+ * order, refresh() reads again the last -Dhotel.analytics.overlap
+ * (default 10000) IDs and skips those it already has.  Bookings deleted
+ * from the database stay until the next load().
+ *
+ */
+public class BookingSnapshot {
+
+   // report groupings
+   public static final int BY_HOTEL = 0;
+   public static final int BY_MONTH = 1;
+   public static final int BY_ROOM = 2;
+
+   static final int SEGMENT_BITS = 16;
+   static final int SEGMENT = 1 << SEGMENT_BITS;
+   // segments scanned by one fork/join leaf, 1M rows
+   static final int LEAF_SEGMENTS = 16;
+   static final int MAX_ROOM_NUMBER = 4096;
+   static final int OVERLAP = Integer.getInteger("hotel.analytics.overlap", 10000);
+
+   private static final ForkJoinPool POOL =
+      new ForkJoinPool(Integer.getInteger("hotel.analytics.threads", Runtime.getRuntime().availableProcessors()));
+
+   private static class Segment {
+      final int[] rooms = new int[SEGMENT];
+      final int[] days = new int[SEGMENT];
+   }
+
+   /*
+    * What the reports read, published as a whole by the writer.  The
+    * arrays may be shared with later views, which only write past the
+    * counts of this one.
+    */
+   private static class View {
+      final Segment[] segments;
+      final int size;
+      final int[] hotelIDs;
+      final int hotels;
+      final int[] roomHotel;
+      final int[] roomNumbers;
+      final int rooms;
+
+      View(Segment[] segments, int size, int[] hotelIDs, int hotels, int[] roomHotel, int[] roomNumbers, int rooms) {
+         this.segments = segments;
+         this.size = size;
+         this.hotelIDs = hotelIDs;
+         this.hotels = hotels;
+         this.roomHotel = roomHotel;
+         this.roomNumbers = roomNumbers;
+         this.rooms = rooms;
+      }
+   }//end View
+
+   private final Hotel esql;
+   private volatile View view = new View(new Segment[0], 0, new int[0], 0, new int[0], new int[0], 0);
+
+   // writer state, guarded by this
+   private Segment[] segments;
+   private int size;
+   private int[] hotelIDs;
+   private int hotels;
+   private int[] roomHotel;
+   private int[] roomNumbers;
+   private int rooms;
+   private Map<Integer, Integer> hotelCodes;
+   // per hotel code, room code + 1 by room number; numbers past MAX_ROOM_NUMBER go to roomCodes
+   private int[][] roomCodesOf;
+   private Map<Long, Integer> roomCodes;
+   private BitSet seen;
+   private int maxBookingID;
+   // false until a load() got through, refresh() loads until then
+   private boolean loaded;
+   private volatile long loadMillis;
+   private volatile long refreshes;
+   private volatile long refreshedRows;
+
+   public BookingSnapshot(Hotel esql) {
+      this.esql = esql;
+      reset();
+   }
+
+   private void reset() {
+      segments = new Segment[0];
+      size = 0;
+      hotelIDs = new int[16];
+      hotels = 0;
+      roomHotel = new int[256];
+      roomNumbers = new int[256];
+      rooms = 0;
+      hotelCodes = new HashMap<Integer, Integer>();
+      roomCodesOf = new int[16][];
+      roomCodes = new HashMap<Long, Integer>();
+      seen = new BitSet();
+      maxBookingID = 0;
+   }
+
+   /**
+    * Adds one booking to the writer state; it is seen by reports after
+    * the next publish().  Not thread safe, used by load(), refresh() and
+    * by loaders that own the snapshot.
+    */
+   void add(int bookingID, int hotelID, int roomNumber, int epochDay) {
+      if (bookingID > 0) {
+         seen.set(bookingID);
+         maxBookingID = Math.max(maxBookingID, bookingID);
+      }
+      Integer hotel = hotelCodes.get(hotelID);
+      if (hotel == null) {
+         if (hotels == hotelIDs.length) {
+            hotelIDs = Arrays.copyOf(hotelIDs, hotels * 2);
+            roomCodesOf = Arrays.copyOf(roomCodesOf, hotels * 2);
+         }
+         hotelIDs[hotels] = hotelID;
+         roomCodesOf[hotels] = new int[0];
+         hotelCodes.put(hotelID, hotel = hotels++);
+      }
+      boolean small = roomNumber >= 0 && roomNumber < MAX_ROOM_NUMBER;
+      int[] codes = roomCodesOf[hotel];
+      Long key = small ? null : ((long) hotelID << 32) | (roomNumber & 0xffffffffL);
+      int room = small ? (roomNumber < codes.length ? codes[roomNumber] : 0) - 1
+                       : roomCodes.containsKey(key) ? roomCodes.get(key) : -1;
+      if (room < 0) {
+         if (rooms == roomHotel.length) {
+            roomHotel = Arrays.copyOf(roomHotel, rooms * 2);
+            roomNumbers = Arrays.copyOf(roomNumbers, rooms * 2);
+         }
+         roomHotel[rooms] = hotel;
+         roomNumbers[rooms] = roomNumber;
+         room = rooms++;
+         if (!small) {
+            roomCodes.put(key, room);
+         } else {
+            if (roomNumber >= codes.length)
+               roomCodesOf[hotel] = codes = Arrays.copyOf(codes, Math.min(MAX_ROOM_NUMBER, Math.max(roomNumber + 1, codes.length * 2)));
+            codes[roomNumber] = room + 1;
+         }
+      }
+      int segment = size >>> SEGMENT_BITS;
+      if (segment == segments.length) {
+         segments = Arrays.copyOf(segments, segment + 1);
+         segments[segment] = new Segment();
+      }
+      segments[segment].rooms[size & (SEGMENT - 1)] = room;
+      segments[segment].days[size & (SEGMENT - 1)] = epochDay;
+      ++size;
+   }//end add
+
+   void publish() {
+      view = new View(segments, size, hotelIDs, hotels, roomHotel, roomNumbers, rooms);
+   }
+
+   /**
+    * Reads every booking from the database, replacing what the snapshot
+    * held; reports keep using the old bookings until it is done.
+    *
+    * @return the number of bookings read
+    */
+   public synchronized long load() throws SQLException {
+      long start = System.nanoTime();
+      loaded = false;
+      reset();
+      long rows = read("SELECT bookingID, hotelID, roomNumber, bookingDate - DATE '1970-01-01' FROM RoomBookings");
+      publish();
+      loaded = true;
+      loadMillis = (System.nanoTime() - start) / 1000000;
+      refreshes = 0;
+      refreshedRows = 0;
+      return rows;
+   }//end load
+
+   /**
+    * Adds the bookings made since the last load() or refresh(), one
+    * range scan of the bookingID index.  Loads the snapshot if it was not
+    * loaded yet.
+    *
+    * @return the number of new bookings
+    */
+   public synchronized long refresh() throws SQLException {
+      if (!loaded)
+         return load();
+      int before = size;
+      read("SELECT bookingID, hotelID, roomNumber, bookingDate - DATE '1970-01-01' FROM RoomBookings WHERE bookingID > ?",
+           Math.max(0, maxBookingID - OVERLAP));
+      publish();
+      ++refreshes;
+      refreshedRows += size - before;
+      return size - before;
+   }//end refresh
+
+   private long read(String sql, Object... params) throws SQLException {
+      // one buffer for every row, the visitor takes it before the next one is read
+      final int[] row = new int[4];
+      return esql.stream(sql, new RowMapper<int[]>() {
+         public int[] map(ResultSet rs) throws SQLException {
+            row[0] = rs.getInt(1);
+            row[1] = rs.getInt(2);
+            row[2] = rs.getInt(3);
+            row[3] = rs.getInt(4);
+            return row;
+         }
+      }, new RowVisitor<int[]>() {
+         public void visit(int[] r) {
+            if (!seen.get(r[0]))
+               add(r[0], r[1], r[2], r[3]);
+         }
+      }, params);
+   }//end read
+
+   public int size() {
+      return view.size;
+   }
+
+   /**
+    * Counts, per group, the nights booked from the first to the last day
+    * (both included) and their revenue.  By hotel there is a row per
+    * hotel given, by month a row per month of the range over all the
+    * hotels given, and by room a row per room of the first hotel given.
+    */
+   public List<OccupancyRow> report(int groupBy, List<Integer> hotels, Date first, Date last) throws SQLException {
+      return report(POOL, groupBy, hotels, Hotel.epochDay(first), Hotel.epochDay(last) + 1);
+   }
+
+   /**
+    * As above over the epoch days [from, to), on the given pool.
+    */
+   List<OccupancyRow> report(ForkJoinPool pool, int groupBy, List<Integer> hotels, int from, int to)
+      throws SQLException {
+      View v = this.view;
+      int days = Math.max(0, to - from);
+      if (groupBy == BY_ROOM)
+         hotels = hotels.subList(0, Math.min(1, hotels.size()));
+
+      // the rooms of the hotels, for their prices and the room nights
+      Map<Integer, Integer> position = new HashMap<Integer, Integer>();
+      List<Integer> hotelOrder = new ArrayList<Integer>();
+      List<List<Room>> hotelRooms = new ArrayList<List<Room>>();
+      long roomCount = 0;
+      for (int hotelID : hotels) {
+         if (position.containsKey(hotelID))
+            continue;
+         List<Room> list = rooms(hotelID);
+         position.put(hotelID, hotelRooms.size());
+         hotelOrder.add(hotelID);
+         hotelRooms.add(list == null ? new ArrayList<Room>() : list);
+         roomCount += list == null ? 0 : list.size();
+      }
+
+      int[] positionOf = new int[v.hotels];
+      for (int h = 0; h < v.hotels; ++h) {
+         Integer p = position.get(v.hotelIDs[h]);
+         positionOf[h] = p == null ? -1 : p;
+      }
+      // per room code its group, or -1 to skip it, next to its price, so
+      // a row costs one cache miss
+      final int[] keyAndPrice = new int[v.rooms * 2];
+      for (int r = 0; r < v.rooms; ++r) {
+         keyAndPrice[2 * r] = -1;
+         int p = positionOf[v.roomHotel[r]];
+         if (p < 0)
+            continue;
+         List<Room> list = hotelRooms.get(p);
+         int i = indexOf(list, v.roomNumbers[r]);
+         // a room no longer in Rooms has no price and no room nights
+         if (i < 0)
+            continue;
+         keyAndPrice[2 * r] = groupBy == BY_HOTEL ? p : groupBy == BY_ROOM ? i : 0;
+         keyAndPrice[2 * r + 1] = list.get(i).price;
+      }
+
+      List<String> labels = new ArrayList<String>();
+      List<Long> roomNights = new ArrayList<Long>();
+      int[] monthOf = null;
+      if (groupBy == BY_HOTEL) {
+         for (int p = 0; p < hotelRooms.size(); ++p) {
+            labels.add("hotel " + hotelOrder.get(p));
+            roomNights.add((long) hotelRooms.get(p).size() * days);
+         }
+      } else if (groupBy == BY_ROOM) {
+         for (Room room : hotelRooms.isEmpty() ? new ArrayList<Room>() : hotelRooms.get(0)) {
+            labels.add("room " + room.roomNumber);
+            roomNights.add((long) days);
+         }
+      } else {
+         monthOf = new int[days];
+         Calendar c = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+         int firstMonth = 0;
+         for (int d = 0; d < days; ++d) {
+            c.setTimeInMillis((from + d) * 86400000L);
+            int month = c.get(Calendar.YEAR) * 12 + c.get(Calendar.MONTH);
+            if (d == 0)
+               firstMonth = month;
+            monthOf[d] = month - firstMonth;
+            if (monthOf[d] == labels.size()) {
+               labels.add(String.format(Locale.ROOT, "%04d-%02d", c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1));
+               roomNights.add(0L);
+            }
+            roomNights.set(monthOf[d], roomNights.get(monthOf[d]) + roomCount);
+         }
+      }
+
+      long[][] sums = pool.invoke(new Scan(v, 0, (v.size + SEGMENT - 1) >>> SEGMENT_BITS, from, to,
+                                           keyAndPrice, monthOf, labels.size()));
+      List<OccupancyRow> report = new ArrayList<OccupancyRow>(labels.size());
+      for (int k = 0; k < labels.size(); ++k)
+         report.add(new OccupancyRow(labels.get(k), sums[0][k], sums[1][k], roomNights.get(k)));
+      return report;
+   }//end report
+
+   /**
+    * @return the hotel's rooms ordered by room number, with their current
+    *         prices, or null for an unknown hotel
+    */
+   protected List<Room> rooms(int hotelID) throws SQLException {
+      return esql.catalog().rooms(hotelID);
+   }
+
+   private static int indexOf(List<Room> rooms, int roomNumber) {
+      int lo = 0, hi = rooms.size() - 1;
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         int n = rooms.get(mid).roomNumber;
+         if (n < roomNumber)
+            lo = mid + 1;
+         else if (n > roomNumber)
+            hi = mid - 1;
+         else
+            return mid;
+      }
+      return -1;
+   }
+
+   /*
+    * Sums nights and revenue per group over a range of segments, split in
+    * halves until a range is at most LEAF_SEGMENTS long.
+    */
+   private static class Scan extends RecursiveTask<long[][]> {
+      private static final long serialVersionUID = 1L;
+
+      final View v;
+      final int lo, hi, from, to, groups;
+      final int[] keyAndPrice, monthOf;
+
+      Scan(View v, int lo, int hi, int from, int to, int[] keyAndPrice, int[] monthOf, int groups) {
+         this.v = v;
+         this.lo = lo;
+         this.hi = hi;
+         this.from = from;
+         this.to = to;
+         this.keyAndPrice = keyAndPrice;
+         this.monthOf = monthOf;
+         this.groups = groups;
+      }
+
+      protected long[][] compute() {
+         if (hi - lo > LEAF_SEGMENTS) {
+            int mid = (lo + hi) >>> 1;
+            Scan left = new Scan(v, lo, mid, from, to, keyAndPrice, monthOf, groups);
+            left.fork();
+            long[][] right = new Scan(v, mid, hi, from, to, keyAndPrice, monthOf, groups).compute();
+            long[][] sums = left.join();
+            for (int k = 0; k < groups; ++k) {
+               sums[0][k] += right[0][k];
+               sums[1][k] += right[1][k];
+            }
+            return sums;
+         }
+         long[] nights = new long[groups];
+         long[] revenue = new long[groups];
+         for (int s = lo; s < hi; ++s) {
+            int[] rooms = v.segments[s].rooms;
+            int[] days = v.segments[s].days;
+            int n = Math.min(SEGMENT, v.size - (s << SEGMENT_BITS));
+            for (int i = 0; i < n; ++i) {
+               int day = days[i];
+               if (day < from || day >= to)
+                  continue;
+               int room = rooms[i];
+               int key = keyAndPrice[2 * room];
+               if (key < 0)
+                  continue;
+               if (monthOf != null)
+                  key = monthOf[day - from];
+               ++nights[key];
+               revenue[key] += keyAndPrice[2 * room + 1];
+            }
+         }
+         return new long[][] { nights, revenue };
+      }//end compute
+   }//end Scan
+
+   /**
+    * @return a line with the size of the snapshot and its refreshes
+    */
+   public String metrics() {
+      View v = this.view;
+      long bytes = (long) v.segments.length * SEGMENT * 8 + (long) v.roomHotel.length * 8 + v.hotelIDs.length * 4
+         + seen.size() / 8;
+      return String.format(Locale.ROOT, "Booking snapshot: %d bookings, %d rooms of %d hotels, %.1f MB, loaded in %d ms,"
+                           + " %d refreshes added %d bookings, %d scan threads",
+                           v.size, v.rooms, v.hotels, bytes / 1048576.0, loadMillis, refreshes, refreshedRows,
+                           POOL.getParallelism());
+   }
+
+}//end BookingSnapshot
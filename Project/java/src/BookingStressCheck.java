@@ -0,0 +1,174 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Double booking check.  Many threads book the same few rooms on the same
+ * dates in 2100 at the same moment, round after round: even threads one
+ * night with book(), odd threads that night and the next with bookAll().
+ * Every room night may be handed to one booking only, both in what the
+ * DAO returned and in the database, and every returned booking must be
+ * there.  The bookings made are deleted afterwards.  Exits with status 1
+ * on any duplicate, missing booking or unexpected failure.
+ *
+ */
+public class BookingStressCheck {
+
+   static final Date FIRST_DAY = Date.valueOf("2100-01-01");
+
+   private final Hotel esql;
+   private final List<Room> rooms;
+   private final int customerID;
+
+   // the bookings handed out per hotelID/roomNumber/date
+   private final ConcurrentHashMap<String, AtomicInteger> booked = new ConcurrentHashMap<String, AtomicInteger>();
+   private final AtomicInteger bookings = new AtomicInteger();
+   private final AtomicInteger refused = new AtomicInteger();
+
+   public BookingStressCheck(Hotel esql, int roomCount) throws SQLException {
+      this.esql = esql;
+      this.rooms = esql.query("SELECT hotelID, roomNumber, price, imageURL FROM Rooms ORDER BY hotelID, roomNumber LIMIT ?",
+                              new RowMapper<Room>() {
+                                 public Room map(ResultSet rs) throws SQLException {
+                                    return new Room(rs.getInt(1), rs.getInt(2), rs.getInt(3), Hotel.trimmed(rs.getString(4)));
+                                 }
+                              }, roomCount);
+      Integer customer = esql.queryFirst("SELECT MIN(userID) FROM Users", Hotel.INT);
+      if (rooms.isEmpty() || customer == null)
+         throw new SQLException("the database holds no rooms or users to check with");
+      this.customerID = customer;
+   }
+
+   private void handedOut(Booking booking) {
+      String key = booking.hotelID + "/" + booking.roomNumber + "/" + booking.bookingDate;
+      AtomicInteger count = booked.putIfAbsent(key, new AtomicInteger(1));
+      if (count != null)
+         count.incrementAndGet();
+      bookings.incrementAndGet();
+   }
+
+   /**
+    * Runs the rounds; all threads start each round together.
+    *
+    * @return the number of bookings per second
+    */
+   public double run(final int threads, final int rounds) throws Exception {
+      final List<Exception> failures = new ArrayList<Exception>();
+      final CyclicBarrier start = new CyclicBarrier(threads);
+      Thread[] workers = new Thread[threads];
+      long begin = System.nanoTime();
+      for (int t = 0; t < threads; ++t) {
+         final int thread = t;
+         workers[t] = new Thread("booking-" + t) {
+            public void run() {
+               try{
+                  for (int round = 0; round < rounds; ++round) {
+                     start.await();
+                     Room room = rooms.get(round % rooms.size());
+                     Date night = HotelBench.plusDays(FIRST_DAY, round / rooms.size());
+                     if (thread % 2 == 0) {
+                        Booking booking = esql.bookings().book(customerID, room.hotelID, room.roomNumber, night);
+                        if (booking == null)
+                           refused.incrementAndGet();
+                        else
+                           handedOut(booking);
+                     } else {
+                        List<BookingRequest> nights = new ArrayList<BookingRequest>();
+                        nights.add(new BookingRequest(room.hotelID, room.roomNumber, night));
+                        nights.add(new BookingRequest(room.hotelID, room.roomNumber, HotelBench.plusDays(night, 1)));
+                        try{
+                           for (Booking booking : esql.bookings().bookAll(customerID, nights))
+                              handedOut(booking);
+                        }catch (SQLException e){
+                           // a night taken before or meanwhile, nothing was booked
+                           refused.incrementAndGet();
+                        }
+                     }
+                  }
+               }catch (BrokenBarrierException e){
+                  // another thread failed, its failure is reported
+               }catch (Exception e){
+                  synchronized (failures) {
+                     failures.add(e);
+                  }
+                  start.reset();
+               }
+            }
+         };
+         workers[t].start();
+      }
+      for (Thread w : workers)
+         w.join();
+      if (!failures.isEmpty())
+         throw failures.get(0);
+      return bookings.get() / ((System.nanoTime() - begin) / 1e9);
+   }//end run
+
+   /**
+    * @return the room nights booked more than once, by the DAO's answers
+    *         or in the database, plus the returned bookings the database
+    *         does not hold
+    */
+   public int verify(int maxBookingID) throws SQLException {
+      int wrong = 0;
+      for (AtomicInteger count : booked.values())
+         if (count.get() > 1)
+            wrong += count.get() - 1;
+      wrong += esql.queryFirst("SELECT COUNT(*)::int FROM (SELECT 1 FROM RoomBookings WHERE bookingID > ?"
+                               + " GROUP BY hotelID, roomNumber, bookingDate HAVING COUNT(*) > 1) D", Hotel.INT, maxBookingID);
+      int stored = esql.queryFirst("SELECT COUNT(*)::int FROM RoomBookings WHERE bookingID > ? AND bookingDate >= ?",
+                                   Hotel.INT, maxBookingID, FIRST_DAY);
+      wrong += Math.abs(stored - bookings.get());
+      return wrong;
+   }//end verify
+
+   public void cleanup(int maxBookingID) throws SQLException {
+      esql.update("DELETE FROM RoomBookings WHERE bookingID > ? AND bookingDate >= ?", maxBookingID, FIRST_DAY);
+      esql.availability().clear();
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BookingStressCheck.class.getName () +
+            " <dbname> <port> <user> [threads] [rounds] [rooms]");
+         return;
+      }//end if
+      Hotel esql = null;
+      int wrong = -1;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new Hotel (args[0], args[1], args[2], "");
+         int threads = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+         int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+         int roomCount = args.length > 5 ? Integer.parseInt(args[5]) : 4;
+
+         int maxBookingID = esql.queryFirst("SELECT COALESCE(MAX(bookingID), 0) FROM RoomBookings", Hotel.INT);
+         BookingStressCheck check = new BookingStressCheck(esql, roomCount);
+         try{
+            double rate = check.run(threads, rounds);
+            wrong = check.verify(maxBookingID);
+            System.out.println(String.format("%d threads, %d rounds over %d rooms: %d bookings at %.0f bookings/s,"
+                                             + " %d refused, %d double or missing bookings", threads, rounds, check.rooms.size(),
+                                             check.bookings.get(), rate, check.refused.get(), wrong));
+         }finally{
+            check.cleanup(maxBookingID);
+         }
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }
+      System.exit(wrong == 0 ? 0 : 1);
+   }//end main
+
+}//end BookingStressCheck
@@ -0,0 +1,470 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the CSV files of Project/data (or any directory with the same
+ * layout) into an existing schema from the client side, so the files do
+ * not have to be on the database server.
+ *
+ * Foreign keys and secondary indexes of the loaded tables are dropped
+ * before the load and re-created afterwards, tables that do not depend on
+ * each other are loaded at the same time, and every file is read by one
+ * thread while several writer threads insert its rows with multi-row
+ * INSERTs, each on its own connection.  Serial sequences are finally set
+ * from max(id).  User triggers are disabled during the load, and the
+ * summary tables they maintain are rebuilt in one pass afterwards.  The
+ * bundled 7.3 driver has no CopyManager, so batched multi-row INSERTs are
+ * the fastest path it offers.
+ *
+ */
+public class BulkLoader {
+
+   // load order: tables in the same stage only reference earlier stages
+   static final String[][] STAGES = {
+      { "Users:users.csv", "MaintenanceCompany:company.csv" },
+      { "Hotel:hotels.csv" },
+      { "Rooms:rooms.csv" },
+      { "RoomBookings:bookings.csv", "RoomRepairs:roomRepairs.csv", "RoomUpdatesLog:roomUpdatesLog.csv" },
+      { "RoomRepairRequests:roomRepairRequests.csv" },
+   };
+
+   // rows per INSERT statement
+   static final int BATCH_ROWS = Integer.getInteger("hotel.load.batch", 1000);
+
+   private static final List<String> END = new ArrayList<String>();
+
+   private final ConnectionPool pool;
+   private final File dataDir;
+   private final int writersPerTable;
+
+   public BulkLoader(ConnectionPool pool, File dataDir, int writersPerTable) {
+      this.pool = pool;
+      this.dataDir = dataDir;
+      this.writersPerTable = writersPerTable;
+   }
+
+   /**
+    * Runs the whole load and prints rows per second for every table.
+    *
+    * @throws java.lang.Exception when any table failed to load
+    */
+   public void load() throws Exception {
+      List<String> tables = new ArrayList<String>();
+      for (String[] stage : STAGES)
+         for (String entry : stage)
+            tables.add(entry.split(":")[0]);
+
+      List<String> deferred = dropConstraintsAndIndexes(tables);
+      long start = System.nanoTime();
+      long total = 0;
+      int parallelism = 0;
+      for (String[] stage : STAGES)
+         parallelism = Math.max(parallelism, stage.length);
+      ExecutorService tableRunner = Executors.newFixedThreadPool(parallelism);
+      List<String> failed;
+      try{
+         runEach(triggerStatements(tables, "DISABLE"));
+         for (String[] stage : STAGES) {
+            List<Future<Long>> running = new ArrayList<Future<Long>>();
+            for (String entry : stage) {
+               final String table = entry.split(":")[0];
+               final File file = new File(dataDir, entry.split(":")[1]);
+               running.add(tableRunner.submit(new Callable<Long>() {
+                  public Long call() throws Exception {
+                     return loadTable(table, file);
+                  }
+               }));
+            }
+            for (Future<Long> f : running)
+               total += f.get();
+         }
+         double loadSeconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("loaded %d rows in %.1f s (%.0f rows/s)", total, loadSeconds, total / loadSeconds));
+      }finally{
+         // stops the tables still loading when another one failed
+         tableRunner.shutdownNow();
+         tableRunner.awaitTermination(1, TimeUnit.MINUTES);
+         // after a failed load too: without its unique key the ON CONFLICT of
+         // BookingDao no longer keeps a room from being booked twice
+         failed = restore(tables, deferred);
+      }
+      if (!failed.isEmpty())
+         throw new SQLException(failed.size() + " statements restoring the schema failed, see above");
+      analyze(tables);
+   }//end load
+
+   /*
+    * Re-enables the triggers, re-creates the dropped constraints and
+    * indexes, rebuilds the summary tables, writes a change feed event for
+    * everything and resets the sequences.  Each statement runs on its own
+    * so one failure does not keep the others from running; the failed
+    * ones are printed to be re-run by hand.
+    *
+    * @return the statements that failed
+    */
+   private List<String> restore(List<String> tables, List<String> deferred) {
+      long rebuild = System.nanoTime();
+      List<String> statements = new ArrayList<String>(triggerStatements(tables, "ENABLE"));
+      statements.addAll(deferred);
+      statements.add("SELECT rebuild_customer_booking_counts()");
+      // the feed triggers were off as well: tell every cache, and the catalog snapshot, that all changed
+      statements.add("INSERT INTO ChangeFeed (kind) VALUES ('B'), ('R'), ('H')");
+      try{
+         statements.addAll(sequenceStatements(tables));
+      }catch (SQLException e){
+         System.err.println("cannot list the sequences to reset: " + e.getMessage());
+      }
+      List<String> failed = new ArrayList<String>();
+      for (String sql : statements) {
+         try{
+            runEach(Arrays.asList(sql));
+         }catch (SQLException e){
+            System.err.println("failed: " + sql + ": " + e.getMessage());
+            failed.add(sql);
+         }
+      }
+      if (failed.isEmpty()) {
+         System.out.println(String.format("rebuilt %d constraints and indexes in %.1f s", deferred.size(),
+                                          (System.nanoTime() - rebuild) / 1e9));
+      } else {
+         System.err.println("the schema is not fully restored, run these statements by hand:");
+         for (String sql : failed)
+            System.err.println(sql + ";");
+      }
+      return failed;
+   }//end restore
+
+   /*
+    * Reads one CSV file and inserts it with writersPerTable connections.
+    */
+   private long loadTable(final String table, File file) throws Exception {
+      if (!file.exists()) {
+         System.out.println(table + ": " + file + " not found, skipped");
+         return 0;
+      }
+      long start = System.nanoTime();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+      try{
+         // like COPY ... CSV HEADER, the header line is skipped and fields map to the table's columns in order;
+         // a file with fewer fields than the table leaves the last columns to their defaults
+         String header = reader.readLine();
+         final String[][] layout = tableLayout(table, header == null ? 0 : parseLine(header).size());
+         final List<String> columns = Arrays.asList(layout[0]);
+         final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(writersPerTable * 4);
+         final AtomicLong rows = new AtomicLong();
+         ExecutorService writers = Executors.newFixedThreadPool(writersPerTable);
+         List<Future<?>> running = new ArrayList<Future<?>>();
+         for (int i = 0; i < writersPerTable; ++i) {
+            running.add(writers.submit(new Callable<Void>() {
+               public Void call() throws Exception {
+                  write(table, layout, queue, rows);
+                  return null;
+               }
+            }));
+         }
+         try{
+            // each queue element holds BATCH_ROWS lines, flattened into one list of fields
+            List<String> batch = new ArrayList<String>(BATCH_ROWS * columns.size());
+            String line;
+            while ((line = reader.readLine()) != null) {
+               if (line.trim().isEmpty())
+                  continue;
+               List<String> fields = parseLine(line);
+               if (fields.size() != columns.size())
+                  throw new IOException(file + ": expected " + columns.size() + " fields in: " + line);
+               batch.addAll(fields);
+               if (batch.size() == BATCH_ROWS * columns.size()) {
+                  put(queue, batch, running);
+                  batch = new ArrayList<String>(BATCH_ROWS * columns.size());
+               }
+            }
+            if (!batch.isEmpty())
+               put(queue, batch, running);
+         }finally{
+            for (int i = 0; i < writersPerTable; ++i)
+               put(queue, END, running);
+            writers.shutdown();
+         }
+         for (Future<?> f : running)
+            f.get();
+         writers.awaitTermination(1, TimeUnit.MINUTES);
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("%s: %d rows in %.1f s (%.0f rows/s)", table, rows.get(), seconds, rows.get() / seconds));
+         return rows.get();
+      }finally{
+         reader.close();
+      }
+   }//end loadTable
+
+   // hands a batch to the writers, giving up if one of them already failed
+   private static void put(BlockingQueue<List<String>> queue, List<String> batch, List<Future<?>> writers) throws Exception {
+      while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+         for (Future<?> f : writers)
+            if (f.isDone())
+               f.get();
+      }
+   }
+
+   private void write(String table, String[][] layout, BlockingQueue<List<String>> queue, AtomicLong rows) throws Exception {
+      PooledConnection conn = pool.borrow();
+      try{
+         conn.getConnection().setAutoCommit(false);
+         int width = layout[0].length;
+         while (true) {
+            List<String> batch = queue.take();
+            if (batch == END)
+               break;
+            PreparedStatement stmt = conn.prepare(insertSql(table, layout, batch.size() / width));
+            for (int i = 0; i < batch.size(); ++i) {
+               String value = batch.get(i);
+               if (value.isEmpty())
+                  stmt.setNull(i + 1, java.sql.Types.VARCHAR);
+               else
+                  stmt.setString(i + 1, value);
+            }
+            stmt.executeUpdate();
+            conn.getConnection().commit();
+            rows.addAndGet(batch.size() / width);
+         }
+      }finally{
+         conn.release();
+      }
+   }//end write
+
+   /*
+    * Names and database types of the first columns of a table, at most
+    * the given number, in table order.  The types are used to cast the
+    * string parameters.
+    */
+   private String[][] tableLayout(String table, int fields) throws SQLException {
+      PooledConnection conn = pool.borrow();
+      try{
+         ResultSet rs = conn.prepare("SELECT * FROM " + table + " WHERE false").executeQuery();
+         ResultSetMetaData md = rs.getMetaData();
+         int width = fields > 0 ? Math.min(fields, md.getColumnCount()) : md.getColumnCount();
+         String[][] layout = new String[2][width];
+         for (int i = 0; i < width; ++i) {
+            layout[0][i] = md.getColumnName(i + 1);
+            layout[1][i] = md.getColumnTypeName(i + 1);
+         }
+         rs.close();
+         return layout;
+      }finally{
+         conn.release();
+      }
+   }//end tableLayout
+
+   private static String insertSql(String table, String[][] layout, int rowCount) {
+      StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (");
+      for (int i = 0; i < layout[0].length; ++i)
+         sb.append(i == 0 ? "" : ", ").append(layout[0][i]);
+      sb.append(") VALUES ");
+      for (int r = 0; r < rowCount; ++r) {
+         sb.append(r == 0 ? "(" : ", (");
+         for (int i = 0; i < layout[1].length; ++i)
+            sb.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(layout[1][i]).append(')');
+         sb.append(')');
+      }
+      return sb.toString();
+   }
+
+   /*
+    * Splits a CSV line; fields may be quoted with " and contain "" escapes.
+    */
+   static List<String> parseLine(String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+               field.append('"');
+               ++i;
+            }else if (c == '"')
+               quoted = false;
+            else
+               field.append(c);
+         }else if (c == '"')
+            quoted = true;
+         else if (c == ',') {
+            fields.add(field.toString().trim());
+            field.setLength(0);
+         }else if (c != '\r')
+            field.append(c);
+      }
+      fields.add(field.toString().trim());
+      return fields;
+   }//end parseLine
+
+   /*
+    * Drops foreign keys, unique constraints and secondary indexes of the
+    * tables and returns the statements that re-create them.  Foreign keys
+    * come last in the returned list so the keys they reference exist.
+    */
+   private List<String> dropConstraintsAndIndexes(List<String> tables) throws SQLException {
+      Map<String, String> keys = new LinkedHashMap<String, String>();
+      Map<String, String> foreign = new LinkedHashMap<String, String>();
+      Map<String, String> indexes = new LinkedHashMap<String, String>();
+      PooledConnection conn = pool.borrow();
+      try{
+         for (String table : tables) {
+            PreparedStatement stmt = conn.prepare("SELECT c.conname, c.contype, pg_get_constraintdef(c.oid)"
+                                                  + " FROM pg_constraint c WHERE c.conrelid = CAST(lower(?) AS regclass)"
+                                                  + " AND c.contype IN ('f', 'u')");
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+               String ddl = "ALTER TABLE " + table + " ADD CONSTRAINT " + rs.getString(1) + " " + rs.getString(3);
+               ("f".equals(rs.getString(2)) ? foreign : keys).put(table + "|" + rs.getString(1), ddl);
+            }
+            rs.close();
+
+            stmt = conn.prepare("SELECT i.relname, pg_get_indexdef(i.oid) FROM pg_index x, pg_class i"
+                                + " WHERE x.indexrelid = i.oid AND x.indrelid = CAST(lower(?) AS regclass)"
+                                + " AND NOT x.indisprimary"
+                                + " AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.oid)");
+            stmt.setString(1, table);
+            rs = stmt.executeQuery();
+            // an index of a partitioned table is defined ON ONLY the parent, the
+            // partitions are indexed again only if it is re-created without ONLY
+            while (rs.next())
+               indexes.put(rs.getString(1), rs.getString(2).replace(" ON ONLY ", " ON "));
+            rs.close();
+         }
+
+      }finally{
+         conn.release();
+      }
+      List<String> recreate = new ArrayList<String>();
+      recreate.addAll(indexes.values());
+      recreate.addAll(keys.values());
+      recreate.addAll(foreign.values());
+
+      List<String> drops = new ArrayList<String>();
+      for (String key : foreign.keySet())
+         drops.add("ALTER TABLE " + key.split("\\|")[0] + " DROP CONSTRAINT " + key.split("\\|")[1]);
+      for (String key : keys.keySet())
+         drops.add("ALTER TABLE " + key.split("\\|")[0] + " DROP CONSTRAINT " + key.split("\\|")[1]);
+      for (String index : indexes.keySet())
+         drops.add("DROP INDEX " + index);
+      try{
+         runEach(drops);
+      }catch (SQLException e){
+         // some may be dropped already, and recreating those that are not fails harmlessly
+         System.err.println("dropping the constraints and indexes failed, re-create what was dropped by hand:");
+         for (String sql : recreate)
+            System.err.println(sql + ";");
+         throw e;
+      }
+      System.out.println("deferred " + recreate.size() + " constraints and indexes until after the load");
+      return recreate;
+   }//end dropConstraintsAndIndexes
+
+   /*
+    * The summary triggers would update their tables once per INSERT of
+    * every writer, and the writers would then wait on each other's locks.
+    */
+   private static List<String> triggerStatements(List<String> tables, String action) {
+      List<String> statements = new ArrayList<String>();
+      for (String table : tables)
+         statements.add("ALTER TABLE " + table + " " + action + " TRIGGER USER");
+      return statements;
+   }
+
+   private List<String> sequenceStatements(List<String> tables) throws SQLException {
+      List<String> statements = new ArrayList<String>();
+      PooledConnection conn = pool.borrow();
+      try{
+         for (String table : tables) {
+            PreparedStatement stmt = conn.prepare("SELECT column_name FROM information_schema.columns"
+                                                  + " WHERE table_name = lower(?) AND column_default LIKE 'nextval%'");
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+               String column = rs.getString(1);
+               statements.add("SELECT setval(pg_get_serial_sequence('" + table.toLowerCase() + "', '" + column + "'),"
+                              + " COALESCE((SELECT max(" + column + ") FROM " + table + "), 0) + 1, false)");
+            }
+            rs.close();
+         }
+      }finally{
+         conn.release();
+      }
+      return statements;
+   }//end sequenceStatements
+
+   private void analyze(List<String> tables) throws SQLException {
+      List<String> statements = new ArrayList<String>();
+      for (String table : tables)
+         statements.add("ANALYZE " + table);
+      runEach(statements);
+   }
+
+   private void runEach(List<String> statements) throws SQLException {
+      PooledConnection conn = pool.borrow();
+      try{
+         Connection c = conn.getConnection();
+         Statement stmt = c.createStatement();
+         try{
+            for (String sql : statements)
+               stmt.execute(sql);
+         }finally{
+            stmt.close();
+         }
+      }finally{
+         conn.release();
+      }
+   }//end runEach
+
+   public static void main(String[] args) {
+      if (args.length < 4 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <data directory> [writers per table]");
+         return;
+      }//end if
+      ConnectionPool pool = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         int writers = args.length == 5 ? Integer.parseInt(args[4]) : 4;
+         int stageWidth = 0;
+         for (String[] stage : STAGES)
+            stageWidth = Math.max(stageWidth, stage.length);
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool(url, args[2], "", stageWidth * writers + 1, 8, 60000L, 300000L, 5000L, Long.MAX_VALUE / 2);
+         new BulkLoader(pool, new File(args[3]), writers).load();
+      }catch (Exception e){
+         System.err.println ("load failed: " + e.getMessage ());
+      }finally{
+         if (pool != null)
+            pool.close();
+      }
+   }//end main
+
+}//end BulkLoader
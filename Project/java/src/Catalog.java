@@ -0,0 +1,445 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory catalog of the Hotel and Rooms tables.  Hotels are kept in
+ * arrays sorted by hotelID, with the coordinates as doubles, and every
+ * hotel's rooms in arrays sorted by room number, with the prices as ints,
+ * so lookups are binary searches over primitive arrays.
+ *
+ * The catalog is loaded once.  Changing a room through RoomDao invalidates
+ * its hotel, whose rooms are read again from the database on the next
+ * lookup.  After a load from the database the catalog is written to a
+ * binary snapshot file (system property hotel.catalog.snapshot, default
+ * hotel_catalog.bin, empty to disable).  The next process memory-maps that
+ * file instead of scanning the tables, unless the database fingerprint
+ * stored in it no longer matches: the hotel and room counts and the last
+ * committed ChangeFeed sequence number, which every change to Hotel or
+ * Rooms moves through the feed triggers (BulkLoader writes a feed event of
+ * its own).  The fingerprint is read in the same snapshot as the tables,
+ * so it names exactly the changes the catalog holds.  A change that took
+ * a lower number but had not committed yet would commit without moving
+ * it, so no snapshot is written while such a hole and a running
+ * transaction that may own it are seen.
+ *
+ */
+public class Catalog {
+
+   private static final int MAGIC = 0x48434154; // "HCAT"
+   private static final int FORMAT = 1;
+
+   private static class Hotels {
+      final int[] ids;
+      final double[] latitudes;
+      final double[] longitudes;
+      final String[] names;
+      // a null slot is a hotel whose rooms must be read again
+      final AtomicReferenceArray<HotelRooms> rooms;
+
+      Hotels(int size) {
+         ids = new int[size];
+         latitudes = new double[size];
+         longitudes = new double[size];
+         names = new String[size];
+         rooms = new AtomicReferenceArray<HotelRooms>(size);
+      }
+   }//end Hotels
+
+   private static class HotelRooms {
+      final int[] numbers;
+      final int[] prices;
+      final String[] imageURLs;
+
+      HotelRooms(int size) {
+         numbers = new int[size];
+         prices = new int[size];
+         imageURLs = new String[size];
+      }
+   }//end HotelRooms
+
+   private final Hotel esql;
+   private final String snapshotFile;
+
+   // replaced as a whole by load()
+   private volatile Hotels hotels = new Hotels(0);
+
+   // bumped by invalidate() so a reload racing with an update is dropped
+   private final AtomicLong version = new AtomicLong();
+
+   public Catalog(Hotel esql) {
+      this(esql, System.getProperty("hotel.catalog.snapshot", "hotel_catalog.bin"));
+   }
+
+   public Catalog(Hotel esql, String snapshotFile) {
+      this.esql = esql;
+      this.snapshotFile = snapshotFile;
+   }
+
+   /**
+    * Loads the catalog from the snapshot file if it is current, otherwise
+    * from the database, and then rewrites the snapshot.
+    *
+    * @return where the catalog was loaded from, for the startup message
+    */
+   public String load() throws SQLException {
+      long start = System.nanoTime();
+      String fingerprint = fingerprint();
+      File file = snapshotFile.isEmpty() ? null : new File(snapshotFile);
+      String source = "database";
+      try{
+         if (file != null && file.exists() && readSnapshot(file, fingerprint))
+            source = "snapshot " + file;
+      }catch (IOException e){
+         System.err.println("Ignoring catalog snapshot " + file + ": " + e.getMessage());
+      }
+      if (source.equals("database")) {
+         fingerprint = loadFromDatabase();
+         if (file != null && fingerprint != null) {
+            try{
+               writeSnapshot(file, fingerprint);
+            }catch (IOException e){
+               System.err.println("Unable to write catalog snapshot " + file + ": " + e.getMessage());
+            }
+         }
+      }
+      return String.format("%d hotels from %s in %.1f ms", hotels.ids.length, source, (System.nanoTime() - start) / 1e6);
+   }//end load
+
+   /**
+    * Loads the catalog from the database again, after a change the
+    * fingerprint does not cover (a hotel renamed or moved), and rewrites
+    * the snapshot.
+    */
+   public String reload() throws SQLException {
+      long start = System.nanoTime();
+      String fingerprint = loadFromDatabase();
+      File file = snapshotFile.isEmpty() ? null : new File(snapshotFile);
+      if (file != null && fingerprint != null) {
+         try{
+            writeSnapshot(file, fingerprint);
+         }catch (IOException e){
+            System.err.println("Unable to write catalog snapshot " + file + ": " + e.getMessage());
+         }
+      }
+      return String.format("%d hotels from database in %.1f ms", hotels.ids.length, (System.nanoTime() - start) / 1e6);
+   }//end reload
+
+   // the feed keeps its newest event when it purges, so MAX(seq) never goes back
+   private static final String FINGERPRINT = "SELECT (SELECT COUNT(*) FROM Hotel) || '/' || (SELECT COUNT(*) FROM Rooms)"
+                                             + " || '/' || (SELECT COALESCE(MAX(seq), 0) FROM ChangeFeed)";
+
+   private String fingerprint() throws SQLException {
+      return esql.queryFirst(FINGERPRINT, new RowMapper<String>() {
+         public String map(ResultSet rs) throws SQLException {
+            return rs.getString(1);
+         }
+      });
+   }
+
+   // the events below MAX(seq) looked at for holes, as ChangeFeed does at connect
+   private static final String HOLES = "SELECT COUNT(F.seq) < LEAST(M.seq, " + ChangeFeed.BATCH + "),"
+                                       + " txid_snapshot_xmin(txid_current_snapshot()) < txid_snapshot_xmax(txid_current_snapshot())"
+                                       + " FROM (SELECT COALESCE(MAX(seq), 0) AS seq FROM ChangeFeed) M"
+                                       + " LEFT JOIN ChangeFeed F ON F.seq > M.seq - " + ChangeFeed.BATCH + " GROUP BY M.seq";
+
+   /*
+    * Reads the fingerprint and both tables in one repeatable read
+    * transaction.
+    *
+    * @return the fingerprint of what was loaded, or null when an event
+    *         below it may still commit and the snapshot must not be
+    *         written
+    */
+   private String loadFromDatabase() throws SQLException {
+      long start = System.nanoTime();
+      SQLException failure = null;
+      PooledConnection conn = esql.getConnection();
+      try{
+         conn.getConnection().setAutoCommit(false);
+         conn.prepare("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ").executeUpdate();
+         ResultSet rs = conn.prepare(FINGERPRINT).executeQuery();
+         rs.next();
+         String fingerprint = rs.getString(1);
+         rs.close();
+         rs = conn.prepare(HOLES).executeQuery();
+         rs.next();
+         if (rs.getBoolean(1) && rs.getBoolean(2))
+            fingerprint = null;
+         rs.close();
+         loadTables(conn);
+         conn.getConnection().commit();
+         return fingerprint;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         // release() rolls back and restores autocommit if we bailed out early
+         conn.release();
+         esql.metrics().record("catalog load", start, hotels.ids.length, failure);
+      }
+   }//end loadFromDatabase
+
+   private void loadTables(PooledConnection conn) throws SQLException {
+      final List<Object[]> hotelRows = new ArrayList<Object[]>();
+      Hotel.stream(conn, "SELECT hotelID, hotelName, latitude, longitude FROM Hotel ORDER BY hotelID", new RowMapper<Object[]>() {
+         public Object[] map(ResultSet rs) throws SQLException {
+            return new Object[] { rs.getInt(1), Hotel.trimmed(rs.getString(2)), rs.getDouble(3), rs.getDouble(4) };
+         }
+      }, new RowVisitor<Object[]>() {
+         public void visit(Object[] row) {
+            hotelRows.add(row);
+         }
+      });
+      final Hotels loaded = new Hotels(hotelRows.size());
+      for (int i = 0; i < hotelRows.size(); ++i) {
+         Object[] row = hotelRows.get(i);
+         loaded.ids[i] = (Integer) row[0];
+         loaded.names[i] = (String) row[1];
+         loaded.latitudes[i] = (Double) row[2];
+         loaded.longitudes[i] = (Double) row[3];
+      }
+
+      // one pass over Rooms, cut into hotels as the hotelID changes
+      final List<Room> current = new ArrayList<Room>();
+      String rooms = "SELECT hotelID, roomNumber, price, imageURL FROM Rooms ORDER BY hotelID, roomNumber";
+      Hotel.stream(conn, rooms, new RowMapper<Room>() {
+         public Room map(ResultSet rs) throws SQLException {
+            return new Room(rs.getInt(1), rs.getInt(2), rs.getInt(3), Hotel.trimmed(rs.getString(4)));
+         }
+      }, new RowVisitor<Room>() {
+         public void visit(Room room) {
+            if (!current.isEmpty() && current.get(0).hotelID != room.hotelID)
+               flush(loaded, current);
+            current.add(room);
+         }
+      });
+      flush(loaded, current);
+      for (int i = 0; i < loaded.ids.length; ++i)
+         if (loaded.rooms.get(i) == null)
+            loaded.rooms.set(i, new HotelRooms(0));
+      version.incrementAndGet();
+      this.hotels = loaded;
+   }//end loadTables
+
+   private static void flush(Hotels hotels, List<Room> current) {
+      if (current.isEmpty())
+         return;
+      int index = Arrays.binarySearch(hotels.ids, current.get(0).hotelID);
+      if (index >= 0)
+         hotels.rooms.set(index, toArrays(current));
+      current.clear();
+   }
+
+   private static HotelRooms toArrays(List<Room> list) {
+      HotelRooms r = new HotelRooms(list.size());
+      for (int i = 0; i < list.size(); ++i) {
+         Room room = list.get(i);
+         r.numbers[i] = room.roomNumber;
+         r.prices[i] = room.price;
+         r.imageURLs[i] = room.imageURL;
+      }
+      return r;
+   }
+
+   /*
+    * Layout: magic, format, fingerprint, hotel count, then per hotel its
+    * id, latitude, longitude, name and room count followed by the room
+    * numbers, prices and image URLs.  Strings are a length and UTF-8.
+    */
+   private void writeSnapshot(File file, String fingerprint) throws IOException {
+      // a name of its own, so processes starting together do not write into one file
+      File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+      DataOutputStream out = null;
+      boolean written = false;
+      try{
+         out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+         Hotels h = this.hotels;
+         out.writeInt(MAGIC);
+         out.writeInt(FORMAT);
+         writeString(out, fingerprint);
+         out.writeInt(h.ids.length);
+         for (int i = 0; i < h.ids.length; ++i) {
+            out.writeInt(h.ids[i]);
+            out.writeDouble(h.latitudes[i]);
+            out.writeDouble(h.longitudes[i]);
+            writeString(out, h.names[i]);
+            HotelRooms hr = h.rooms.get(i);
+            // -1 rooms marks a hotel invalidated meanwhile, its next reader loads them
+            out.writeInt(hr == null ? -1 : hr.numbers.length);
+            if (hr == null)
+               continue;
+            for (int j = 0; j < hr.numbers.length; ++j) {
+               out.writeInt(hr.numbers[j]);
+               out.writeInt(hr.prices[j]);
+               writeString(out, hr.imageURLs[j]);
+            }
+         }
+         out.close();
+         written = true;
+      }finally{
+         if (!written) {
+            if (out != null)
+               out.close();
+            tmp.delete();
+         }
+      }
+      // readers never see a half written snapshot
+      if (!tmp.renameTo(file)) {
+         file.delete();
+         if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("cannot rename " + tmp + " to " + file);
+         }
+      }
+   }//end writeSnapshot
+
+   private static void writeString(DataOutputStream out, String s) throws IOException {
+      if (s == null) {
+         out.writeInt(-1);
+         return;
+      }
+      byte[] bytes = s.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private boolean readSnapshot(File file, String fingerprint) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try{
+         FileChannel channel = raf.getChannel();
+         MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         if (in.getInt() != MAGIC || in.getInt() != FORMAT)
+            throw new IOException("not a catalog snapshot");
+         if (!fingerprint.equals(readString(in)))
+            return false;
+         Hotels loaded = new Hotels(in.getInt());
+         for (int i = 0; i < loaded.ids.length; ++i) {
+            loaded.ids[i] = in.getInt();
+            loaded.latitudes[i] = in.getDouble();
+            loaded.longitudes[i] = in.getDouble();
+            loaded.names[i] = readString(in);
+            int roomCount = in.getInt();
+            if (roomCount < 0)
+               continue;
+            HotelRooms hr = new HotelRooms(roomCount);
+            for (int j = 0; j < hr.numbers.length; ++j) {
+               hr.numbers[j] = in.getInt();
+               hr.prices[j] = in.getInt();
+               hr.imageURLs[j] = readString(in);
+            }
+            loaded.rooms.set(i, hr);
+         }
+         version.incrementAndGet();
+         this.hotels = loaded;
+         return true;
+      }catch (RuntimeException e){
+         // a truncated file ends in a BufferUnderflowException
+         throw new IOException("corrupt catalog snapshot: " + e);
+      }finally{
+         raf.close();
+      }
+   }//end readSnapshot
+
+   private static String readString(MappedByteBuffer in) throws IOException {
+      int length = in.getInt();
+      if (length < 0)
+         return null;
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      return new String(bytes, "UTF-8");
+   }
+
+   public int hotelCount() {
+      return hotels.ids.length;
+   }
+
+   public int hotelID(int index) {
+      return hotels.ids[index];
+   }
+
+   public String hotelName(int index) {
+      return hotels.names[index];
+   }
+
+   public double latitude(int index) {
+      return hotels.latitudes[index];
+   }
+
+   public double longitude(int index) {
+      return hotels.longitudes[index];
+   }
+
+   /*
+    * The rooms of the hotel at index, read again from the database if the
+    * hotel was invalidated.
+    */
+   private HotelRooms roomsAt(Hotels h, int index, int hotelID) throws SQLException {
+      HotelRooms hr = h.rooms.get(index);
+      if (hr != null)
+         return hr;
+      long token = version.get();
+      hr = toArrays(esql.query("SELECT hotelID, roomNumber, price, imageURL FROM Rooms WHERE hotelID = ? ORDER BY roomNumber",
+                               new RowMapper<Room>() {
+                                  public Room map(ResultSet rs) throws SQLException {
+                                     return new Room(rs.getInt(1), rs.getInt(2), rs.getInt(3), Hotel.trimmed(rs.getString(4)));
+                                  }
+                               }, hotelID));
+      if (version.get() == token)
+         h.rooms.compareAndSet(index, null, hr);
+      return hr;
+   }//end roomsAt
+
+   /**
+    * @return the rooms of the hotel ordered by room number, or null if
+    *         the hotel is not in the catalog
+    */
+   public List<Room> rooms(int hotelID) throws SQLException {
+      Hotels h = this.hotels;
+      int index = Arrays.binarySearch(h.ids, hotelID);
+      if (index < 0)
+         return null;
+      HotelRooms hr = roomsAt(h, index, hotelID);
+      List<Room> list = new ArrayList<Room>(hr.numbers.length);
+      for (int i = 0; i < hr.numbers.length; ++i)
+         list.add(new Room(hotelID, hr.numbers[i], hr.prices[i], hr.imageURLs[i]));
+      return list;
+   }
+
+   /**
+    * @return the room, or null if the catalog does not know it
+    */
+   public Room room(int hotelID, int roomNumber) throws SQLException {
+      Hotels h = this.hotels;
+      int index = Arrays.binarySearch(h.ids, hotelID);
+      if (index < 0)
+         return null;
+      HotelRooms hr = roomsAt(h, index, hotelID);
+      int i = Arrays.binarySearch(hr.numbers, roomNumber);
+      return i < 0 ? null : new Room(hotelID, roomNumber, hr.prices[i], hr.imageURLs[i]);
+   }
+
+   /**
+    * Forgets the rooms of a hotel after they changed in the database.
+    */
+   public void invalidate(int hotelID) {
+      version.incrementAndGet();
+      Hotels h = this.hotels;
+      int index = Arrays.binarySearch(h.ids, hotelID);
+      if (index >= 0)
+         h.rooms.set(index, null);
+   }
+
+}//end Catalog
@@ -0,0 +1,393 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the caches of every Hotel process coherent with the changes the
+ * others make.  Statement level triggers on RoomBookings, Rooms and Hotel
+ * write one compact event per changed (hotel, date) or hotel into the
+ * ChangeFeed table, in the same transaction as the change.  A background
+ * thread on a connection of its own reads the events after the last
+ * sequence number it has seen and hands them to the subscribers.
+ *
+ * The listener polls max(seq), one probe of the primary key index, every
+ * hotel.changes.poll ms (default 200) and reads the table when it moved,
+ * while sequence holes are pending and at least every
+ * hotel.changes.heartbeat ms (default 5000).  There is no NOTIFY: it
+ * would serialize the commits of every writer on the notification queue
+ * lock, and the 7.3 driver only delivers notifications when a query runs
+ * anyway.
+ *
+ * A hole is a sequence number below the last one read whose event was not
+ * visible yet: a writer that took the number before a later one committed
+ * first.  Holes are read again until the event shows up, or until every
+ * transaction that was running when the hole was seen has ended, which
+ * means its writer rolled back.  The triggers write after the change
+ * itself, so the writer holds a transaction id by the time it takes its
+ * number.  Too many holes at once, a lost connection or a listener that
+ * stalled longer than the events are kept end in a resync: the subscribers
+ * drop everything they cached.
+ *
+ * Events older than hotel.changes.retention seconds (default 86400) are
+ * deleted once a minute, except the newest.  -Dhotel.changes=false turns
+ * the feed off.
+ *
+ */
+public class ChangeFeed {
+
+   public static final char BOOKINGS = 'B';
+   public static final char ROOMS = 'R';
+   public static final char HOTELS = 'H';
+
+   static final int BATCH = 1000;
+   static final int MAX_HOLES = 10000;
+   static final long PURGE_EVERY = 60000;
+
+   private final boolean enabled;
+   private final long poll;
+   private final long heartbeat;
+   private final long retention;
+   private final List<ChangeSubscriber> subscribers = new CopyOnWriteArrayList<ChangeSubscriber>();
+
+   private String url;
+   private String user;
+   private String passwd;
+   private volatile boolean closed = false;
+   private Thread listener = null;
+
+   // used by the listener thread only
+   private Connection conn = null;
+   private long top = 0;
+   private final TreeMap<Long, Long> holes = new TreeMap<Long, Long>();
+   private long lastRead = 0;
+   private long lastPurge = 0;
+   private volatile int pid = 0;
+
+   private final AtomicLong events = new AtomicLong();
+   private final AtomicLong reads = new AtomicLong();
+   private final AtomicLong polls = new AtomicLong();
+   private final AtomicLong filled = new AtomicLong();
+   private final AtomicLong rolledBack = new AtomicLong();
+   private final AtomicLong resyncs = new AtomicLong();
+   private final AtomicLong reconnects = new AtomicLong();
+   private volatile int pending = 0;
+
+   public ChangeFeed() {
+      this(!"false".equals(System.getProperty("hotel.changes")), Long.getLong("hotel.changes.poll", 200L),
+           Long.getLong("hotel.changes.heartbeat", 5000L), Long.getLong("hotel.changes.retention", 86400L));
+   }
+
+   public ChangeFeed(boolean enabled, long poll, long heartbeat, long retention) {
+      this.enabled = enabled;
+      this.poll = poll;
+      this.heartbeat = heartbeat;
+      this.retention = retention;
+   }
+
+   /**
+    * Adds a subscriber; it is called from the listener thread.
+    */
+   public void subscribe(ChangeSubscriber subscriber) {
+      subscribers.add(subscriber);
+   }
+
+   /**
+    * Opens the feed's connection, takes the newest event as the point
+    * to read from and starts the listener thread.  Caches filled after
+    * this returns miss no change.
+    *
+    * @return a one line description for the startup message
+    */
+   public synchronized String start(String url, String user, String passwd) {
+      if (!enabled)
+         return "off";
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      try{
+         connect();
+      }catch (SQLException e){
+         close(conn);
+         conn = null;
+         return "off, " + e.getMessage();
+      }
+      listener = new Thread("change-feed") {
+         public void run() {
+            QueryMetrics.setOperation("changeFeed");
+            listen();
+         }
+      };
+      listener.setDaemon(true);
+      listener.start();
+      return "polling from event " + top;
+   }//end start
+
+   /**
+    * Connects and starts from the newest event.  Numbers missing among the
+    * last BATCH below it may belong to writers still running, so they are
+    * holes from the start.
+    */
+   private void connect() throws SQLException {
+      conn = DriverManager.getConnection(url, user, passwd);
+      holes.clear();
+      Statement stmt = conn.createStatement();
+      try{
+         stmt.execute("BEGIN ISOLATION LEVEL REPEATABLE READ");
+         ResultSet rs = stmt.executeQuery("SELECT txid_snapshot_xmax(txid_current_snapshot()), pg_backend_pid(),"
+                                          + " (SELECT COALESCE(MAX(seq), 0) FROM ChangeFeed)");
+         rs.next();
+         long xmax = rs.getLong(1);
+         pid = rs.getInt(2);
+         top = rs.getLong(3);
+         rs.close();
+         rs = stmt.executeQuery("SELECT seq FROM ChangeFeed WHERE seq > " + (top - BATCH) + " ORDER BY seq");
+         long expected = Math.max(1, top - BATCH + 1);
+         while (rs.next()) {
+            for (long seq = rs.getLong(1); expected < seq; ++expected)
+               holes.put(expected, xmax);
+            ++expected;
+         }
+         rs.close();
+         stmt.execute("COMMIT");
+      }finally{
+         stmt.close();
+      }
+      pending = holes.size();
+      lastRead = System.currentTimeMillis();
+   }//end connect
+
+   private void listen() {
+      int attempt = 0;
+      long lastCheck = 0;
+      while (!closed) {
+         try{
+            if (conn == null) {
+               connect();
+               reconnects.incrementAndGet();
+               attempt = 0;
+               resync();
+            }
+            long now = System.currentTimeMillis();
+            boolean moved = newer();
+            if (moved || !holes.isEmpty() || now - lastCheck >= heartbeat) {
+               if (now - lastRead > retention * 500)
+                  resync();
+               read();
+               lastCheck = now;
+            }
+            if (now - lastPurge >= PURGE_EVERY)
+               purge();
+         }catch (SQLException e){
+            if (closed)
+               break;
+            System.err.println("Change feed: " + e.getMessage() + ", reconnecting");
+            close(conn);
+            conn = null;
+            pid = 0;
+            pause(Math.min(30000L, poll << Math.min(attempt++, 7)));
+            continue;
+         }
+         pause(poll);
+      }
+      close(conn);
+   }//end listen
+
+   /**
+    * @return true if an event after the last one read has committed
+    */
+   private boolean newer() throws SQLException {
+      polls.incrementAndGet();
+      Statement stmt = conn.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM ChangeFeed");
+         rs.next();
+         long max = rs.getLong(1);
+         rs.close();
+         return max > top;
+      }finally{
+         stmt.close();
+      }
+   }
+
+   /**
+    * Reads the holes and the events after the last one seen, all from one
+    * repeatable read snapshot so the transaction bounds match the rows.
+    */
+   private void read() throws SQLException {
+      reads.incrementAndGet();
+      Statement stmt = conn.createStatement();
+      try{
+         stmt.execute("BEGIN ISOLATION LEVEL REPEATABLE READ");
+         ResultSet rs = stmt.executeQuery("SELECT txid_snapshot_xmin(s), txid_snapshot_xmax(s) FROM txid_current_snapshot() AS s");
+         rs.next();
+         long xmin = rs.getLong(1);
+         long xmax = rs.getLong(2);
+         rs.close();
+
+         if (!holes.isEmpty()) {
+            PreparedStatement ps = conn.prepareStatement(
+               "SELECT seq, kind, hotelID, bookingDate FROM ChangeFeed WHERE seq >= ? AND seq < ?");
+            try{
+               ps.setLong(1, holes.firstKey().longValue());
+               ps.setLong(2, top);
+               rs = ps.executeQuery();
+               while (rs.next()) {
+                  if (holes.remove(rs.getLong(1)) != null) {
+                     filled.incrementAndGet();
+                     dispatch(rs);
+                  }
+               }
+               rs.close();
+            }finally{
+               ps.close();
+            }
+            for (Iterator<Map.Entry<Long, Long>> i = holes.entrySet().iterator(); i.hasNext(); ) {
+               if (i.next().getValue().longValue() <= xmin) {
+                  i.remove();
+                  rolledBack.incrementAndGet();
+               }
+            }
+         }
+
+         PreparedStatement ps = conn.prepareStatement(
+            "SELECT seq, kind, hotelID, bookingDate FROM ChangeFeed WHERE seq > ? ORDER BY seq LIMIT " + BATCH);
+         try{
+            int rows;
+            do {
+               rows = 0;
+               ps.setLong(1, top);
+               rs = ps.executeQuery();
+               while (rs.next()) {
+                  ++rows;
+                  long seq = rs.getLong(1);
+                  if (seq - top - 1 + holes.size() > MAX_HOLES) {
+                     resync();
+                  } else {
+                     for (long s = top + 1; s < seq; ++s)
+                        holes.put(s, xmax);
+                  }
+                  top = seq;
+                  dispatch(rs);
+               }
+               rs.close();
+            } while (rows == BATCH);
+         }finally{
+            ps.close();
+         }
+         stmt.execute("COMMIT");
+      }finally{
+         stmt.close();
+      }
+      pending = holes.size();
+      lastRead = System.currentTimeMillis();
+   }//end read
+
+   private void dispatch(ResultSet rs) throws SQLException {
+      char kind = rs.getString(2).charAt(0);
+      int hotel = rs.getInt(3);
+      Integer hotelID = rs.wasNull() ? null : hotel;
+      Date bookingDate = rs.getDate(4);
+      events.incrementAndGet();
+      for (ChangeSubscriber subscriber : subscribers) {
+         try{
+            subscriber.changed(kind, hotelID, bookingDate);
+         }catch (RuntimeException e){
+            System.err.println("Change feed subscriber failed: " + e);
+         }
+      }
+   }//end dispatch
+
+   private void resync() {
+      resyncs.incrementAndGet();
+      for (ChangeSubscriber subscriber : subscribers) {
+         try{
+            subscriber.resync();
+         }catch (RuntimeException e){
+            System.err.println("Change feed subscriber failed: " + e);
+         }
+      }
+   }//end resync
+
+   private void purge() throws SQLException {
+      PreparedStatement ps = conn.prepareStatement(
+         "DELETE FROM ChangeFeed WHERE changedAt < CURRENT_TIMESTAMP - ? * INTERVAL '1 second'"
+         // the newest event stays, MAX(seq) is where a new listener and the catalog fingerprint start
+         + " AND seq < (SELECT MAX(seq) FROM ChangeFeed)");
+      try{
+         ps.setLong(1, retention);
+         ps.executeUpdate();
+      }finally{
+         ps.close();
+      }
+      lastPurge = System.currentTimeMillis();
+   }
+
+   private void pause(long millis) {
+      try{
+         Thread.sleep(millis);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         closed = true;
+      }
+   }
+
+   private static void close(Connection conn) {
+      try{
+         if (conn != null)
+            conn.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+   }
+
+   /**
+    * @return the backend process of the listening connection, 0 while it
+    *         is reconnecting
+    */
+   int listenerPID() {
+      return pid;
+   }
+
+   /**
+    * @return one line with the events dispatched, reads, polls, holes,
+    *         resyncs and reconnects
+    */
+   public String metrics() {
+      return String.format("change feed: %d events in %d reads, %d polls, %d holes pending, %d filled,"
+                           + " %d rolled back, %d resyncs, %d reconnects",
+                           events.get(), reads.get(), polls.get(), pending, filled.get(),
+                           rolledBack.get(), resyncs.get(), reconnects.get());
+   }
+
+   /**
+    * Stops the listener and closes its connection.
+    */
+   public void close() {
+      Thread l;
+      synchronized (this) {
+         closed = true;
+         l = listener;
+      }
+      try{
+         if (l != null) {
+            l.interrupt();
+            l.join(5000);
+         } else {
+            close(conn);
+         }
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+   }//end close
+
+}//end ChangeFeed
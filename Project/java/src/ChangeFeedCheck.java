@@ -0,0 +1,179 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two process check of the change feed.  This process listens while a
+ * second JVM, started with the same classpath, books a room on dates in
+ * 2100 and rewrites its price, printing every booking with the time it
+ * committed.  Every booking must reach this process's subscribers within
+ * five seconds, and the price changes must show up as room changes; the
+ * booking latencies are reported.  The listener's backend is
+ * then terminated, and the feed must reconnect and resync.  The bookings
+ * made are deleted afterwards.  Exits with status 1 when a booking is
+ * missed, no room change came or no resync happens.
+ *
+ */
+public class ChangeFeedCheck {
+
+   static final Date FIRST_DAY = Date.valueOf("2100-01-01");
+   static final long DEADLINE = 5000;
+
+   // arrival time per booking, by hotelID/date
+   private final Map<String, Long> arrived = new ConcurrentHashMap<String, Long>();
+   private final AtomicInteger roomChanges = new AtomicInteger();
+   private final AtomicInteger resyncs = new AtomicInteger();
+
+   /**
+    * The writer: books the room on the next changes days from FIRST_DAY
+    * and sets its price after each, in separate transactions.
+    */
+   static void write(Hotel esql, int hotelID, int roomNumber, int changes) throws Exception {
+      int customerID = esql.queryFirst("SELECT MIN(userID) FROM Users", Hotel.INT);
+      Room room = esql.rooms().find(hotelID, roomNumber);
+      for (int i = 0; i < changes; ++i) {
+         Date date = new Date(FIRST_DAY.getTime() + i * 86400000L);
+         if (esql.bookings().book(customerID, hotelID, roomNumber, date) == null)
+            throw new SQLException("room " + roomNumber + " of hotel " + hotelID + " is already booked on " + date);
+         System.out.println(hotelID + "/" + date + " " + System.currentTimeMillis());
+         esql.rooms().updatePrice(hotelID, roomNumber, room.price);
+         Thread.sleep(20);
+      }
+   }//end write
+
+   private void subscribe(Hotel esql) {
+      esql.changes().subscribe(new ChangeSubscriber() {
+         public void changed(char kind, Integer hotelID, Date bookingDate) {
+            if (kind == ChangeFeed.BOOKINGS && !arrived.containsKey(hotelID + "/" + bookingDate))
+               arrived.put(hotelID + "/" + bookingDate, System.currentTimeMillis());
+            else if (kind == ChangeFeed.ROOMS)
+               roomChanges.incrementAndGet();
+         }
+         public void resync() {
+            resyncs.incrementAndGet();
+         }
+      });
+   }
+
+   /**
+    * Runs the writer process and matches what it printed with what
+    * arrived here.
+    *
+    * @return the number of bookings missed, all of them when no room
+    *         change arrived
+    */
+   public int run(String[] args, int hotelID, int roomNumber, int changes) throws Exception {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      command.add("-Dhotel.changes=false");
+      command.add("-classpath");
+      command.add(System.getProperty("java.class.path"));
+      command.add(ChangeFeedCheck.class.getName());
+      command.addAll(Arrays.asList(args[0], args[1], args[2], "--writer", "" + hotelID, "" + roomNumber, "" + changes));
+      Process writer = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+      List<String[]> sent = new ArrayList<String[]>();
+      BufferedReader out = new BufferedReader(new InputStreamReader(writer.getInputStream()));
+      String line;
+      while ((line = out.readLine()) != null) {
+         String[] f = line.split(" ");
+         if (f.length == 2 && f[0].indexOf('/') > 0)
+            sent.add(f);
+         else
+            System.out.println("writer: " + line);
+      }
+      if (writer.waitFor() != 0 || sent.size() != changes)
+         throw new Exception("the writer failed after " + sent.size() + " changes");
+
+      long deadline = System.currentTimeMillis() + DEADLINE;
+      int missed;
+      long[] latencies = new long[sent.size()];
+      do {
+         missed = 0;
+         for (int i = 0; i < sent.size(); ++i) {
+            Long at = arrived.get(sent.get(i)[0]);
+            if (at == null)
+               ++missed;
+            else
+               latencies[i] = Math.max(0, at - Long.parseLong(sent.get(i)[1]));
+         }
+         if (missed > 0 || roomChanges.get() == 0)
+            Thread.sleep(100);
+      } while ((missed > 0 || roomChanges.get() == 0) && System.currentTimeMillis() < deadline);
+      Arrays.sort(latencies);
+      System.out.println(String.format("%d bookings from the writer, %d missed, latency p50 %d ms, p99 %d ms, max %d ms;"
+                                       + " %d room changes", sent.size(), missed, latencies[latencies.length / 2],
+                                       latencies[latencies.length * 99 / 100], latencies[latencies.length - 1],
+                                       roomChanges.get()));
+      return roomChanges.get() == 0 ? sent.size() : missed;
+   }//end run
+
+   /**
+    * Terminates the listening backend and waits for the resync.
+    *
+    * @return true if the feed reconnected and resynced
+    */
+   public boolean reconnect(Hotel esql) throws Exception {
+      int before = resyncs.get();
+      int pid = esql.changes().listenerPID();
+      esql.queryFirst("SELECT pg_terminate_backend(?)::int", Hotel.INT, pid);
+      long deadline = System.currentTimeMillis() + 30000;
+      while (resyncs.get() == before && System.currentTimeMillis() < deadline)
+         Thread.sleep(100);
+      boolean resynced = resyncs.get() > before;
+      System.out.println("listener backend " + pid + " terminated: "
+                         + (resynced ? "reconnected as " + esql.changes().listenerPID() + " and resynced" : "no resync"));
+      return resynced;
+   }
+
+   public static void main(String[] args) {
+      if (args.length != 3 && args.length != 4 && !(args.length == 7 && args[3].equals("--writer"))) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ChangeFeedCheck.class.getName () +
+            " <dbname> <port> <user> [changes]");
+         return;
+      }//end if
+      Hotel esql = null;
+      boolean ok = false;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new Hotel (args[0], args[1], args[2], "");
+         if (args.length == 7) {
+            write(esql, Integer.parseInt(args[4]), Integer.parseInt(args[5]), Integer.parseInt(args[6]));
+            ok = true;
+         } else {
+            int changes = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+            int hotelID = esql.catalog().hotelID(0);
+            int roomNumber = esql.catalog().rooms(hotelID).get(0).roomNumber;
+            ChangeFeedCheck check = new ChangeFeedCheck();
+            check.subscribe(esql);
+            try{
+               int missed = check.run(args, hotelID, roomNumber, changes);
+               boolean resynced = check.reconnect(esql);
+               ok = missed == 0 && resynced;
+            }finally{
+               esql.update("DELETE FROM RoomBookings WHERE hotelID = ? AND roomNumber = ? AND bookingDate >= ?",
+                           hotelID, roomNumber, FIRST_DAY);
+            }
+            System.out.println(esql.changes().metrics());
+         }
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }
+      System.exit(ok ? 0 : 1);
+   }//end main
+
+}//end ChangeFeedCheck
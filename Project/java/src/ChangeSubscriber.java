@@ -0,0 +1,25 @@
+import java.sql.Date;
+
+/**
+ * Receives the changes another process, or this one, made to the bookings,
+ * rooms and hotels, as read from the ChangeFeed table (see ChangeFeed).
+ *
+ */
+public interface ChangeSubscriber {
+
+   /**
+    * One change event.  Both the hotel and the date are null when a
+    * statement changed too many rows to list them, the date is null for
+    * changes to rooms and hotels.
+    *
+    * @param kind ChangeFeed.BOOKINGS, ROOMS or HOTELS
+    */
+   void changed(char kind, Integer hotelID, Date bookingDate);
+
+   /**
+    * Events may have been missed, e.g. while the listener was reconnecting,
+    * so everything cached must be read again.
+    */
+   void resync();
+
+}//end ChangeSubscriber
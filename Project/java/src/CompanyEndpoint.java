@@ -0,0 +1,18 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the repairs of a maintenance company are sent to.
+ *
+ */
+public interface CompanyEndpoint {
+
+   /**
+    * Hands the repairs to the company; they count as dispatched only when
+    * this returns normally.
+    *
+    * @throws java.io.IOException when the company did not take them
+    */
+   void dispatch(int companyID, List<RoomRepair> repairs) throws IOException;
+
+}//end CompanyEndpoint
@@ -0,0 +1,322 @@
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A small bounded pool of PostgreSQL connections.  Connections are
+ * validated before reuse when they sat idle for a while, closed when they
+ * stay idle past the idle timeout, and reported when a borrower holds one
+ * longer than the leak threshold.  Each connection keeps its own prepared
+ * statement cache (see PooledConnection).
+ *
+ * The pool settings can be changed with the following system properties:
+ *    hotel.pool.size          maximum number of connections (default 4)
+ *    hotel.pool.statements    prepared statements cached per connection (64)
+ *    hotel.pool.serverPrepare prepare the cached statements on the server (false)
+ *    hotel.pool.waitTimeout   ms to wait for a free connection (30000)
+ *    hotel.pool.idleTimeout   ms before an idle connection is closed (300000)
+ *    hotel.pool.validateAfter ms of idleness before a validation query (5000)
+ *    hotel.pool.leakThreshold ms a borrower may hold a connection (60000)
+ *
+ */
+public class ConnectionPool {
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+
+   private final int maxSize;
+   private final int statementCacheSize;
+   private final long waitTimeout;
+   private final long idleTimeout;
+   private final long validateAfter;
+   private final long leakThreshold;
+
+   // most recently released connection is reused first
+   private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+   private final Set<PooledConnection> busy = new HashSet<PooledConnection>();
+   private int opening = 0;
+   // released connections being rolled back, still counted against maxSize
+   private int resetting = 0;
+   private boolean closed = false;
+
+   private final Thread housekeeper;
+
+   // metrics, guarded by this
+   private long borrows = 0;
+   private long waits = 0;
+   private long waitNanos = 0;
+   private long maxWaitNanos = 0;
+   private long created = 0;
+   private long evicted = 0;
+   private long validationFailures = 0;
+   private long leaks = 0;
+   private long statementHits = 0;
+   private long statementMisses = 0;
+
+   /**
+    * Creates a pool using the hotel.pool.* system properties
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when the first connection cannot be made
+    */
+   public ConnectionPool(String url, String user, String passwd) throws SQLException {
+      this(url, user, passwd,
+           Integer.getInteger("hotel.pool.size", 4),
+           Integer.getInteger("hotel.pool.statements", 64),
+           Long.getLong("hotel.pool.waitTimeout", 30000L),
+           Long.getLong("hotel.pool.idleTimeout", 300000L),
+           Long.getLong("hotel.pool.validateAfter", 5000L),
+           Long.getLong("hotel.pool.leakThreshold", 60000L));
+   }
+
+   public ConnectionPool(String url, String user, String passwd, int maxSize, int statementCacheSize,
+                         long waitTimeout, long idleTimeout, long validateAfter, long leakThreshold) throws SQLException {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("pool size must be at least 1");
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.maxSize = maxSize;
+      this.statementCacheSize = statementCacheSize;
+      this.waitTimeout = waitTimeout;
+      this.idleTimeout = idleTimeout;
+      this.validateAfter = validateAfter;
+      this.leakThreshold = leakThreshold;
+
+      // open one connection up front so a bad URL or password fails fast
+      PooledConnection first = open();
+      synchronized (this) {
+         idle.addFirst(first);
+      }
+
+      housekeeper = new Thread(new Runnable() {
+         public void run() {
+            housekeep();
+         }
+      }, "hotel-pool-housekeeper");
+      housekeeper.setDaemon(true);
+      housekeeper.start();
+   }//end ConnectionPool
+
+   private PooledConnection open() throws SQLException {
+      PooledConnection conn = new PooledConnection(this, DriverManager.getConnection(url, user, passwd), statementCacheSize);
+      synchronized (this) {
+         ++created;
+      }
+      return conn;
+   }
+
+   /**
+    * Takes a connection from the pool, opening a new one if the pool is
+    * not full, or waiting for one to be released otherwise.
+    *
+    * @return a validated connection; call release() when done with it
+    * @throws java.sql.SQLException when no connection is available in time
+    */
+   public PooledConnection borrow() throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + waitTimeout * 1000000L;
+      boolean waited = false;
+      while (true) {
+         PooledConnection conn = null;
+         boolean mustOpen = false;
+         synchronized (this) {
+            while (true) {
+               if (closed)
+                  throw new SQLException("Connection pool is closed");
+               if (!idle.isEmpty()) {
+                  conn = idle.removeFirst();
+                  break;
+               }
+               if (busy.size() + opening + resetting < maxSize) {
+                  ++opening;
+                  mustOpen = true;
+                  break;
+               }
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0)
+                  throw new SQLException("Timed out after " + waitTimeout + " ms waiting for a database connection");
+               waited = true;
+               try{
+                  this.wait(remaining / 1000000L + 1);
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }
+            }
+         }
+
+         if (mustOpen) {
+            try{
+               conn = open();
+            }finally{
+               synchronized (this) {
+                  --opening;
+               }
+            }
+         }else if (System.currentTimeMillis() - conn.lastUsedAt > validateAfter && !isValid(conn)) {
+            conn.closePhysical();
+            synchronized (this) {
+               ++validationFailures;
+               this.notifyAll();
+            }
+            continue;
+         }
+
+         long elapsed = System.nanoTime() - start;
+         synchronized (this) {
+            busy.add(conn);
+            ++borrows;
+            if (waited)
+               ++waits;
+            waitNanos += elapsed;
+            if (elapsed > maxWaitNanos)
+               maxWaitNanos = elapsed;
+         }
+         conn.borrowedAt = System.currentTimeMillis();
+         conn.borrowSite = new Throwable("connection borrowed here");
+         conn.leakReported = false;
+         return conn;
+      }
+   }//end borrow
+
+   /**
+    * Gives a borrowed connection back to the pool.  A connection left in
+    * the middle of a transaction is rolled back first.  Releasing a
+    * connection that is not borrowed, e.g. a second time, does nothing.
+    */
+   public void release(PooledConnection conn) {
+      synchronized (this) {
+         if (!busy.remove(conn))
+            return;
+         ++resetting;
+      }
+      boolean healthy = true;
+      try{
+         if (!conn.getConnection().getAutoCommit()) {
+            conn.getConnection().rollback();
+            conn.getConnection().setAutoCommit(true);
+         }
+      }catch (SQLException e){
+         healthy = false;
+      }
+      conn.lastUsedAt = System.currentTimeMillis();
+      conn.borrowSite = null;
+      synchronized (this) {
+         --resetting;
+         if (healthy && !closed)
+            idle.addFirst(conn);
+         this.notifyAll();
+      }
+      if (!healthy || closed)
+         conn.closePhysical();
+   }//end release
+
+   private boolean isValid(PooledConnection conn) {
+      try{
+         ResultSet rs = conn.prepare("SELECT 1").executeQuery();
+         rs.close();
+         return true;
+      }catch (SQLException e){
+         return false;
+      }
+   }
+
+   /*
+    * Background loop closing connections that stayed idle too long and
+    * reporting borrowers that hold on to a connection for too long.
+    */
+   private void housekeep() {
+      long period = Math.max(1000L, Math.min(idleTimeout, leakThreshold) / 2);
+      while (true) {
+         try{
+            Thread.sleep(period);
+         }catch (InterruptedException e){
+            return;
+         }
+         long now = System.currentTimeMillis();
+         List<PooledConnection> expired = new ArrayList<PooledConnection>();
+         List<PooledConnection> leaked = new ArrayList<PooledConnection>();
+         synchronized (this) {
+            if (closed)
+               return;
+            // keep at least one connection around so the next borrow is fast
+            for (int i = idle.size() - 1; i > 0; --i) {
+               if (now - idle.get(i).lastUsedAt > idleTimeout)
+                  expired.add(idle.remove(i));
+            }
+            evicted += expired.size();
+            for (PooledConnection conn : busy) {
+               if (!conn.leakReported && now - conn.borrowedAt > leakThreshold) {
+                  conn.leakReported = true;
+                  ++leaks;
+                  leaked.add(conn);
+               }
+            }
+         }
+         for (PooledConnection conn : expired)
+            conn.closePhysical();
+         for (PooledConnection conn : leaked) {
+            Throwable site = conn.borrowSite;
+            System.err.println("Possible connection leak: held for more than " + leakThreshold + " ms");
+            if (site != null)
+               site.printStackTrace();
+         }
+      }
+   }//end housekeep
+
+   synchronized void recordStatementHit() {
+      ++statementHits;
+   }
+
+   synchronized void recordStatementMiss() {
+      ++statementMisses;
+   }
+
+   /**
+    * @return a one line summary of the pool metrics
+    */
+   public synchronized String metrics() {
+      long lookups = statementHits + statementMisses;
+      return String.format("pool: size=%d busy=%d idle=%d created=%d evicted=%d invalid=%d leaks=%d"
+                           + " | borrows=%d waited=%d avgWait=%.3fms maxWait=%.3fms"
+                           + " | statements: hits=%d misses=%d hitRate=%.1f%%",
+                           busy.size() + idle.size(), busy.size(), idle.size(), created, evicted, validationFailures, leaks,
+                           borrows, waits, borrows == 0 ? 0.0 : waitNanos / 1e6 / borrows, maxWaitNanos / 1e6,
+                           statementHits, statementMisses, lookups == 0 ? 0.0 : 100.0 * statementHits / lookups);
+   }//end metrics
+
+   public synchronized long getLeakCount() {
+      return leaks;
+   }
+
+   public synchronized double getStatementHitRate() {
+      long lookups = statementHits + statementMisses;
+      return lookups == 0 ? 0.0 : (double) statementHits / lookups;
+   }
+
+   /**
+    * Closes every idle connection; busy ones are closed when released.
+    */
+   public void close() {
+      List<PooledConnection> toClose;
+      synchronized (this) {
+         closed = true;
+         toClose = new ArrayList<PooledConnection>(idle);
+         idle.clear();
+         this.notifyAll();
+      }
+      housekeeper.interrupt();
+      for (PooledConnection conn : toClose)
+         conn.closePhysical();
+   }//end close
+
+}//end ConnectionPool
@@ -0,0 +1,18 @@
+/**
+ * Number of bookings made by one customer, used by the regular customers
+ * report.
+ *
+ */
+public class CustomerCount {
+
+   public final int customerID;
+   public final String name;
+   public final long bookings;
+
+   public CustomerCount(int customerID, String name, long bookings) {
+      this.customerID = customerID;
+      this.name = name;
+      this.bookings = bookings;
+   }
+
+}//end CustomerCount
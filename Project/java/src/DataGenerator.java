@@ -0,0 +1,249 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes a synthetic data set in the layout of Project/data, so it can be
+ * loaded with load_data.sql or BulkLoader.  The output only depends on the
+ * scale factor and the seed.
+ *
+ * Scale factor 1 is 100 hotels of 50 rooms, 10,000 users, 100,000
+ * bookings, 1,000 repairs and 5,000 room updates; every count grows
+ * linearly with the scale factor.  Dates are spread over the number of
+ * years given by the system property hotel.gen.years (default 3).  The
+ * system property hotel.gen.hotels sets the number of hotels regardless of
+ * the scale factor, e.g. 20 or 1,000,000 to compare the hotel search at
+ * both ends; the other counts still follow the scale factor.  Hotel
+ * popularity and customer activity follow a Zipf distribution, and hotels
+ * are clustered around a few cities, so the data has the hot spots real
+ * data has.
+ *
+ */
+public class DataGenerator {
+
+   static final int HOTELS_PER_SF = 100;
+   static final int ROOMS_PER_HOTEL = 50;
+   static final int USERS_PER_SF = 10000;
+   static final int BOOKINGS_PER_SF = 100000;
+   static final int REPAIRS_PER_SF = 1000;
+   static final int UPDATES_PER_SF = 5000;
+   static final int COMPANIES = 20;
+   static final int CITIES = 20;
+
+   private final File dir;
+   private final int hotels;
+   private final int users;
+   private final long bookings;
+   private final int repairs;
+   private final int updates;
+   private final int days = Integer.getInteger("hotel.gen.years", 3) * 365;
+   private final Random random;
+   private final GregorianCalendar firstDay = new GregorianCalendar(2015, Calendar.JANUARY, 1);
+
+   public DataGenerator(File dir, double scaleFactor, long seed) {
+      this.dir = dir;
+      this.hotels = Math.max(1, Integer.getInteger("hotel.gen.hotels", (int) Math.round(HOTELS_PER_SF * scaleFactor)));
+      // every hotel needs a manager, and there must be customers left over
+      this.users = Math.max(hotels + 10, (int) Math.round(USERS_PER_SF * scaleFactor));
+      this.bookings = Math.round(BOOKINGS_PER_SF * scaleFactor);
+      this.repairs = (int) Math.round(REPAIRS_PER_SF * scaleFactor);
+      this.updates = (int) Math.round(UPDATES_PER_SF * scaleFactor);
+      this.random = new Random(seed);
+   }
+
+   /**
+    * Cumulative Zipf distribution over n items, item 0 being the most
+    * popular; sample() picks from it with a binary search.
+    */
+   static class Zipf {
+      private final double[] cdf;
+
+      Zipf(int n, double exponent) {
+         cdf = new double[n];
+         double sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+         }
+         for (int i = 0; i < n; ++i)
+            cdf[i] /= sum;
+      }
+
+      double weight(int i) {
+         return i == 0 ? cdf[0] : cdf[i] - cdf[i - 1];
+      }
+
+      int sample(Random random) {
+         int i = Arrays.binarySearch(cdf, random.nextDouble());
+         return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+      }
+   }//end Zipf
+
+   public void generate() throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("cannot create " + dir);
+      writeUsers();
+      writeCompanies();
+      writeHotels();
+      writeRooms();
+      writeBookings();
+      writeRepairs();
+      writeUpdates();
+   }
+
+   private Writer open(String name, String header) throws IOException {
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, name)), "UTF-8"), 1 << 16);
+      out.write(header);
+      out.write('\n');
+      return out;
+   }
+
+   private String date(int day) {
+      GregorianCalendar c = (GregorianCalendar) firstDay.clone();
+      c.add(Calendar.DATE, day);
+      return (c.get(Calendar.MONTH) + 1) + "/" + c.get(Calendar.DAY_OF_MONTH) + "/" + c.get(Calendar.YEAR);
+   }
+
+   private String timestamp(int day, int minute) {
+      GregorianCalendar c = (GregorianCalendar) firstDay.clone();
+      c.add(Calendar.DATE, day);
+      return String.format(Locale.ROOT, "%04d-%02d-%02d %02d:%02d:00", c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1,
+                           c.get(Calendar.DAY_OF_MONTH), minute / 60, minute % 60);
+   }
+
+   // the manager of a hotel; some managers run two hotels
+   private int managerOf(int hotelID) {
+      return 2 + (hotelID - 1) % Math.max(1, hotels * 3 / 4);
+   }
+
+   private void writeUsers() throws IOException {
+      Writer out = open("users.csv", "userID,name,password,userType");
+      int managers = Math.max(1, hotels * 3 / 4);
+      out.write("1,Admin,xyz,admin\n");
+      for (int id = 2; id <= users; ++id)
+         out.write(id + ",user" + id + ",xyz," + (id <= managers + 1 ? "manager" : "customer") + "\n");
+      out.close();
+   }
+
+   private void writeCompanies() throws IOException {
+      Writer out = open("company.csv", "companyID,name,address");
+      for (int id = 1; id <= COMPANIES; ++id)
+         out.write(id + ",company" + id + ",street " + id + "\n");
+      out.close();
+   }
+
+   private void writeHotels() throws IOException {
+      double[][] cities = new double[CITIES][2];
+      for (int i = 0; i < CITIES; ++i) {
+         cities[i][0] = random.nextDouble() * 160 - 80;
+         cities[i][1] = random.nextDouble() * 340 - 170;
+      }
+      Zipf cityPopularity = new Zipf(CITIES, 1.0);
+      Writer out = open("hotels.csv", "hotelID,hotelName,latitude,longitude,dateEstablished,managerUserID");
+      for (int id = 1; id <= hotels; ++id) {
+         double[] city = cities[cityPopularity.sample(random)];
+         double lat = Math.max(-89.9, Math.min(89.9, city[0] + random.nextGaussian() * 3));
+         double lon = Math.max(-179.9, Math.min(179.9, city[1] + random.nextGaussian() * 3));
+         out.write(String.format(Locale.ROOT, "%d,hotel%d,%.5f,%.5f,%d/%d/%d,%d\n", id, id, lat, lon,
+                                 1 + random.nextInt(12), 1 + random.nextInt(28), 1900 + random.nextInt(115),
+                                 managerOf(id)));
+      }
+      out.close();
+   }
+
+   private void writeRooms() throws IOException {
+      Writer out = open("rooms.csv", "hotelID,roomNumber,price,imageURL");
+      for (int h = 1; h <= hotels; ++h) {
+         int base = 80 + random.nextInt(400);
+         for (int r = 1; r <= ROOMS_PER_HOTEL; ++r)
+            out.write(h + "," + r + "," + (base + random.nextInt(base)) + ",img" + h + "_" + r + "\n");
+      }
+      out.close();
+   }
+
+   /*
+    * Each hotel gets a share of the bookings following its popularity, and
+    * a bitmap of its (room, day) cells keeps every booking unique.
+    */
+   private void writeBookings() throws IOException {
+      Writer out = open("bookings.csv", "bookingID,customerID,hotelID,roomNumber,bookingDate");
+      Zipf hotelPopularity = new Zipf(hotels, 0.8);
+      int firstCustomer = Math.max(1, hotels * 3 / 4) + 2;
+      Zipf customerActivity = new Zipf(users - firstCustomer + 1, 0.7);
+      int cells = ROOMS_PER_HOTEL * days;
+      BitSet taken = new BitSet(cells);
+      long bookingID = 0;
+      double cumulative = 0;
+      for (int h = 0; h < hotels; ++h) {
+         // whatever a full hotel could not take carries over to the next ones
+         cumulative += hotelPopularity.weight(h);
+         long share = h == hotels - 1 ? bookings - bookingID : Math.round(bookings * cumulative) - bookingID;
+         // never fill more than 90% of a hotel, the sampling below would crawl
+         share = Math.max(0, Math.min(share, (long) (cells * 0.9)));
+         taken.clear();
+         for (long b = 0; b < share; ++b) {
+            int cell;
+            do {
+               cell = random.nextInt(cells);
+            } while (taken.get(cell));
+            taken.set(cell);
+            int customer = firstCustomer + customerActivity.sample(random);
+            out.write(++bookingID + "," + customer + "," + (h + 1) + "," + (cell % ROOMS_PER_HOTEL + 1) + ","
+                      + date(cell / ROOMS_PER_HOTEL) + "\n");
+         }
+      }
+      out.close();
+   }//end writeBookings
+
+   private void writeRepairs() throws IOException {
+      Writer out = open("roomRepairs.csv", "repairID,companyID,hotelID,roomNumber,repairDate,status");
+      Writer requests = open("roomRepairRequests.csv", "requestNumber,managerID,repairID");
+      for (int id = 1; id <= repairs; ++id) {
+         int hotelID = 1 + random.nextInt(hotels);
+         out.write(id + "," + (1 + random.nextInt(COMPANIES)) + "," + hotelID + "," + (1 + random.nextInt(ROOMS_PER_HOTEL))
+                   + "," + date(random.nextInt(days)) + ",completed\n");
+         requests.write(id + "," + managerOf(hotelID) + "," + id + "\n");
+      }
+      out.close();
+      requests.close();
+   }
+
+   private void writeUpdates() throws IOException {
+      Writer out = open("roomUpdatesLog.csv", "updateNumber,managerID,hotelID,roomNumber,updatedOn");
+      for (int id = 1; id <= updates; ++id) {
+         int hotelID = 1 + random.nextInt(hotels);
+         out.write(id + "," + managerOf(hotelID) + "," + hotelID + "," + (1 + random.nextInt(ROOMS_PER_HOTEL)) + ","
+                   + timestamp(random.nextInt(days), random.nextInt(24 * 60)) + "\n");
+      }
+      out.close();
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 2 || args.length > 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <output directory> <scale factor> [seed]");
+         return;
+      }//end if
+      try{
+         long start = System.nanoTime();
+         long seed = args.length == 3 ? Long.parseLong(args[2]) : 166L;
+         new DataGenerator(new File(args[0]), Double.parseDouble(args[1]), seed).generate();
+         System.out.println(String.format("generated SF%s in %.1f s", args[1], (System.nanoTime() - start) / 1e9));
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+}//end DataGenerator
@@ -1,694 +1,1494 @@
-/*
- * Template JAVA User Interface
- * =============================
- *
- * Database Management Systems
- * Department of Computer Science &amp; Engineering
- * University of California - Riverside
- *
- * Target DBMS: 'Postgres'
- *
- */
-
-
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.List;
-import java.util.ArrayList;
-import java.lang.Math;
-
-/**
- * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
- *
- */
-public class Hotel {
-
-   // reference to physical database connection.
-   private Connection _connection = null;
-
-   // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
-
-   /**
-    * Creates a new instance of Hotel 
-    *
-    * @param hostname the MySQL or PostgreSQL server hostname
-    * @param database the name of the database
-    * @param username the user name used to login to the database
-    * @param password the user login password
-    * @throws java.sql.SQLException when failed to make a connection.
-    */
-   public Hotel(String dbname, String dbport, String user, String passwd) throws SQLException {
-
-      System.out.print("Connecting to database...");
-      try{
-         // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
-
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
-         System.out.println("Done");
-      }catch (Exception e){
-         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
-         System.out.println("Make sure you started postgres on this machine");
-         System.exit(-1);
-      }//end catch
-   }//end Hotel
-
-   // Method to calculate euclidean distance between two latitude, longitude pairs 
-   public double calculateDistance (double lat1, double long1, double lat2, double long2){
-      double t1 = (lat1 - lat2) * (lat1 - lat2);
-      double t2 = (long1 - long2) * (long1 - long2);
-      return Math.sqrt(t1 + t2); 
-   }
-   /**
-    * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
-    *
-    * @param sql the input SQL string
-    * @throws java.sql.SQLException when update failed
-    */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
-    * standard out.
-    *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the results as
-    * a list of records. Each record in turn is a list of attribute values
-    *
-    * @param query the input query string
-    * @return the query result as a list of records
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
-   }//end executeQueryAndReturnResult
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
-    *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
-
-       int rowCount = 0;
-
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
-
-   /**
-    * Method to fetch the last value from sequence. This
-    * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
-    *
-    * @param sequence name of the DB sequence
-    * @return current value of a sequence
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int getCurrSeqVal(String sequence) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-
-      ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
-   }
-
-   public int getNewUserID(String sql) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-      ResultSet rs = stmt.executeQuery (sql);
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
-   }
-   /**
-    * Method to close the physical connection if it is open.
-    */
-   public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
-   }//end cleanup
-
-   /**
-    * The main execution method
-    *
-    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
-    */
-  
-   public static void main (String[] args) {
-      if (args.length != 3) {
-         System.err.println (
-            "Usage: " +
-            "java [-classpath <classpath>] " +
-            Hotel.class.getName () +
-            " <dbname> <port> <user>");
-         return;
-      }//end if
-
-      Greeting();
-      Hotel esql = null;
-      try{
-         // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
-         // instantiate the Hotel object and creates a physical
-         // connection.
-         String dbname = args[0];
-         String dbport = args[1];
-         String user = args[2];
-         esql = new Hotel (dbname, dbport, user, "");
-
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. View Hotels within 30 units");
-                System.out.println("2. View Rooms");
-                System.out.println("3. Book a Room");
-                System.out.println("4. View recent booking history");
-
-                //the following functionalities basically used by managers
-                System.out.println("5. Update Room Information");
-                System.out.println("6. View 5 recent Room Updates Info");
-                System.out.println("7. View booking history of the hotel");
-                System.out.println("8. View 5 regular Customers");
-                System.out.println("9. Place room repair Request to a company");
-                System.out.println("10. View room repair Requests history");
-
-                System.out.println(".........................");
-                System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewHotels(esql); break;
-                   case 2: viewRooms(esql); break;
-                   case 3: bookRooms(esql, authorisedUser); break;
-                   case 4: viewRecentBookingsfromCustomer(esql, authorisedUser); break;
-                   case 5: updateRoomInfo(esql, authorisedUser); break;
-                   case 6: viewRecentUpdates(esql, authorisedUser); break;
-                   case 7: viewBookingHistoryofHotel(esql, authorisedUser); break;
-                   case 8: viewRegularCustomers(esql, authorisedUser); break;
-                   case 9: placeRoomRepairRequests(esql, authorisedUser); break;
-                   case 10: viewRoomRepairHistory(esql, authorisedUser); break;
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
-            }
-         }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
-      }//end try
-   }//end main
-
-   public static void Greeting(){
-      System.out.println(
-         "\n\n*******************************************************\n" +
-         "              User Interface      	               \n" +
-         "*******************************************************\n");
-   }//end Greeting
-
-   /*
-    * Reads the users choice given from the keyboard
-    * @int
-    **/
-   public static int readChoice() {
-      int input;
-      // returns only if a correct value is given.
-      do {
-         System.out.print("Please make your choice: ");
-         try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
-            break;
-         }
-         catch (Exception e) {
-            System.out.println("Your input is invalid!");
-            continue;
-         }//end try
-      }  
-      while (true);
-      return input;
-   }//end readChoice
-
-   /*
-    * Creates a new user
-    **/
-   public static void CreateUser(Hotel esql){
-      try{
-         System.out.print("\tEnter name: ");
-         String name = in.readLine();
-         System.out.print("\tEnter password: ");
-         String password = in.readLine(); 
-         String type="Customer";
-			String query = String.format("INSERT INTO USERS (name, password, userType) VALUES ('%s','%s', '%s')", name, password, type);
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created with userID = " + esql.getNewUserID("SELECT last_value FROM users_userID_seq"));
-         
-      }
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-      }
-   }//end CreateUser
-
-
-   /*
-    * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
-    **/
-   public static String LogIn(Hotel esql){
-      try{
-         System.out.print("\tEnter userID: ");
-         String userID = in.readLine();
-         System.out.print("\tEnter password: ");
-         String password = in.readLine();
-
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND password = '%s'", userID, password);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0)
-            return userID;
-         return null;
-      }
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-         return null;
-      }
-   }//end
-
-   public static boolean isManagerForHotel(Hotel esql, String auth_user, int hotelID){
-      boolean isManager = false;
-      try{
-         String isManagerQuery = "SELECT managerUserID FROM Hotel WHERE hotelID=" + hotelID + " AND managerUserID=" + auth_user;
-         List<List<String>> result = esql.executeQueryAndReturnResult(isManagerQuery);
-         if(result.size() > 0) isManager = true;
-      }
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-         isManager = false;
-      }
-      return isManager;
-   }
-
-   public static boolean isManagerForHotel(Hotel esql, String auth_user){
-      boolean isManager = false;
-      try{
-         String isManagerQuery = "SELECT managerUserID FROM Hotel WHERE managerUserID=" + auth_user;
-         List<List<String>> result = esql.executeQueryAndReturnResult(isManagerQuery);
-         if(result.size() > 0) isManager = true;
-      }
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-         isManager = false;
-      }
-      return isManager;
-   }
-
-   public static Integer inputInteger(String inputType){
-      while(true){
-         try{
-            System.out.print("\t" + inputType + ": ");
-            int hotelID = Integer.parseInt(in.readLine());
-            return hotelID;
-         }
-         catch(Exception e){
-            System.err.println ("\tInvalid " + inputType + " input, must be a integer!");
-         }
-      }
-   }
-
-// Rest of the functions definition go in here
-   public static void viewHotels(Hotel esql) {
-      try{
-         System.out.print("\tLongitude: ");
-         Double user_longitude = Double.parseDouble(in.readLine());
-         System.out.print("\tLatitude: ");
-         Double user_latitude = Double.parseDouble(in.readLine());
-         String query = "SELECT hotelName, latitude, longitude FROM Hotel";
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-         System.out.print("Hotels near you... \n");
-         for(int i = 0; i < results.size(); i++){
-            String hotelName = results.get(i).get(0);
-            double hotelLatitude = Double.parseDouble(results.get(i).get(1));
-            double hotelLongitude = Double.parseDouble(results.get(i).get(2));
-            if(esql.calculateDistance(user_latitude, user_longitude, hotelLatitude, hotelLongitude) < 30){
-               System.out.print(hotelName + "\n");
-            }
-         }
-         System.out.print("\n");
-      }
-      catch(Exception e){
-         System.err.println(e.getMessage());
-      }
-   }
-
-   public static void viewRooms(Hotel esql) {
-  	   try{
-         Integer HotelID = inputInteger("Enter Hotel ID");
-         System.out.print("\tEnter Date: ");
-         String date = "'" + in.readLine() + "'";
-         String query = "SELECT R.roomNumber, R.price, R.imageURL FROM Rooms R WHERE R.hotelID= " + HotelID + " AND roomNumber NOT IN (SELECT roomNumber FROM RoomBookings RB WHERE RB.hotelID=" + HotelID + " AND bookingDate=" + date + ")";
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-         for(int i = 0; i < results.size(); i++){
-            String roomNumber = results.get(i).get(0);
-            String roomPrice = results.get(i).get(1);
-            String imageURL = results.get(i).get(2);
-            System.out.println("The room " + roomNumber + " is available for " + roomPrice + " bells, image url: " + imageURL);
-         }
-         if(results.size()==0){
-            System.out.println("Sorry there are no rooms at the hotel currently available for that booking date");
-         }
-         System.out.print("\n");
-      } 
-      catch(Exception e){
-         System.err.println(e.getMessage());
-      }
-   }
-   public static void bookRooms(Hotel esql, String auth_user) {
-      try{
-         Integer hotelID = inputInteger("Enter Hotel ID");
-         Integer roomNumber = inputInteger("Enter Room Number");
-         System.out.print("\tEnter Date: ");
-         String bookingDate = String.format("'%s'", in.readLine());
-         String query = "SELECT R.price FROM Rooms R WHERE R.roomNumber=" + roomNumber + " AND R.hotelID= " + hotelID + " AND NOT EXISTS (SELECT * FROM RoomBookings RB WHERE RB.hotelID=" + hotelID + " AND R.hotelID=RB.hotelID AND R.roomNumber=RB.roomNumber AND RB.roomNumber="+ roomNumber +" AND bookingDate=" + bookingDate + ")";
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-         if(results.size() > 0){
-            String roomPrice = results.get(0).get(0);
-            String addBookingQuery = String.format("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES (%s, %s, %s, %s)", auth_user, hotelID, roomNumber, bookingDate);
-            esql.executeUpdate(addBookingQuery);
-            System.out.println("The room " + roomNumber + " has been booked and you've been charged " + roomPrice + " bells");
-
-         }
-         else{
-            System.out.println("Sorry that room is currently unavailable for that booking date");
-         }
-      }
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-      }
-   }
-   public static void viewRecentBookingsfromCustomer(Hotel esql, String auth_user) {
-   try{
-      String query = "SELECT RB.hotelID, RB.roomNumber, RB.bookingDate, R.price FROM RoomBookings RB, Rooms R WHERE customerID = " + auth_user + " AND RB.roomNumber = R.roomNumber AND RB.hotelID = R.hotelID ORDER BY bookingDate DESC";
-      List<List<String>> results = esql.executeQueryAndReturnResult(query);
-      int a = Math.min(results.size(), 5);
-      for(int i = 0; i < a; i++){
-         String hotelID = results.get(i).get(0);
-         String roomNumber = results.get(i).get(1);
-         String date = results.get(i).get(2);
-         String price = results.get(i).get(3);
-         System.out.println("The hotelID is " + hotelID);
-         System.out.println("The roomNumber is " + roomNumber);
-         System.out.println("The price is " + price);
-         System.out.println("The date is " + date + "\n");
-      }
-      if(results.size() == 0) {
-         System.out.println("Sorry you have no current booking history");
-      }
-   }
-   catch(Exception e){
-         System.err.println (e.getMessage ());
-   }
-   }
-   public static void updateRoomInfo(Hotel esql, String auth_user) {
-      try{
-         Integer hotelID = inputInteger("Enter Hotel ID");
-         Integer roomNumber = inputInteger("Enter Room Number");
-         String isManagerQuery = "SELECT managerUserID FROM Hotel WHERE hotelID=" + hotelID + " AND managerUserID=" + auth_user;
-         List<List<String>> result = esql.executeQueryAndReturnResult(isManagerQuery);
-         String roomUpdateLogQuery = String.format("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES (%s, %s, %s, CURRENT_TIMESTAMP)", auth_user, hotelID, roomNumber);
-         if(result.size() > 0){
-            System.out.print("\tWould you like to update the 'price' or the 'image url', enter something besides the options to exit: ");
-            String updateOption = in.readLine();
-            if(updateOption.equals("price")){
-               Integer newPrice = inputInteger("Enter New Room Price");
-               String updatePriceQuery = String.format("UPDATE Rooms SET price=%s WHERE hotelID=%s AND roomNumber=%s", newPrice, hotelID, roomNumber);
-               esql.executeUpdate(updatePriceQuery);
-               esql.executeUpdate(roomUpdateLogQuery);
-               System.out.println("\tUpdated price");
-            }
-            else if(updateOption.equals("image url")){
-               System.out.print("\tNew image url for room: ");
-               String newImageUrl = in.readLine();
-               String updateImageUrlQuery = String.format("UPDATE Rooms SET imageURL='%s' WHERE hotelID=%s AND roomNumber=%s", newImageUrl, hotelID, roomNumber);
-               esql.executeUpdate(updateImageUrlQuery);
-               esql.executeUpdate(roomUpdateLogQuery);
-               System.out.println("\tUpdated Image Url");
-            }
-            else{
-               System.out.print("\tyour input: " + updateOption + " ?");
-            }
-         } else{
-            System.out.println("You are not a manager for that hotel so you may not update any room information!");
-         }
-
-      } catch(Exception e){
-         System.err.println (e.getMessage ());
-      }
-   }
-   public static void viewRecentUpdates(Hotel esql, String auth_user) {
-      try{
-         if(isManagerForHotel(esql, auth_user)){
-               String fiveRecentUpdatesQuery = String.format("SELECT hotelID, roomNumber FROM RoomUpdatesLog WHERE managerID=%s ORDER BY updatedOn DESC LIMIT 5", auth_user);
-               esql.executeQueryAndPrintResult(fiveRecentUpdatesQuery);
-            } else{
-               System.out.println("You are not a manager for any hotels!");
-            }
-      } catch(Exception e){
-         System.err.println (e.getMessage ());
-      }
-   }
-   public static void viewBookingHistoryofHotel(Hotel esql, String auth_user) {
-      try{
-         if(isManagerForHotel(esql, auth_user)) {
-            System.out.println("Please enter the starting date of your range (M,D,YYYY): ");
-            String date1 = "'" + in.readLine() + "'";
-            System.out.println("Please enter the ending date of your range (M,D,YYYY): ");
-            String date2 = "'" + in.readLine() + "'";
-            String isManagerQuery = "SELECT RB.bookingID, U.name, RB.hotelID, RB.roomNumber, RB.bookingDate, H.managerUserID FROM RoomBookings RB, Users U, Hotel H WHERE managerUserID=" + auth_user + " AND H.hotelID = RB.hotelID AND RB.customerID = U.userID AND RB.bookingDate >= " + date1 + " AND RB.bookingDate <=" + date2;
-            List<List<String>> results = esql.executeQueryAndReturnResult(isManagerQuery);
-            for(int i = 0; i < results.size(); i++) {
-               String bookingID = results.get(i).get(0);
-               String name = results.get(i).get(1);
-               String hotelID = results.get(i).get(2);
-               String roomNumber = results.get(i).get(3);
-               String date = results.get(i).get(4);
-               System.out.println("The bookingID is " + bookingID);
-               System.out.println("The customer name is " + name);
-               System.out.println("The hotelID is " + hotelID);
-               System.out.println("The roomNumber is " + roomNumber);
-               System.out.println("The date is " + date + "\n");
-            }
-            if(results.size() == 0){
-               System.out.println("No bookings between those time spans :'(");
-            }
-
-         }
-         else{
-               System.out.println("You are not a manager for any hotels!");
-            }
-      }
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-      }
-   }
-   public static void viewRegularCustomers(Hotel esql, String auth_user) {
-      // Regular customer: This option is for the managers. If chosen, the
-      // system will ask for entering a hotelID. If the manager is managing
-      // that hotel, then the top 5 customers who made the most bookings
-      // in that hotel will be shown.
-      try{
-         if(isManagerForHotel(esql, auth_user)) {
-            Integer hotelID = inputInteger("Enter Hotel ID");
-            if(isManagerForHotel(esql, auth_user, hotelID)) {
-               String query = "SELECT U.name, COUNT(*) FROM RoomBookings RB, Users U, Hotel H WHERE U.userID = RB.customerID AND managerUserID=" + auth_user + " AND H.hotelID = RB.hotelID AND RB.customerID = U.userID GROUP BY U.name ORDER BY COUNT(*) DESC LIMIT 5";
-               List<List<String>> results = esql.executeQueryAndReturnResult(query);
-               int a = Math.min(results.size(), 5);
-               System.out.println("\nThe top 5 customers who made the most bookings:\n");
-               for(int i = 0; i < a; i++) {
-                  String customerID = results.get(i).get(0);
-                  String count = results.get(i).get(1);
-                  System.out.println(customerID + " " + count);
-               }
-               System.out.println("\n");
-            }
-            else{
-               System.out.println("You are not a manager for this hotel!");
-            }
-         }
-         else{
-               System.out.println("You are not a manager for any hotels!");
-         }
-      } 
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-      }
-   }
-   public static void placeRoomRepairRequests(Hotel esql, String auth_user) {
-      try{
-         Integer hotelID = inputInteger("Enter Hotel ID");
-         Integer roomNumber = inputInteger("Enter Room Number");
-         Integer companyID = inputInteger("Enter Company ID of maintenance company");
-         String isManagerQuery = "SELECT managerUserID FROM Hotel WHERE hotelID=" + hotelID + " AND managerUserID=" + auth_user;
-         List<List<String>> result = esql.executeQueryAndReturnResult(isManagerQuery);
-         if(result.size() > 0){
-            String addRoomRepairQuery = String.format("INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate) VALUES (%s, %s, %s, CURRENT_DATE)", companyID, hotelID, roomNumber);
-            esql.executeUpdate(addRoomRepairQuery);
-            int newRepairID = esql.getNewUserID("SELECT last_value FROM roomRepairs_repairID_seq");
-            String addRoomRepairRequestsQuery = String.format("INSERT INTO RoomRepairRequests (managerID, repairID) VALUES (%s, %s)", auth_user, newRepairID);
-            esql.executeUpdate(addRoomRepairRequestsQuery);
-            System.out.println("The repair order has been placed.");
-         } else{
-            System.out.println("You are not a manager for that hotel so you may not order a repair request!");
-         }
-      }
-      catch(Exception e){
-         System.err.println(e.getMessage ());
-      }
-   }
-   public static void viewRoomRepairHistory(Hotel esql, String auth_user) {
-      try{
-         String isManagerQuery = "SELECT managerUserID FROM Hotel WHERE managerUserID=" + auth_user;
-         List<List<String>> result = esql.executeQueryAndReturnResult(isManagerQuery);
-         if(result.size() > 0){
-            System.out.println("Manager Room Repair Request History");
-            String roomRequestsHistoryQuery = String.format("SELECT companyID, hotelID, roomNumber, repairDate FROM RoomRepairs WHERE hotelID IN (SELECT hotelID FROM Hotel WHERE managerUserID=%s)", auth_user);
-            esql.executeQueryAndPrintResult(roomRequestsHistoryQuery);
-         }
-         else{
-            System.out.println("You are not a manager for any hotels");
-         }
-      } catch(Exception e){
-         System.err.println(e.getMessage ());
-      }
-   }
-
-}//end Hotel
-
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.io.File;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.lang.Math;
+
+/**
+ * This class defines a simple embedded SQL utility class that is designed to
+ * work with PostgreSQL JDBC drivers.
+ *
+ */
+public class Hotel {
+
+   // pool of physical database connections shared by every operation,
+   // null when Hotel runs on a MemoryStore
+   private ConnectionPool _pool = null;
+
+   // the storage behind the menu operations 1 to 10, login and new users
+   private HotelStore _store = null;
+
+   // radius used by the "View Hotels within 30 units" menu option
+   static final double HOTEL_SEARCH_RADIUS = 30;
+
+   // bookings per page of the booking histories
+   static final int PAGE_SIZE = Integer.getInteger("hotel.pageSize", 5);
+
+   // spatial index over hotel coordinates, null if it could not be loaded
+   private HotelGrid _hotelGrid = null;
+
+   // typed data access objects, all running parameterized statements
+   private final UserDao _users = new UserDao(this);
+   private final RoomDao _rooms = new RoomDao(this);
+   private final BookingDao _bookings = new BookingDao(this);
+   private final RepairDao _repairs = new RepairDao(this);
+
+   // logged in users and the hotels they manage, shared by all sessions
+   private final PrincipalCache _principals = new PrincipalCache(this);
+
+   // booked rooms per (hotel, date), kept current by the booking paths
+   private final AvailabilityCache _availability = new AvailabilityCache();
+
+   // hotels and rooms, read from the database or a snapshot file at startup
+   private final Catalog _catalog = new Catalog(this);
+
+   // latency, rows and errors of every statement, per menu operation
+   private final QueryMetrics _metrics = new QueryMetrics();
+
+   // RoomUpdatesLog entries written behind the room updates
+   private final AuditLog _audit = new AuditLog(this);
+
+   // sends requested repairs to the maintenance companies, made on first use
+   private RepairDispatcher _dispatcher = null;
+
+   // bookings in columns for the occupancy reports, loaded on first use
+   private BookingSnapshot _analytics = null;
+
+   // changes made by every process, to drop what the caches above hold
+   private final ChangeFeed _changes = new ChangeFeed();
+
+   // handling the keyboard inputs through a BufferedReader
+   // This variable can be global for convenience.
+   static BufferedReader in = new BufferedReader(
+                                new InputStreamReader(System.in));
+
+   /**
+    * Creates a new instance of Hotel 
+    *
+    * @param hostname the MySQL or PostgreSQL server hostname
+    * @param database the name of the database
+    * @param username the user name used to login to the database
+    * @param password the user login password
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Hotel(String dbname, String dbport, String user, String passwd) throws SQLException {
+
+      System.out.print("Connecting to database...");
+      try{
+         // constructs the connection URL
+         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         System.out.println ("Connection URL: " + url + "\n");
+
+         // open the connection pool, this makes the first physical connection
+         this._pool = new ConnectionPool(url, user, passwd);
+         this._store = new JdbcStore(this);
+         System.out.println("Done");
+
+         Integer metricsPort = Integer.getInteger("hotel.metrics.port");
+         if (metricsPort != null)
+            this._metrics.serve(metricsPort);
+
+         // before the catalog is read, so no change made meanwhile is missed
+         this._changes.subscribe(new ChangeSubscriber() {
+            public void changed(char kind, Integer hotelID, Date bookingDate) {
+               if (kind == ChangeFeed.BOOKINGS) {
+                  if (hotelID == null)
+                     _availability.clear();
+                  else if (bookingDate == null)
+                     _availability.invalidate(hotelID);
+                  else
+                     _availability.invalidate(hotelID, bookingDate);
+               } else if (kind == ChangeFeed.ROOMS && hotelID != null) {
+                  _catalog.invalidate(hotelID);
+               } else {
+                  reloadCatalog();
+               }
+            }
+            public void resync() {
+               _availability.clear();
+               reloadCatalog();
+            }
+         });
+         System.out.println("Change feed: " + this._changes.start(url, user, passwd));
+         System.out.println("Catalog: " + this._catalog.load());
+         System.out.println("Audit log: " + this._audit.start());
+
+         loadHotelGrid();
+      }catch (Exception e){
+         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
+         System.out.println("Make sure you started postgres on this machine");
+         System.exit(-1);
+      }//end catch
+   }//end Hotel
+
+   /**
+    * Creates a Hotel without a database, running the menu operations 1 to
+    * 10, login and new users on the given store.  The other operations
+    * fail with a SQLException telling they need the database.
+    */
+   public Hotel(HotelStore store) {
+      this._store = store;
+      System.out.println("Store: " + store.describe());
+   }//end Hotel
+
+   // Method to calculate euclidean distance between two latitude, longitude pairs 
+   public double calculateDistance (double lat1, double long1, double lat2, double long2){
+      double t1 = (lat1 - lat2) * (lat1 - lat2);
+      double t2 = (long1 - long2) * (long1 - long2);
+      return Math.sqrt(t1 + t2); 
+   }
+
+   /**
+    * Builds the in-memory spatial index from the catalog.  If this fails
+    * the radius search falls back to the hotels_within() SQL function.
+    */
+   public void loadHotelGrid() {
+      try{
+         HotelGrid grid = new HotelGrid(HOTEL_SEARCH_RADIUS);
+         for (int i = 0; i < this._catalog.hotelCount(); ++i)
+            grid.put(this._catalog.hotelID(i), this._catalog.hotelName(i),
+                     this._catalog.latitude(i), this._catalog.longitude(i));
+         this._hotelGrid = grid;
+      }catch (Exception e){
+         System.err.println("Unable to build hotel index: " + e.getMessage());
+         this._hotelGrid = null;
+      }
+   }//end loadHotelGrid
+
+   /**
+    * Reads the hotels and rooms again after another process changed them,
+    * with the spatial index and the principals, whose managed hotels may
+    * have changed too.
+    */
+   private void reloadCatalog() {
+      try{
+         this._catalog.reload();
+         loadHotelGrid();
+      }catch (SQLException e){
+         System.err.println("Unable to reload the catalog: " + e.getMessage());
+      }
+      this._principals.invalidateAll();
+   }//end reloadCatalog
+
+   /**
+    * Adds or moves a hotel in the spatial index without reloading it.
+    */
+   public void refreshHotel(int hotelID, String hotelName, double latitude, double longitude) {
+      if (this._hotelGrid != null)
+         this._hotelGrid.put(hotelID, hotelName, latitude, longitude);
+   }
+
+   /**
+    * Returns the names of the hotels within radius of the given point.
+    * Uses the in-memory grid when available, otherwise lets the database
+    * filter with its location index through hotels_within().
+    */
+   public List<String> hotelsWithin(double latitude, double longitude, double radius) throws SQLException {
+      if (this._hotelGrid != null)
+         return this._hotelGrid.within(latitude, longitude, radius);
+      return query("SELECT hotelName FROM hotels_within(?, ?, ?)", new RowMapper<String>() {
+         public String map(ResultSet rs) throws SQLException {
+            return trimmed(rs.getString(1));
+         }
+      }, latitude, longitude, radius);
+   }//end hotelsWithin
+
+   public UserDao users() {
+      return this._users;
+   }
+
+   public RoomDao rooms() {
+      return this._rooms;
+   }
+
+   public BookingDao bookings() {
+      return this._bookings;
+   }
+
+   public RepairDao repairs() {
+      return this._repairs;
+   }
+
+   public HotelStore store() {
+      return this._store;
+   }
+
+   public PrincipalCache principals() {
+      return this._principals;
+   }
+
+   public AvailabilityCache availability() {
+      return this._availability;
+   }
+
+   public Catalog catalog() {
+      return this._catalog;
+   }
+
+   public AuditLog audit() {
+      return this._audit;
+   }
+
+   public QueryMetrics metrics() {
+      return this._metrics;
+   }
+
+   public ChangeFeed changes() {
+      return this._changes;
+   }
+
+   public synchronized BookingSnapshot analytics() {
+      if (this._analytics == null)
+         this._analytics = new BookingSnapshot(this);
+      return this._analytics;
+   }
+
+   public synchronized RepairDispatcher dispatcher() throws IOException {
+      if (this._dispatcher == null)
+         this._dispatcher = RepairDispatcher.create(this);
+      return this._dispatcher;
+   }
+
+   /**
+    * Borrows a connection from the pool.  The caller must release() it,
+    * normally in a finally block.
+    *
+    * @throws java.sql.SQLException when no connection could be obtained,
+    *         or there is no database
+    */
+   public PooledConnection getConnection() throws SQLException {
+      if (this._pool == null)
+         throw new SQLException("This operation needs the database, the store is " + this._store.describe());
+      return this._pool.borrow();
+   }
+
+   /**
+    * @return a one line summary of the connection pool metrics
+    */
+   public String poolMetrics() {
+      return this._pool == null ? "no connection pool" : this._pool.metrics();
+   }
+
+   /**
+    * Binds positional parameters to a prepared statement.  Integers,
+    * strings, dates and timestamps are bound with their typed setters so
+    * the SQL text never changes between calls.
+    */
+   static void bind(PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object p = params[i];
+         if (p == null)
+            stmt.setNull(i + 1, Types.NULL);
+         else if (p instanceof Integer)
+            stmt.setInt(i + 1, (Integer) p);
+         else if (p instanceof Long)
+            stmt.setLong(i + 1, (Long) p);
+         else if (p instanceof Double)
+            stmt.setDouble(i + 1, (Double) p);
+         else if (p instanceof String)
+            stmt.setString(i + 1, (String) p);
+         else if (p instanceof Date)
+            stmt.setDate(i + 1, (Date) p);
+         else if (p instanceof Timestamp)
+            stmt.setTimestamp(i + 1, (Timestamp) p);
+         else
+            stmt.setObject(i + 1, p);
+      }
+   }//end bind
+
+   /**
+    * Runs a parameterized query and maps every row with the given mapper.
+    *
+    * @param sql the query text with ? placeholders
+    * @param mapper turns each row into an object
+    * @param params values for the placeholders, in order
+    * @return the mapped rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> List<T> query(String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      List<T> result = new ArrayList<T>();
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         PreparedStatement stmt = conn.prepare(sql);
+         bind(stmt, params);
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next())
+            result.add(mapper.map(rs));
+         rs.close();
+         return result;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(sql, start, result.size(), failure);
+      }
+   }//end query
+
+   /**
+    * Runs a parameterized query and maps its first row only.
+    *
+    * @return the mapped first row, or null when the query returned nothing
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> T queryFirst(String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      T result = null;
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         PreparedStatement stmt = conn.prepare(sql);
+         bind(stmt, params);
+         ResultSet rs = stmt.executeQuery();
+         result = rs.next() ? mapper.map(rs) : null;
+         rs.close();
+         return result;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(sql, start, result == null ? 0 : 1, failure);
+      }
+   }//end queryFirst
+
+   // the first column as an int: a count, an ID, or the key returned by an INSERT ... RETURNING
+   static final RowMapper<Integer> INT = new RowMapper<Integer>() {
+      public Integer map(ResultSet rs) throws SQLException {
+         return rs.getInt(1);
+      }
+   };
+
+   // rows fetched per round trip by stream()
+   static final int FETCH_SIZE = Integer.getInteger("hotel.fetchSize", 1000);
+
+   /**
+    * Runs a parameterized query through a server-side cursor and hands
+    * every row to the visitor as it arrives.  At most FETCH_SIZE rows are
+    * held in memory at a time, whatever the size of the result.  An
+    * explicit DECLARE/FETCH is used because the bundled driver does not
+    * implement Statement.setFetchSize.
+    *
+    * @return the number of rows visited
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> long stream(String sql, RowMapper<T> mapper, RowVisitor<T> visitor, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      long rowCount = 0;
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         // cursors only live inside a transaction
+         conn.getConnection().setAutoCommit(false);
+         rowCount = stream(conn, sql, mapper, visitor, params);
+         conn.getConnection().commit();
+         return rowCount;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         // release() rolls back and restores autocommit if we bailed out early
+         if (conn != null)
+            conn.release();
+         // the time includes the visitor, as the user waits for it too
+         this._metrics.record(sql, start, rowCount, failure);
+      }
+   }//end stream
+
+   /**
+    * Streams a query like stream() on a connection whose transaction the
+    * caller runs, e.g. to read several tables from one snapshot.
+    *
+    * @return the number of rows visited
+    */
+   static <T> long stream(PooledConnection conn, String sql, RowMapper<T> mapper, RowVisitor<T> visitor, Object... params)
+      throws SQLException {
+      PreparedStatement declare = conn.prepare("DECLARE hotel_stream NO SCROLL CURSOR FOR " + sql);
+      bind(declare, params);
+      declare.executeUpdate();
+
+      PreparedStatement fetch = conn.prepare("FETCH FORWARD " + FETCH_SIZE + " FROM hotel_stream");
+      long rowCount = 0;
+      int fetched;
+      do {
+         fetched = 0;
+         ResultSet rs = fetch.executeQuery();
+         while (rs.next()) {
+            visitor.visit(mapper.map(rs));
+            ++fetched;
+         }
+         rs.close();
+         rowCount += fetched;
+      } while (fetched == FETCH_SIZE);
+
+      conn.prepare("CLOSE hotel_stream").executeUpdate();
+      return rowCount;
+   }//end stream
+
+   /**
+    * Runs a parameterized INSERT, UPDATE or DELETE.
+    *
+    * @return the number of rows changed
+    * @throws java.sql.SQLException when update failed
+    */
+   public int update(String sql, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         PreparedStatement stmt = conn.prepare(sql);
+         bind(stmt, params);
+         rowCount = stmt.executeUpdate();
+         return rowCount;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(sql, start, rowCount, failure);
+      }
+   }//end update
+
+   /**
+    * @return true for serialization failures and deadlocks, which succeed
+    *         when the statement is simply run again
+    */
+   static boolean isRetryable(SQLException e) {
+      String state = e.getSQLState();
+      if ("40001".equals(state) || "40P01".equals(state))
+         return true;
+      // the bundled driver sets no SQLState, only the server's (English) message
+      String message = e.getMessage();
+      return message != null
+             && (message.indexOf("could not serialize access") >= 0 || message.indexOf("deadlock detected") >= 0);
+   }
+
+   /**
+    * Sleeps a short, growing and randomized time before a retry.
+    */
+   static void backoff(int attempt) {
+      try{
+         Thread.sleep((long) (Math.random() * 10 * (1 << Math.min(attempt, 6))));
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * @return the number of days between 1970-01-01 and the date, taken in
+    *         the local time zone the date was parsed in
+    */
+   static int epochDay(Date date) {
+      Calendar c = Calendar.getInstance();
+      c.setTime(date);
+      long local = c.getTimeInMillis() + c.get(Calendar.ZONE_OFFSET) + c.get(Calendar.DST_OFFSET);
+      return (int) Math.floor(local / 86400000.0);
+   }
+
+   /**
+    * Removes the blank padding PostgreSQL adds to char(n) columns.
+    */
+   static String trimmed(String value) {
+      return value == null ? null : value.trim();
+   }
+
+   /**
+    * Method to execute an update SQL statement.  Update SQL instructions
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    *
+    * @param sql the input SQL string
+    * @throws java.sql.SQLException when update failed
+    */
+   public void executeUpdate (String sql) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         // issues the update instruction on a cached statement
+         rowCount = conn.prepare(sql).executeUpdate ();
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(sql, start, rowCount, failure);
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and outputs the results to
+    * standard out.
+    *
+    * @param query the input query string
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         // issues the query instruction
+         ResultSet rs = conn.prepare(query).executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and output them to standard out.
+         boolean outputHeader = true;
+         while (rs.next()){
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+                  System.out.print(rsmd.getColumnName(i) + "\t");
+               }
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i)
+               System.out.print (rs.getString (i) + "\t");
+            System.out.println ();
+            ++rowCount;
+         }//end while
+         rs.close ();
+         return rowCount;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(query, start, rowCount, failure);
+      }
+   }//end executeQuery
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results as
+    * a list of records. Each record in turn is a list of attribute values
+    *
+    * @param query the input query string
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+      long start = System.nanoTime();
+      List<List<String>> result  = new ArrayList<List<String>>();
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         // issues the query instruction
+         ResultSet rs = conn.prepare(query).executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         while (rs.next()){
+            List<String> record = new ArrayList<String>(numCol);
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }//end while
+         rs.close ();
+         return result;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(query, start, result.size(), failure);
+      }
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the number of results
+    *
+    * @param query the input query string
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         // issues the query instruction
+         ResultSet rs = conn.prepare(query).executeQuery ();
+
+         // iterates through the result set and count nuber of results.
+         while (rs.next()){
+            rowCount++;
+         }//end while
+         rs.close ();
+         return rowCount;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(query, start, rowCount, failure);
+      }
+   }
+
+   /**
+    * Method to fetch the last value from sequence. This
+    * method issues the query to the DBMS and returns the current
+    * value of sequence used for autogenerated keys.  currval() is per
+    * session, so this only sees nextval() calls made on the connection
+    * the pool happens to hand out.
+    *
+    * @param sequence name of the DB sequence
+    * @return current value of a sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    * @deprecated another session may have used the sequence meanwhile;
+    *             have the INSERT return its key with RETURNING instead
+    */
+   @Deprecated
+   public int getCurrSeqVal(String sequence) throws SQLException {
+      return getNewUserID(String.format("Select currval('%s')", sequence));
+   }
+
+   /**
+    * @deprecated reading a sequence after an insert can return another
+    *             session's key; have the INSERT return it with RETURNING
+    */
+   @Deprecated
+   public int getNewUserID(String sql) throws SQLException {
+      long start = System.nanoTime();
+      int id = -1;
+      SQLException failure = null;
+      PooledConnection conn = null;
+      try{
+         conn = getConnection();
+         ResultSet rs = conn.prepare(sql).executeQuery ();
+         if (rs.next())
+            id = rs.getInt(1);
+         rs.close ();
+         return id;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (conn != null)
+            conn.release();
+         this._metrics.record(sql, start, id == -1 ? 0 : 1, failure);
+      }
+   }
+
+   /**
+    * Method to close the pooled connections.
+    */
+   public void cleanup(){
+      this._changes.close();
+      // the log entries still queued need the pool
+      this._audit.close(10000);
+      synchronized (this) {
+         if (this._dispatcher != null)
+            this._dispatcher.close();
+      }
+      this._metrics.close();
+      if (this._store != null)
+         this._store.close();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
+   }//end cleanup
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+    */
+  
+   public static void main (String[] args) {
+      boolean memory = args.length > 0 && args[0].equals("--memory");
+      if (memory ? args.length != 2 && args.length != 3 : args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Hotel.class.getName () +
+            " <dbname> <port> <user> | --memory <storeDir> [dataDir]");
+         return;
+      }//end if
+
+      Session console = new Session(in, System.out, System.err);
+      Greeting(console);
+      Hotel esql = null;
+      try{
+         if (memory) {
+            // no database: the store is filled from the CSV files of dataDir on first use
+            esql = new Hotel (MemoryStore.open(new File(args[1]), args.length > 2 ? new File(args[2]) : null));
+         } else {
+            // use postgres JDBC driver.
+            Class.forName ("org.postgresql.Driver").newInstance ();
+            // instantiate the Hotel object and creates a physical
+            // connection.
+            String dbname = args[0];
+            String dbport = args[1];
+            String user = args[2];
+            esql = new Hotel (dbname, dbport, user, "");
+         }
+
+         runSession(esql, console);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+   // names the statements of each user menu option are recorded under
+   static final String[] USER_OPERATIONS = {
+      "other", "viewHotels", "viewRooms", "bookRooms", "viewRecentBookingsfromCustomer", "updateRoomInfo",
+      "viewRecentUpdates", "viewBookingHistoryofHotel", "viewRegularCustomers", "placeRoomRepairRequests",
+      "viewRoomRepairHistory", "bookRoomNights", "repriceRooms",
+      "viewAvailabilityCalendar", "dispatchRoomRepairs", "completeRoomRepair",
+      "viewOccupancyReport",
+   };
+
+   /**
+    * Runs the interactive menus for one user until they exit or their
+    * input ends.  Used by the console and by every HotelServer session.
+    *
+    * @param esql the shared database access object
+    * @param session the user's input, output and login state
+    */
+   public static void runSession(Hotel esql, Session session) {
+      try{
+         boolean keepon = true;
+         while(keepon) {
+            // These are sample SQL statements
+            session.out.println("MAIN MENU");
+            session.out.println("---------");
+            session.out.println("1. Create user");
+            session.out.println("2. Log in");
+            session.out.println("9. < EXIT");
+            session.principal = null;
+            int choice = readChoice(session);
+            QueryMetrics.setOperation(choice == 1 ? "CreateUser" : choice == 2 ? "LogIn" : "other");
+            switch (choice){
+               case 1: CreateUser(esql, session); break;
+               case 2: session.principal = LogIn(esql, session); break;
+               case 9: keepon = false; break;
+               default : session.out.println("Unrecognized choice!"); break;
+            }//end switch
+            if (session.principal != null) {
+              boolean usermenu = true;
+              while(usermenu) {
+                session.out.println("MAIN MENU");
+                session.out.println("---------");
+                session.out.println("1. View Hotels within 30 units");
+                session.out.println("2. View Rooms");
+                session.out.println("3. Book a Room");
+                session.out.println("4. View recent booking history");
+
+                //the following functionalities basically used by managers
+                session.out.println("5. Update Room Information");
+                session.out.println("6. View 5 recent Room Updates Info");
+                session.out.println("7. View booking history of the hotel");
+                session.out.println("8. View 5 regular Customers");
+                session.out.println("9. Place room repair Requests to companies");
+                session.out.println("10. View room repair Requests history of a hotel");
+                session.out.println("11. Book a Room for several nights");
+                session.out.println("12. Reprice rooms in bulk");
+                session.out.println("13. View availability calendar of a hotel");
+                session.out.println("14. Dispatch requested repairs to the companies");
+                session.out.println("15. Mark a room repair completed");
+                session.out.println("16. View occupancy and revenue report");
+
+                session.out.println(".........................");
+                session.out.println("20. Log out");
+                int option = readChoice(session);
+                QueryMetrics.setOperation(option >= 1 && option < USER_OPERATIONS.length ? USER_OPERATIONS[option] : "other");
+                switch (option){
+                   case 1: viewHotels(esql, session); break;
+                   case 2: viewRooms(esql, session); break;
+                   case 3: bookRooms(esql, session); break;
+                   case 4: viewRecentBookingsfromCustomer(esql, session); break;
+                   case 5: updateRoomInfo(esql, session); break;
+                   case 6: viewRecentUpdates(esql, session); break;
+                   case 7: viewBookingHistoryofHotel(esql, session); break;
+                   case 8: viewRegularCustomers(esql, session); break;
+                   case 9: placeRoomRepairRequests(esql, session); break;
+                   case 10: viewRoomRepairHistory(esql, session); break;
+                   case 11: bookRoomNights(esql, session); break;
+                   case 12: repriceRooms(esql, session); break;
+                   case 13: viewAvailabilityCalendar(esql, session); break;
+                   case 14: dispatchRoomRepairs(esql, session); break;
+                   case 15: completeRoomRepair(esql, session); break;
+                   case 16: viewOccupancyReport(esql, session); break;
+                   case 20: usermenu = false; break;
+                   default : session.out.println("Unrecognized choice!"); break;
+                }
+              }
+            }
+         }//end while
+      }catch(Session.ClosedException e) {
+         // the user went away, nothing left to do
+      }
+   }//end runSession
+
+   public static void Greeting(Session session){
+      session.out.println(
+         "\n\n*******************************************************\n" +
+         "              User Interface      	               \n" +
+         "*******************************************************\n");
+   }//end Greeting
+
+   /*
+    * Reads the users choice given from the keyboard
+    * @int
+    **/
+   public static int readChoice(Session session) {
+      int input;
+      // returns only if a correct value is given.
+      do {
+         session.out.print("Please make your choice: ");
+         try { // read the integer, parse it and break.
+            input = Integer.parseInt(session.readLine());
+            break;
+         }
+         catch (Session.ClosedException e) {
+            throw e;
+         }
+         catch (Exception e) {
+            session.out.println("Your input is invalid!");
+            continue;
+         }//end try
+      }  
+      while (true);
+      return input;
+   }//end readChoice
+
+   /*
+    * Creates a new user
+    **/
+   public static void CreateUser(Hotel esql, Session session){
+      try{
+         session.out.print("\tEnter name: ");
+         String name = session.readLine();
+         session.out.print("\tEnter password: ");
+         String password = session.readLine(); 
+         String type="Customer";
+         int userID = esql.store().createUser(name, password, type);
+         session.out.println ("User successfully created with userID = " + userID);
+         
+      }
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }//end CreateUser
+
+
+   /*
+    * Check log in credentials for an existing user
+    * @return User login or null is the user does not exist
+    **/
+   public static Principal LogIn(Hotel esql, Session session){
+      try{
+         session.out.print("\tEnter userID: ");
+         String userID = session.readLine();
+         session.out.print("\tEnter password: ");
+         String password = session.readLine();
+
+         return esql.principals().logIn(Integer.parseInt(userID.trim()), password);
+      }
+      catch(NumberFormatException e){
+         session.err.println ("\tInvalid userID, must be a integer!");
+         return null;
+      }
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+         return null;
+      }
+   }//end
+
+   public static boolean isManagerForHotel(Hotel esql, Session session, int hotelID){
+      boolean isManager = false;
+      try{
+         Principal principal = esql.principals().get(session.userID());
+         isManager = principal != null && principal.manages(hotelID);
+      }
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+         isManager = false;
+      }
+      return isManager;
+   }
+
+   public static boolean isManagerForHotel(Hotel esql, Session session){
+      boolean isManager = false;
+      try{
+         Principal principal = esql.principals().get(session.userID());
+         isManager = principal != null && principal.isManager();
+      }
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+         isManager = false;
+      }
+      return isManager;
+   }
+
+   /**
+    * Asks whether to show the next page of a history.
+    */
+   public static boolean nextPage(Session session) throws IOException {
+      session.out.print("\tEnter 'n' for the next page, anything else to go back: ");
+      return session.readLine().trim().equals("n");
+   }
+
+   public static Integer inputInteger(Session session, String inputType){
+      while(true){
+         try{
+            session.out.print("\t" + inputType + ": ");
+            int hotelID = Integer.parseInt(session.readLine());
+            return hotelID;
+         }
+         catch(Session.ClosedException e){
+            throw e;
+         }
+         catch(Exception e){
+            session.err.println ("\tInvalid " + inputType + " input, must be a integer!");
+         }
+      }
+   }
+
+   // date formats accepted from the keyboard, the first one matches the data files
+   private static final String[] DATE_FORMATS = { "M/d/yyyy", "yyyy-M-d", "M-d-yyyy", "M,d,yyyy" };
+
+   /*
+    * Parses a date typed by the user
+    * @return the date, or null if it matches none of DATE_FORMATS
+    **/
+   public static Date parseDate(String text){
+      if (text == null)
+         return null;
+      for (String format : DATE_FORMATS) {
+         SimpleDateFormat parser = new SimpleDateFormat(format);
+         parser.setLenient(false);
+         ParsePosition pos = new ParsePosition(0);
+         java.util.Date parsed = parser.parse(text.trim(), pos);
+         if (parsed != null && pos.getIndex() == text.trim().length())
+            return new Date(parsed.getTime());
+      }
+      return null;
+   }
+
+   public static Date inputDate(Session session, String inputType){
+      while(true){
+         try{
+            session.out.print("\t" + inputType + ": ");
+            Date date = parseDate(session.readLine());
+            if (date != null)
+               return date;
+         }
+         catch(Session.ClosedException e){
+            throw e;
+         }
+         catch(Exception e){
+            // fall through to the error below
+         }
+         session.err.println ("\tInvalid " + inputType + " input, must be a date like 5/12/2015!");
+      }
+   }
+
+// Rest of the functions definition go in here
+   public static void viewHotels(Hotel esql, Session session) {
+      try{
+         session.out.print("\tLongitude: ");
+         Double user_longitude = Double.parseDouble(session.readLine());
+         session.out.print("\tLatitude: ");
+         Double user_latitude = Double.parseDouble(session.readLine());
+         List<String> results = esql.store().hotelsWithin(user_latitude, user_longitude, HOTEL_SEARCH_RADIUS);
+         session.out.print("Hotels near you... \n");
+         for(String hotelName : results){
+            session.out.print(hotelName + "\n");
+         }
+         session.out.print("\n");
+      }
+      catch(Exception e){
+         session.err.println(e.getMessage());
+      }
+   }
+
+   public static void viewRooms(Hotel esql, Session session) {
+  	   try{
+         Integer HotelID = inputInteger(session, "Enter Hotel ID");
+         Date date = inputDate(session, "Enter Date");
+         List<Room> results = esql.store().availableRooms(HotelID, date);
+         for(Room room : results){
+            session.out.println("The room " + room.roomNumber + " is available for " + room.price + " bells, image url: " + room.imageURL);
+         }
+         if(results.size()==0){
+            session.out.println("Sorry there are no rooms at the hotel currently available for that booking date");
+         }
+         session.out.print("\n");
+      } 
+      catch(Exception e){
+         session.err.println(e.getMessage());
+      }
+   }
+   public static void viewAvailabilityCalendar(Hotel esql, Session session) {
+      try{
+         Integer hotelID = inputInteger(session, "Enter Hotel ID");
+         Date firstDay = inputDate(session, "Enter Date of the first day");
+         Integer days = inputInteger(session, "Enter Number of days (at most 366)");
+         if(days < 1 || days > 366){
+            session.out.println("The calendar covers 1 to 366 days");
+            return;
+         }
+         AvailabilityCalendar calendar = esql.rooms().calendar(hotelID, firstDay, days);
+         if(calendar.roomCount() == 0){
+            session.out.println("The hotel has no rooms");
+            return;
+         }
+         // one line per room, '.' free and 'X' booked, a column group per week
+         SimpleDateFormat format = new SimpleDateFormat("MM/dd");
+         StringBuilder header = new StringBuilder("room\t");
+         for(int day = 0; day < days; day += 7){
+            String week = format.format(calendar.date(day));
+            header.append(week);
+            for(int i = week.length(); i < 8 && day + 7 < days; i++)
+               header.append(' ');
+         }
+         session.out.println(header);
+         for(int room = 0; room < calendar.roomCount(); room++){
+            session.out.println(calendar.roomNumber(room) + "\t" + calendar.row(room));
+         }
+         session.out.print("\n");
+      }
+      catch(Exception e){
+         session.err.println(e.getMessage());
+      }
+   }
+   public static void viewOccupancyReport(Hotel esql, Session session) {
+      try{
+         Principal principal = esql.principals().get(session.userID());
+         if(principal == null || !principal.isManager()){
+            session.out.println("You are not a manager for any hotels!");
+            return;
+         }
+         session.out.print("\tGroup by (h)otel, (m)onth or (r)oom: ");
+         String group = session.readLine().trim();
+         int groupBy = group.startsWith("m") ? BookingSnapshot.BY_MONTH
+                     : group.startsWith("r") ? BookingSnapshot.BY_ROOM : BookingSnapshot.BY_HOTEL;
+         List<Integer> hotels = new ArrayList<Integer>(new TreeSet<Integer>(principal.getManagedHotels()));
+         if(groupBy != BookingSnapshot.BY_HOTEL){
+            Integer hotelID = inputInteger(session, "Enter Hotel ID");
+            if(!principal.manages(hotelID)){
+               session.out.println("You are not a manager for this hotel!");
+               return;
+            }
+            hotels = Collections.singletonList(hotelID);
+         }
+         Date first = inputDate(session, "Please enter the starting date of your range (M/D/YYYY)");
+         Date last = inputDate(session, "Please enter the ending date of your range (M/D/YYYY)");
+         // the bookings made since the last report, or every booking the first time
+         esql.analytics().refresh();
+         List<OccupancyRow> report = esql.analytics().report(groupBy, hotels, first, last);
+         session.out.println("\tnights\trevenue\toccupancy");
+         long nights = 0, revenue = 0;
+         for(OccupancyRow row : report){
+            session.out.println(String.format(Locale.ROOT, "%s\t%d\t%d\t%.1f%%", row.label, row.nights, row.revenue,
+                                              100 * row.occupancy()));
+            nights += row.nights;
+            revenue += row.revenue;
+         }
+         session.out.println("total\t" + nights + "\t" + revenue + "\n");
+      }
+      catch(Exception e){
+         session.err.println(e.getMessage());
+      }
+   }
+   public static void bookRooms(Hotel esql, Session session) {
+      try{
+         Integer hotelID = inputInteger(session, "Enter Hotel ID");
+         Integer roomNumber = inputInteger(session, "Enter Room Number");
+         Date bookingDate = inputDate(session, "Enter Date");
+         Booking booking = esql.store().book(session.userID(), hotelID, roomNumber, bookingDate);
+         if(booking != null){
+            session.out.println("The room " + roomNumber + " has been booked (bookingID " + booking.bookingID + ") and you've been charged " + booking.price + " bells");
+
+         }
+         else{
+            session.out.println("Sorry that room is currently unavailable for that booking date");
+         }
+      }
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }
+   public static void bookRoomNights(Hotel esql, Session session) {
+      try{
+         Integer hotelID = inputInteger(session, "Enter Hotel ID");
+         Integer roomNumber = inputInteger(session, "Enter Room Number");
+         Date firstNight = inputDate(session, "Enter Date of the first night");
+         Integer nights = inputInteger(session, "Enter Number of nights (at most 366)");
+         if(nights < 1 || nights > 366){
+            session.out.println("A booking covers 1 to 366 nights");
+            return;
+         }
+         List<BookingRequest> requests = new ArrayList<BookingRequest>();
+         Calendar day = Calendar.getInstance();
+         day.setTime(firstNight);
+         for(int i = 0; i < nights; i++){
+            requests.add(new BookingRequest(hotelID, roomNumber, new Date(day.getTimeInMillis())));
+            day.add(Calendar.DATE, 1);
+         }
+         List<Booking> booked = esql.bookings().bookAll(session.userID(), requests);
+         int total = 0;
+         for(Booking booking : booked){
+            total += booking.price;
+         }
+         session.out.println("The room " + roomNumber + " has been booked for " + booked.size() + " nights and you've been charged " + total + " bells");
+      }
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }
+   public static void viewRecentBookingsfromCustomer(Hotel esql, Session session) {
+   try{
+      BookingPage page = esql.store().customerPage(session.userID(), null, PAGE_SIZE);
+      if(page.bookings.size() == 0) {
+         session.out.println("Sorry you have no current booking history");
+      }
+      while(true){
+         for(Booking booking : page.bookings){
+            session.out.println("The hotelID is " + booking.hotelID);
+            session.out.println("The roomNumber is " + booking.roomNumber);
+            session.out.println("The price is " + booking.price);
+            session.out.println("The date is " + booking.bookingDate + "\n");
+         }
+         if(!page.hasMore || !nextPage(session))
+            break;
+         page = esql.store().customerPage(session.userID(), page.last(), PAGE_SIZE);
+      }
+   }
+   catch(Exception e){
+         session.err.println (e.getMessage ());
+   }
+   }
+   public static void updateRoomInfo(Hotel esql, Session session) {
+      try{
+         Integer hotelID = inputInteger(session, "Enter Hotel ID");
+         Integer roomNumber = inputInteger(session, "Enter Room Number");
+         int managerID = session.userID();
+         if(isManagerForHotel(esql, session, hotelID)){
+            session.out.print("\tWould you like to update the 'price' or the 'image url', enter something besides the options to exit: ");
+            String updateOption = session.readLine();
+            if(updateOption.equals("price")){
+               Integer newPrice = inputInteger(session, "Enter New Room Price");
+               if (esql.store().changePrice(managerID, hotelID, roomNumber, newPrice) > 0)
+                  session.out.println("\tUpdated price");
+               else
+                  session.out.println("\tThe hotel has no room " + roomNumber);
+            }
+            else if(updateOption.equals("image url")){
+               session.out.print("\tNew image url for room: ");
+               String newImageUrl = session.readLine();
+               if (esql.store().changeImageURL(managerID, hotelID, roomNumber, newImageUrl) > 0)
+                  session.out.println("\tUpdated Image Url");
+               else
+                  session.out.println("\tThe hotel has no room " + roomNumber);
+            }
+            else{
+               session.out.print("\tyour input: " + updateOption + " ?");
+            }
+         } else{
+            session.out.println("You are not a manager for that hotel so you may not update any room information!");
+         }
+
+      } catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }
+   public static void repriceRooms(Hotel esql, Session session) {
+      try{
+         if(!isManagerForHotel(esql, session)){
+            session.out.println("You are not a manager for any hotels!");
+            return;
+         }
+         session.out.println("\tEnter rules such as '17 1-50 +8%', '17 * -5%' or '17 3 =120', or prices as");
+         session.out.println("\thotelID,roomNumber,price (CSV rows can be pasted), one per line; an empty line applies them");
+         List<RepriceRule> rules = new ArrayList<RepriceRule>();
+         List<PriceChange> prices = new ArrayList<PriceChange>();
+         List<Integer> hotels = new ArrayList<Integer>();
+         String line;
+         while((line = session.readLine().trim()).length() > 0){
+            if(line.indexOf(',') >= 0){
+               PriceChange change = PriceChange.parse(line);
+               prices.add(change);
+               hotels.add(change.hotelID);
+            }
+            else{
+               RepriceRule rule = RepriceRule.parse(line);
+               rules.add(rule);
+               hotels.add(rule.hotelID);
+            }
+         }
+         for(int hotelID : hotels){
+            if(!isManagerForHotel(esql, session, hotelID)){
+               session.out.println("You are not a manager for hotel " + hotelID + ", nothing was repriced");
+               return;
+            }
+         }
+         int repriced = 0;
+         if(!rules.isEmpty())
+            repriced += esql.rooms().reprice(session.userID(), rules);
+         if(!prices.isEmpty())
+            repriced += esql.rooms().setPrices(session.userID(), prices);
+         session.out.println("\tRepriced " + repriced + " rooms");
+      } catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }
+   public static void viewRecentUpdates(Hotel esql, Session session) {
+      try{
+         if(isManagerForHotel(esql, session)){
+               List<RoomUpdate> updates = esql.store().recentUpdates(session.userID(), 5);
+               if(updates.size() > 0){
+                  session.out.println("hotelid\troomnumber\t");
+               }
+               for(RoomUpdate update : updates){
+                  session.out.println(update.hotelID + "\t" + update.roomNumber + "\t");
+               }
+            } else{
+               session.out.println("You are not a manager for any hotels!");
+            }
+      } catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }
+   public static void viewBookingHistoryofHotel(Hotel esql, Session session) {
+      try{
+         if(isManagerForHotel(esql, session)) {
+            Integer hotelID = inputInteger(session, "Enter Hotel ID");
+            if(!isManagerForHotel(esql, session, hotelID)){
+               session.out.println("You are not a manager for this hotel!");
+               return;
+            }
+            Date date1 = inputDate(session, "Please enter the starting date of your range (M/D/YYYY)");
+            Date date2 = inputDate(session, "Please enter the ending date of your range (M/D/YYYY)");
+            BookingPage page = esql.store().hotelPage(hotelID, date1, date2, null, PAGE_SIZE);
+            if(page.bookings.size() == 0){
+               session.out.println("No bookings between those time spans :'(");
+            }
+            while(true){
+               for(Booking booking : page.bookings){
+                  session.out.println("The bookingID is " + booking.bookingID);
+                  session.out.println("The customer name is " + booking.customerName);
+                  session.out.println("The hotelID is " + booking.hotelID);
+                  session.out.println("The roomNumber is " + booking.roomNumber);
+                  session.out.println("The date is " + booking.bookingDate + "\n");
+               }
+               if(!page.hasMore || !nextPage(session))
+                  break;
+               page = esql.store().hotelPage(hotelID, date1, date2, page.last(), PAGE_SIZE);
+            }
+         }
+         else{
+               session.out.println("You are not a manager for any hotels!");
+            }
+      }
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }
+   public static void viewRegularCustomers(Hotel esql, Session session) {
+      // Regular customer: This option is for the managers. If chosen, the
+      // system will ask for entering a hotelID. If the manager is managing
+      // that hotel, then the top 5 customers who made the most bookings
+      // in that hotel will be shown.
+      try{
+         if(isManagerForHotel(esql, session)) {
+            Integer hotelID = inputInteger(session, "Enter Hotel ID");
+            if(isManagerForHotel(esql, session, hotelID)) {
+               List<CustomerCount> results = esql.store().regularCustomers(hotelID, 5);
+               session.out.println("\nThe top 5 customers who made the most bookings:\n");
+               for(CustomerCount customer : results) {
+                  session.out.println(customer.customerID + "\t" + customer.name + "\t" + customer.bookings);
+               }
+               session.out.println("\n");
+            }
+            else{
+               session.out.println("You are not a manager for this hotel!");
+            }
+         }
+         else{
+               session.out.println("You are not a manager for any hotels!");
+         }
+      } 
+      catch(Exception e){
+         session.err.println (e.getMessage ());
+      }
+   }
+   public static void placeRoomRepairRequests(Hotel esql, Session session) {
+      try{
+         if(!isManagerForHotel(esql, session)){
+            session.out.println("You are not a manager for any hotels so you may not order a repair request!");
+            return;
+         }
+         session.out.println("\tEnter one 'hotelID roomNumber companyID' line per room to repair, an empty line places them");
+         List<RepairRequest> requests = new ArrayList<RepairRequest>();
+         String line;
+         while((line = session.readLine().trim()).length() > 0){
+            String[] f = line.split("[\\s,]+");
+            try{
+               if(f.length != 3)
+                  throw new NumberFormatException();
+               requests.add(new RepairRequest(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2])));
+            }catch(NumberFormatException e){
+               session.out.println("\tNot 'hotelID roomNumber companyID', skipped: " + line);
+            }
+         }
+         for(RepairRequest request : requests){
+            if(!isManagerForHotel(esql, session, request.hotelID)){
+               session.out.println("You are not a manager for hotel " + request.hotelID + ", no repair was ordered");
+               return;
+            }
+         }
+         Map<Integer, List<Integer>> placed = esql.store().placeRequests(session.userID(), requests);
+         for(Map.Entry<Integer, List<Integer>> company : placed.entrySet()){
+            List<Integer> ids = company.getValue();
+            session.out.println("Company " + company.getKey() + ": " + ids.size() + " repair orders placed, repairIDs "
+                                + (ids.size() == 1 ? ids.get(0) : ids.get(0) + " to " + ids.get(ids.size() - 1)) + ".");
+         }
+      }
+      catch(Exception e){
+         session.err.println(e.getMessage ());
+      }
+   }
+   public static void viewRoomRepairHistory(Hotel esql, Session session) {
+      try{
+         if(isManagerForHotel(esql, session)){
+            Integer hotelID = inputInteger(session, "Enter Hotel ID");
+            if(!isManagerForHotel(esql, session, hotelID)){
+               session.out.println("You are not a manager for this hotel!");
+               return;
+            }
+            session.out.print("\tEnter Company ID, or nothing for every company: ");
+            String company = session.readLine().trim();
+            Integer companyID = company.length() == 0 ? null : Integer.valueOf(company);
+            session.out.println("Room Repair Request History of hotel " + hotelID);
+            RepairPage page = esql.store().historyPage(hotelID, companyID, null, PAGE_SIZE);
+            if(page.repairs.size() > 0){
+               session.out.println("repairid\tcompanyid\troomnumber\trepairdate\tstatus\t");
+            }
+            while(true){
+               for(RoomRepair repair : page.repairs){
+                  session.out.println(repair.repairID + "\t" + repair.companyID + "\t" + repair.roomNumber + "\t"
+                                      + repair.repairDate + "\t" + repair.status + "\t");
+               }
+               if(!page.hasMore || !nextPage(session))
+                  break;
+               page = esql.store().historyPage(hotelID, companyID, page.last(), PAGE_SIZE);
+            }
+         }
+         else{
+            session.out.println("You are not a manager for any hotels");
+         }
+      } catch(Exception e){
+         session.err.println(e.getMessage ());
+      }
+   }
+   public static void dispatchRoomRepairs(Hotel esql, Session session) {
+      try{
+         Principal principal = esql.principals().get(session.userID());
+         if(principal != null && principal.isManager()){
+            session.out.println(esql.dispatcher().dispatch(principal.getManagedHotels()));
+         }
+         else{
+            session.out.println("You are not a manager for any hotels");
+         }
+      } catch(Exception e){
+         session.err.println(e.getMessage ());
+      }
+   }
+   public static void completeRoomRepair(Hotel esql, Session session) {
+      try{
+         Integer hotelID = inputInteger(session, "Enter Hotel ID");
+         if(!isManagerForHotel(esql, session, hotelID)){
+            session.out.println("You are not a manager for this hotel!");
+            return;
+         }
+         Integer repairID = inputInteger(session, "Enter Repair ID");
+         if(esql.repairs().complete(hotelID, repairID)){
+            session.out.println("Repair " + repairID + " is completed.");
+         }
+         else{
+            session.out.println("Hotel " + hotelID + " has no dispatched repair " + repairID + ".");
+         }
+      } catch(Exception e){
+         session.err.println(e.getMessage ());
+      }
+   }
+
+}//end Hotel
@@ -0,0 +1,657 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark driver for the query path behind every menu option.  Each
+ * operation calls the same DAO methods as the menu, with parameters drawn
+ * from the loaded data by a seeded Random, so two runs over the same data
+ * set issue the same requests.  After a warm up the driver prints the
+ * mean, p50 and p99 latency and the throughput of each operation, and can
+ * append them to a CSV file tagged with a label (e.g. SF1, SF10) so runs
+ * at different scale factors or from different commits can be compared.
+ *
+ * Writes go to dates far in the future and everything the benchmark
+ * inserted is deleted again at the end.
+ *
+ */
+public class HotelBench {
+
+   private final Hotel esql;
+   private final Random random;
+
+   // parameters sampled from the database
+   private final List<Room> rooms;
+   private final List<Integer> managers;
+   private final List<Integer> customers;
+   private final Date firstDate;
+   private final int days;
+
+   // first date used by the write operations, and how far they got
+   private static final Date FUTURE = Date.valueOf("2100-01-01");
+   private int futureDay = 0;
+
+   /**
+    * One menu operation; run() returns the number of rows it produced.
+    */
+   private abstract class Operation {
+      final String name;
+
+      Operation(String name) {
+         this.name = name;
+      }
+
+      abstract long run() throws SQLException;
+   }//end Operation
+
+   public HotelBench(Hotel esql, long seed) throws SQLException {
+      this.esql = esql;
+      this.random = new Random(seed);
+      this.rooms = esql.query("SELECT hotelID, roomNumber, price, imageURL FROM Rooms ORDER BY hotelID, roomNumber",
+                              new RowMapper<Room>() {
+                                 public Room map(ResultSet rs) throws SQLException {
+                                    return new Room(rs.getInt(1), rs.getInt(2), rs.getInt(3), Hotel.trimmed(rs.getString(4)));
+                                 }
+                              });
+      this.managers = esql.query("SELECT DISTINCT managerUserID FROM Hotel ORDER BY managerUserID", Hotel.INT);
+      this.customers = esql.query("SELECT customerID FROM RoomBookings ORDER BY bookingID LIMIT 1000", Hotel.INT);
+      List<Date[]> range = esql.query("SELECT MIN(bookingDate), MAX(bookingDate) FROM RoomBookings", new RowMapper<Date[]>() {
+         public Date[] map(ResultSet rs) throws SQLException {
+            return new Date[] { rs.getDate(1), rs.getDate(2) };
+         }
+      });
+      if (rooms.isEmpty() || managers.isEmpty() || customers.isEmpty())
+         throw new SQLException("the database holds no rooms, managers or bookings to benchmark with");
+      this.firstDate = range.get(0)[0];
+      this.days = Math.max(1, Hotel.epochDay(range.get(0)[1]) - Hotel.epochDay(firstDate) + 1);
+   }//end HotelBench
+
+   static Date plusDays(Date date, int days) {
+      GregorianCalendar c = new GregorianCalendar();
+      c.setTime(date);
+      c.add(Calendar.DATE, days);
+      return new Date(c.getTimeInMillis());
+   }
+
+   private <T> T pick(List<T> list) {
+      return list.get(random.nextInt(list.size()));
+   }
+
+   private Date anyDate() {
+      return plusDays(firstDate, random.nextInt(days));
+   }
+
+   private List<Operation> operations() {
+      List<Operation> ops = new ArrayList<Operation>();
+      ops.add(new Operation("LogIn") {
+         long run() throws SQLException {
+            return esql.users().loadPrincipal(pick(managers), null) == null ? 0 : 1;
+         }
+      });
+      ops.add(new Operation("viewHotels") {
+         long run() throws SQLException {
+            return esql.hotelsWithin(random.nextDouble() * 160 - 80, random.nextDouble() * 340 - 170,
+                                     Hotel.HOTEL_SEARCH_RADIUS).size();
+         }
+      });
+      ops.add(new Operation("viewHotels/sql") {
+         long run() throws SQLException {
+            // the database side search, used when the grid could not be built
+            return esql.query("SELECT hotelID FROM hotels_within(?, ?, ?)", Hotel.INT, random.nextDouble() * 160 - 80,
+                              random.nextDouble() * 340 - 170, Hotel.HOTEL_SEARCH_RADIUS).size();
+         }
+      });
+      ops.add(new Operation("viewHotels/scan") {
+         long run() throws SQLException {
+            // the original menu: every hotel is read and the distance computed on the client
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 340 - 170;
+            long near = 0;
+            for (List<String> row : esql.executeQueryAndReturnResult("SELECT hotelName, latitude, longitude FROM Hotel"))
+               if (esql.calculateDistance(latitude, longitude, Double.parseDouble(row.get(1)),
+                                          Double.parseDouble(row.get(2))) < Hotel.HOTEL_SEARCH_RADIUS)
+                  ++near;
+            return near;
+         }
+      });
+      ops.add(new Operation("viewRooms") {
+         long run() throws SQLException {
+            return esql.rooms().availableRooms(pick(rooms).hotelID, anyDate()).size();
+         }
+      });
+      ops.add(new Operation("viewRooms/uncached") {
+         long run() throws SQLException {
+            int hotelID = pick(rooms).hotelID;
+            Date date = anyDate();
+            esql.availability().invalidate(hotelID, date);
+            return esql.rooms().availableRooms(hotelID, date).size();
+         }
+      });
+      ops.add(new Operation("viewRooms/concatenated") {
+         long run() throws SQLException {
+            // the original menu: the values are pasted into the text, so the server parses and plans every request
+            int hotelID = pick(rooms).hotelID;
+            String query = String.format("SELECT R.roomNumber, R.price, R.imageURL FROM Rooms R WHERE R.hotelID = %d"
+                                         + " AND roomNumber NOT IN (SELECT roomNumber FROM RoomBookings RB"
+                                         + " WHERE RB.hotelID = %d AND bookingDate = '%s')", hotelID, hotelID, anyDate());
+            PooledConnection conn = esql.getConnection();
+            try{
+               Statement stmt = conn.getConnection().createStatement();
+               try{
+                  ResultSet rs = stmt.executeQuery(query);
+                  long available = 0;
+                  while (rs.next()) {
+                     rs.getString(3);
+                     ++available;
+                  }
+                  rs.close();
+                  return available;
+               }finally{
+                  stmt.close();
+               }
+            }finally{
+               conn.release();
+            }
+         }
+      });
+      ops.add(new Operation("viewAvailabilityCalendar/90days") {
+         long run() throws SQLException {
+            AvailabilityCalendar calendar = esql.rooms().calendar(pick(rooms).hotelID, anyDate(), 90);
+            long free = 0;
+            for (int day = 0; day < calendar.days; ++day)
+               free += calendar.freeRooms(day);
+            return free;
+         }
+      });
+      ops.add(new Operation("viewRooms/90days") {
+         long run() throws SQLException {
+            // the same answer as the calendar above, one uncached viewRooms per date
+            int hotelID = pick(rooms).hotelID;
+            Date first = anyDate();
+            long free = 0;
+            for (int day = 0; day < 90; ++day) {
+               Date date = plusDays(first, day);
+               esql.availability().invalidate(hotelID, date);
+               free += esql.rooms().availableRooms(hotelID, date).size();
+            }
+            return free;
+         }
+      });
+      ops.add(new Operation("bookRooms") {
+         long run() throws SQLException {
+            Room room = pick(rooms);
+            return esql.bookings().book(pick(customers), room.hotelID, room.roomNumber, plusDays(FUTURE, futureDay++)) == null ? 0 : 1;
+         }
+      });
+      ops.add(new Operation("bookRoomNights") {
+         long run() throws SQLException {
+            Room room = pick(rooms);
+            List<BookingRequest> nights = new ArrayList<BookingRequest>();
+            for (int i = 0; i < 7; ++i)
+               nights.add(new BookingRequest(room.hotelID, room.roomNumber, plusDays(FUTURE, futureDay++)));
+            return esql.bookings().bookAll(pick(customers), nights).size();
+         }
+      });
+      ops.add(new Operation("viewRecentBookingsfromCustomer") {
+         long run() throws SQLException {
+            return esql.bookings().recentForCustomer(pick(customers), 5).size();
+         }
+      });
+      ops.add(new Operation("updateRoomInfo") {
+         long run() throws SQLException {
+            // writes back the price the room already has
+            Room room = pick(rooms);
+            return esql.rooms().changePrice(pick(managers), room.hotelID, room.roomNumber, room.price);
+         }
+      });
+      ops.add(new Operation("viewRecentUpdates") {
+         long run() throws SQLException {
+            return esql.rooms().recentUpdates(pick(managers), 5).size();
+         }
+      });
+      ops.add(new Operation("viewBookingHistoryofHotel") {
+         long run() throws SQLException {
+            Date from = anyDate();
+            return esql.bookings().hotelPage(pick(rooms).hotelID, from, plusDays(from, 30), null,
+                                             Hotel.PAGE_SIZE).bookings.size();
+         }
+      });
+      ops.add(new Operation("viewBookingHistoryofHotel/year") {
+         long run() throws SQLException {
+            Date from = anyDate();
+            return esql.bookings().hotelPage(pick(rooms).hotelID, from, plusDays(from, 365), null,
+                                             Hotel.PAGE_SIZE).bookings.size();
+         }
+      });
+      ops.add(new Operation("viewRegularCustomers") {
+         long run() throws SQLException {
+            return esql.bookings().regularCustomers(pick(rooms).hotelID, 5).size();
+         }
+      });
+      ops.add(new Operation("placeRoomRepairRequests") {
+         long run() throws SQLException {
+            Room room = pick(rooms);
+            esql.repairs().placeRequest(pick(managers), 1, room.hotelID, room.roomNumber);
+            return 1;
+         }
+      });
+      ops.add(new Operation("placeRoomRepairRequests/sweep") {
+         long run() throws SQLException {
+            // an inspection sweep: 50 rooms spread over 10 companies, one transaction
+            List<RepairRequest> requests = new ArrayList<RepairRequest>();
+            for (int i = 0; i < 50; ++i) {
+               Room room = pick(rooms);
+               requests.add(new RepairRequest(room.hotelID, room.roomNumber, 1 + i % 10));
+            }
+            long placed = 0;
+            for (List<Integer> ids : esql.repairs().placeRequests(pick(managers), requests).values())
+               placed += ids.size();
+            return placed;
+         }
+      });
+      ops.add(new Operation("viewRoomRepairHistory") {
+         long run() throws SQLException {
+            return esql.repairs().historyPage(pick(rooms).hotelID, null, null, Hotel.PAGE_SIZE).repairs.size();
+         }
+      });
+      ops.add(new Operation("viewRoomRepairHistory/company") {
+         long run() throws SQLException {
+            return esql.repairs().historyPage(pick(rooms).hotelID, 1, null, Hotel.PAGE_SIZE).repairs.size();
+         }
+      });
+      ops.add(new Operation("dispatchRoomRepairs") {
+         long run() throws SQLException {
+            // to the in-process stub companies unless -Dhotel.repairs.endpoint is set
+            try{
+               esql.dispatcher().dispatch(Collections.singleton(pick(rooms).hotelID));
+            }catch (IOException e){
+               throw new SQLException(e.getMessage());
+            }
+            return 1;
+         }
+      });
+      return ops;
+   }//end operations
+
+   private static double percentile(long[] sorted, double p) {
+      return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+   }
+
+   /**
+    * Runs every operation and prints one line of results per operation.
+    *
+    * @param iterations timed calls per operation, after iterations / 10
+    *        warm up calls
+    * @param csv file the results are appended to, or null
+    */
+   public void run(int iterations, String label, File csv) throws Exception {
+      PrintWriter report = null;
+      if (csv != null) {
+         boolean fresh = !csv.exists();
+         report = new PrintWriter(new FileWriter(csv, true));
+         if (fresh)
+            report.println("label,operation,iterations,mean_ms,p50_ms,p99_ms,ops_per_s,rows_per_op");
+      }
+      System.out.println(String.format(Locale.ROOT, "%-32s %8s %9s %9s %9s %10s %9s",
+                                       "operation", "calls", "mean ms", "p50 ms", "p99 ms", "ops/s", "rows/op"));
+      for (Operation op : operations()) {
+         QueryMetrics.setOperation(op.name);
+         for (int i = 0; i < iterations / 10; ++i)
+            op.run();
+         long[] latencies = new long[iterations];
+         long rows = 0;
+         long total = 0;
+         for (int i = 0; i < iterations; ++i) {
+            long start = System.nanoTime();
+            rows += op.run();
+            latencies[i] = System.nanoTime() - start;
+            total += latencies[i];
+         }
+         print(report, label, op.name, latencies, total, rows);
+      }
+      reprice(report, label, Math.min(rooms.size(), 5000));
+      paging(report, label);
+      analytics(report, label, Math.max(1, iterations / 100));
+      if (report != null)
+         report.close();
+      System.out.println();
+      System.out.print(esql.metrics().summary());
+      System.out.println(String.format(Locale.ROOT, "query metrics overhead: %.1f ns per statement%s",
+                                       metricsOverhead(), QueryMetrics.ENABLED ? "" : " (disabled)"));
+      System.out.println(esql.availability().metrics());
+      System.out.println(esql.audit().metrics());
+      System.out.println(esql.analytics().metrics());
+      System.out.println(esql.changes().metrics());
+      System.out.println(esql.poolMetrics());
+   }//end run
+
+   static void print(PrintWriter report, String label, String name, long[] latencies, long total, long rows) {
+      int calls = latencies.length;
+      Arrays.sort(latencies);
+      double mean = total / 1e6 / calls;
+      double opsPerSecond = calls / (total / 1e9);
+      double rowsPerOp = (double) rows / calls;
+      System.out.println(String.format(Locale.ROOT, "%-32s %8d %9.3f %9.3f %9.3f %10.1f %9.1f", name, calls,
+                                       mean, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                                       opsPerSecond, rowsPerOp));
+      if (report != null)
+         report.println(String.format(Locale.ROOT, "%s,%s,%d,%.4f,%.4f,%.4f,%.1f,%.2f", label, name, calls,
+                                      mean, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                                      opsPerSecond, rowsPerOp));
+   }//end print
+
+   /*
+    * A bulk price change over the first rooms, once per way of logging it:
+    * update then log in two statements, both in one statement, and the
+    * write-behind queue.  The total time of the last includes waiting for
+    * the queue to drain, the latencies only the enqueueing.  Then every
+    * room is repriced with one bulk call, from a price list and from
+    * rules.  Every room keeps its price.
+    */
+   private void reprice(PrintWriter report, String label, int count) throws Exception {
+      AuditLog audit = esql.audit();
+      boolean configured = audit.inTransaction();
+      int manager = managers.get(0);
+      try{
+         for (String mode : new String[] { "sync", "transaction", "async" }) {
+            String name = "bulkReprice/" + mode;
+            QueryMetrics.setOperation(name);
+            audit.setInTransaction(mode.equals("transaction"));
+            long[] latencies = new long[count];
+            long rows = 0;
+            long begin = System.nanoTime();
+            for (int i = 0; i < count; ++i) {
+               Room room = rooms.get(i);
+               long start = System.nanoTime();
+               if (mode.equals("sync")) {
+                  rows += esql.rooms().updatePrice(room.hotelID, room.roomNumber, room.price);
+                  esql.rooms().logUpdate(manager, room.hotelID, room.roomNumber);
+               } else {
+                  rows += esql.rooms().changePrice(manager, room.hotelID, room.roomNumber, room.price);
+               }
+               latencies[i] = System.nanoTime() - start;
+            }
+            if (!audit.flush(60000))
+               throw new SQLException("the audit log did not drain within a minute");
+            print(report, label, name, latencies, System.nanoTime() - begin, rows);
+         }
+      }finally{
+         audit.setInTransaction(configured);
+      }
+
+      // every room at once, as a price list and as one +0% rule per hotel
+      List<PriceChange> prices = new ArrayList<PriceChange>();
+      List<RepriceRule> rules = new ArrayList<RepriceRule>();
+      for (Room room : rooms) {
+         prices.add(new PriceChange(room.hotelID, room.roomNumber, room.price));
+         if (rules.isEmpty() || rules.get(rules.size() - 1).hotelID != room.hotelID)
+            rules.add(new RepriceRule(room.hotelID, 0, Integer.MAX_VALUE, 1.0, 0, null));
+      }
+      QueryMetrics.setOperation("bulkReprice/setPrices");
+      long start = System.nanoTime();
+      long rows = esql.rooms().setPrices(manager, prices);
+      long elapsed = System.nanoTime() - start;
+      print(report, label, "bulkReprice/setPrices", new long[] { elapsed }, elapsed, rows);
+      QueryMetrics.setOperation("bulkReprice/rules");
+      start = System.nanoTime();
+      rows = esql.rooms().reprice(manager, rules);
+      elapsed = System.nanoTime() - start;
+      print(report, label, "bulkReprice/rules", new long[] { elapsed }, elapsed, rows);
+   }//end reprice
+
+   /**
+    * Reads the pages of one booking history; the offset variant reads the
+    * same page with LIMIT/OFFSET for comparison.
+    */
+   private abstract class Pager {
+      final String name;
+
+      Pager(String name) {
+         this.name = name;
+      }
+
+      abstract BookingPage next(Booking after) throws SQLException;
+
+      abstract int offsetPage(int page) throws SQLException;
+   }//end Pager
+
+   /*
+    * Walks the history of the busiest customer and of the busiest hotel
+    * page by page, up to 2000 pages, and reports the keyset page latency
+    * per range of page depths, next to an OFFSET read of the first page
+    * of each range.  Keyset pages should cost the same at every depth.
+    */
+   private void paging(PrintWriter report, String label) throws SQLException {
+      final int size = Hotel.PAGE_SIZE;
+      final int customer = esql.queryFirst("SELECT customerID FROM CustomerBookingCounts GROUP BY customerID"
+                                           + " ORDER BY SUM(bookings) DESC LIMIT 1", Hotel.INT);
+      final int hotel = esql.queryFirst("SELECT hotelID FROM CustomerBookingCounts GROUP BY hotelID"
+                                        + " ORDER BY SUM(bookings) DESC LIMIT 1", Hotel.INT);
+      final Date last = plusDays(firstDate, days);
+      Pager[] pagers = {
+         new Pager("customerHistory") {
+            BookingPage next(Booking after) throws SQLException {
+               return esql.bookings().customerPage(customer, after, size);
+            }
+
+            int offsetPage(int page) throws SQLException {
+               return esql.query("SELECT RB.bookingID FROM RoomBookings RB, Rooms R WHERE RB.customerID = ?"
+                                 + " AND RB.hotelID = R.hotelID AND RB.roomNumber = R.roomNumber"
+                                 + " ORDER BY RB.bookingDate DESC, RB.bookingID DESC LIMIT ? OFFSET ?",
+                                 Hotel.INT, customer, size, page * size).size();
+            }
+         },
+         new Pager("hotelHistory") {
+            BookingPage next(Booking after) throws SQLException {
+               return esql.bookings().hotelPage(hotel, firstDate, last, after, size);
+            }
+
+            int offsetPage(int page) throws SQLException {
+               return esql.query("SELECT RB.bookingID FROM RoomBookings RB, Users U WHERE RB.hotelID = ?"
+                                 + " AND RB.bookingDate >= ? AND RB.bookingDate <= ? AND RB.customerID = U.userID"
+                                 + " ORDER BY RB.bookingDate, RB.bookingID LIMIT ? OFFSET ?",
+                                 Hotel.INT, hotel, firstDate, last, size, page * size).size();
+            }
+         },
+      };
+      int[] depths = { 1, 10, 100, 1000, 2000 };
+      for (Pager pager : pagers) {
+         QueryMetrics.setOperation(pager.name);
+         Booking after = null;
+         int page = 0;
+         for (int d = 0; d + 1 < depths.length; ++d) {
+            List<Long> latencies = new ArrayList<Long>();
+            long rows = 0;
+            long total = 0;
+            boolean more = true;
+            for (; page < depths[d + 1] - 1 && more; ++page) {
+               long start = System.nanoTime();
+               BookingPage p = pager.next(after);
+               long elapsed = System.nanoTime() - start;
+               latencies.add(elapsed);
+               total += elapsed;
+               rows += p.bookings.size();
+               after = p.last();
+               more = p.hasMore;
+            }
+            if (latencies.isEmpty())
+               break;
+            long[] sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; ++i)
+               sorted[i] = latencies.get(i);
+            print(report, label, pager.name + "/keyset/pages" + depths[d] + "-" + page, sorted, total, rows);
+
+            // the first page of the range again, with OFFSET, a few times
+            long[] offset = new long[5];
+            long offsetTotal = 0;
+            long offsetRows = 0;
+            for (int i = 0; i < offset.length; ++i) {
+               long start = System.nanoTime();
+               offsetRows += pager.offsetPage(depths[d] - 1);
+               offset[i] = System.nanoTime() - start;
+               offsetTotal += offset[i];
+            }
+            print(report, label, pager.name + "/offset/page" + depths[d], offset, offsetTotal, offsetRows);
+            if (!more)
+               break;
+         }
+      }
+   }//end paging
+
+   /*
+    * The occupancy reports from the booking snapshot next to the same
+    * aggregates run on the live tables, over the whole booking range:
+    * every hotel, the busiest hotel by month and by room.  Loading the
+    * snapshot and an empty refresh are timed too.  At scale factor 1000
+    * (bench.sh 1000 1000) this is 100 million bookings; give the JVM a
+    * heap of 2 GB or more.
+    */
+   private void analytics(PrintWriter report, String label, int iterations) throws SQLException {
+      final BookingSnapshot snapshot = esql.analytics();
+      QueryMetrics.setOperation("viewOccupancyReport");
+      long start = System.nanoTime();
+      long loaded = snapshot.load();
+      long elapsed = System.nanoTime() - start;
+      print(report, label, "occupancy/load", new long[] { elapsed }, elapsed, loaded);
+
+      final List<Integer> all = new ArrayList<Integer>();
+      for (int i = 0; i < esql.catalog().hotelCount(); ++i)
+         all.add(esql.catalog().hotelID(i));
+      final int hotel = esql.queryFirst("SELECT hotelID FROM CustomerBookingCounts GROUP BY hotelID"
+                                        + " ORDER BY SUM(bookings) DESC LIMIT 1", Hotel.INT);
+      final Date last = plusDays(firstDate, days);
+      List<Operation> ops = new ArrayList<Operation>();
+      ops.add(new Operation("occupancy/refresh") {
+         long run() throws SQLException {
+            return snapshot.refresh();
+         }
+      });
+      ops.add(new Operation("occupancy/byHotel/snapshot") {
+         long run() throws SQLException {
+            return snapshot.report(BookingSnapshot.BY_HOTEL, all, firstDate, last).size();
+         }
+      });
+      ops.add(new Operation("occupancy/byHotel/sql") {
+         long run() throws SQLException {
+            return esql.query("SELECT RB.hotelID, COUNT(*), SUM(R.price) FROM RoomBookings RB, Rooms R"
+                              + " WHERE RB.bookingDate >= ? AND RB.bookingDate <= ?"
+                              + " AND R.hotelID = RB.hotelID AND R.roomNumber = RB.roomNumber GROUP BY RB.hotelID",
+                              Hotel.INT, firstDate, last).size();
+         }
+      });
+      ops.add(new Operation("occupancy/byMonth/snapshot") {
+         long run() throws SQLException {
+            return snapshot.report(BookingSnapshot.BY_MONTH, Collections.singletonList(hotel), firstDate, last).size();
+         }
+      });
+      ops.add(new Operation("occupancy/byMonth/sql") {
+         long run() throws SQLException {
+            return esql.query("SELECT date_trunc('month', RB.bookingDate), COUNT(*), SUM(R.price) FROM RoomBookings RB, Rooms R"
+                              + " WHERE RB.hotelID = ? AND RB.bookingDate >= ? AND RB.bookingDate <= ?"
+                              + " AND R.hotelID = RB.hotelID AND R.roomNumber = RB.roomNumber GROUP BY 1",
+                              Hotel.INT, hotel, firstDate, last).size();
+         }
+      });
+      ops.add(new Operation("occupancy/byRoom/snapshot") {
+         long run() throws SQLException {
+            return snapshot.report(BookingSnapshot.BY_ROOM, Collections.singletonList(hotel), firstDate, last).size();
+         }
+      });
+      ops.add(new Operation("occupancy/byRoom/sql") {
+         long run() throws SQLException {
+            return esql.query("SELECT RB.roomNumber, COUNT(*), SUM(R.price) FROM RoomBookings RB, Rooms R"
+                              + " WHERE RB.hotelID = ? AND RB.bookingDate >= ? AND RB.bookingDate <= ?"
+                              + " AND R.hotelID = RB.hotelID AND R.roomNumber = RB.roomNumber GROUP BY 1",
+                              Hotel.INT, hotel, firstDate, last).size();
+         }
+      });
+      for (Operation op : ops) {
+         op.run();
+         long[] latencies = new long[iterations];
+         long rows = 0;
+         long total = 0;
+         for (int i = 0; i < iterations; ++i) {
+            long t = System.nanoTime();
+            rows += op.run();
+            latencies[i] = System.nanoTime() - t;
+            total += latencies[i];
+         }
+         print(report, label, op.name, latencies, total, rows);
+      }
+   }//end analytics
+
+   /*
+    * Time QueryMetrics.record() adds to every statement, measured on a
+    * private instance that never logs.
+    */
+   private static double metricsOverhead() {
+      QueryMetrics metrics = new QueryMetrics(Long.MAX_VALUE / 1000000L, "/dev/null");
+      int calls = 5000000;
+      for (int i = 0; i < calls; ++i)
+         metrics.record("SELECT 1", System.nanoTime(), 1, null);
+      long start = System.nanoTime();
+      for (int i = 0; i < calls; ++i)
+         metrics.record("SELECT 1", System.nanoTime(), 1, null);
+      // both nanoTime() calls are part of the cost
+      return (System.nanoTime() - start) / (double) calls;
+   }
+
+   /**
+    * Deletes what the write operations inserted.
+    */
+   public void cleanup(int maxBookingID, int maxUpdateNumber, int maxRepairID) throws SQLException {
+      esql.update("DELETE FROM RoomBookings WHERE bookingID > ? AND bookingDate >= ?", maxBookingID, FUTURE);
+      esql.update("DELETE FROM RoomUpdatesLog WHERE updateNumber > ?", maxUpdateNumber);
+      esql.update("DELETE FROM RoomRepairRequests WHERE repairID > ?", maxRepairID);
+      esql.update("DELETE FROM RoomRepairs WHERE repairID > ?", maxRepairID);
+      esql.availability().clear();
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotelBench.class.getName () +
+            " <dbname> <port> <user> [iterations] [label] [csv file]");
+         return;
+      }//end if
+      Hotel esql = null;
+      try{
+         Class.forName("org.postgresql.Driver").newInstance();
+         esql = new Hotel(args[0], args[1], args[2], "");
+         int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+         String label = args.length > 4 ? args[4] : args[0];
+         File csv = args.length > 5 ? new File(args[5]) : null;
+
+         int maxBookingID = esql.queryFirst("SELECT COALESCE(MAX(bookingID), 0) FROM RoomBookings", Hotel.INT);
+         int maxUpdateNumber = esql.queryFirst("SELECT COALESCE(MAX(updateNumber), 0) FROM RoomUpdatesLog", Hotel.INT);
+         int maxRepairID = esql.queryFirst("SELECT COALESCE(MAX(repairID), 0) FROM RoomRepairs", Hotel.INT);
+         HotelBench bench = new HotelBench(esql, 166L);
+         try{
+            bench.run(iterations, label, csv);
+         }finally{
+            bench.cleanup(maxBookingID, maxUpdateNumber, maxRepairID);
+         }
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end HotelBench
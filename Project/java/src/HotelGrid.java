@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory uniform grid over hotel coordinates. Every hotel is kept in the
+ * cell that contains its (latitude, longitude), so a radius query only has
+ * to look at the cells overlapping the search circle instead of every hotel.
+ *
+ */
+public class HotelGrid {
+
+   // side length of a square cell, in the same units as the coordinates
+   private final double cellSize;
+
+   // cell key -> hotels inside that cell
+   private final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+
+   // hotelID -> entry, used to move or drop a hotel incrementally
+   private final Map<Integer, Entry> hotels = new HashMap<Integer, Entry>();
+
+   private static class Entry {
+      final int hotelID;
+      final String hotelName;
+      final double latitude;
+      final double longitude;
+
+      Entry(int hotelID, String hotelName, double latitude, double longitude) {
+         this.hotelID = hotelID;
+         this.hotelName = hotelName;
+         this.latitude = latitude;
+         this.longitude = longitude;
+      }
+   }//end Entry
+
+   /**
+    * Creates an empty grid
+    *
+    * @param cellSize side of a cell; queries with a radius close to this
+    *                 value touch at most a 3x3 block of cells
+    */
+   public HotelGrid(double cellSize) {
+      if (cellSize <= 0)
+         throw new IllegalArgumentException("cellSize must be positive");
+      this.cellSize = cellSize;
+   }//end HotelGrid
+
+   private long cellOf(double latitude, double longitude) {
+      return key((int) Math.floor(latitude / cellSize), (int) Math.floor(longitude / cellSize));
+   }
+
+   private static long key(int cellLat, int cellLong) {
+      return ((long) cellLat << 32) | (cellLong & 0xffffffffL);
+   }
+
+   /**
+    * Adds a hotel to the grid, replacing any previous position of the
+    * same hotelID.
+    */
+   public synchronized void put(int hotelID, String hotelName, double latitude, double longitude) {
+      remove(hotelID);
+      Entry entry = new Entry(hotelID, hotelName, latitude, longitude);
+      long cell = cellOf(latitude, longitude);
+      List<Entry> bucket = cells.get(cell);
+      if (bucket == null) {
+         bucket = new ArrayList<Entry>();
+         cells.put(cell, bucket);
+      }
+      bucket.add(entry);
+      hotels.put(hotelID, entry);
+   }//end put
+
+   /**
+    * Drops a hotel from the grid
+    *
+    * @return true if the hotel was present
+    */
+   public synchronized boolean remove(int hotelID) {
+      Entry entry = hotels.remove(hotelID);
+      if (entry == null)
+         return false;
+      long cell = cellOf(entry.latitude, entry.longitude);
+      List<Entry> bucket = cells.get(cell);
+      bucket.remove(entry);
+      if (bucket.isEmpty())
+         cells.remove(cell);
+      return true;
+   }//end remove
+
+   public synchronized int size() {
+      return hotels.size();
+   }
+
+   /**
+    * Returns the names of the hotels strictly closer than radius to the
+    * given point, using the same euclidean distance as calculate_distance().
+    */
+   public synchronized List<String> within(double latitude, double longitude, double radius) {
+      List<String> result = new ArrayList<String>();
+      int minLat = (int) Math.floor((latitude - radius) / cellSize);
+      int maxLat = (int) Math.floor((latitude + radius) / cellSize);
+      int minLong = (int) Math.floor((longitude - radius) / cellSize);
+      int maxLong = (int) Math.floor((longitude + radius) / cellSize);
+      double radiusSq = radius * radius;
+      // a radius much larger than the cells would visit mostly empty keys,
+      // so just check every hotel instead
+      if ((long) (maxLat - minLat + 1) * (maxLong - minLong + 1) > cells.size()) {
+         for (Entry e : hotels.values()) {
+            double dLat = e.latitude - latitude;
+            double dLong = e.longitude - longitude;
+            if (dLat * dLat + dLong * dLong < radiusSq)
+               result.add(e.hotelName);
+         }
+         return result;
+      }
+      for (int i = minLat; i <= maxLat; ++i) {
+         for (int j = minLong; j <= maxLong; ++j) {
+            List<Entry> bucket = cells.get(key(i, j));
+            if (bucket == null)
+               continue;
+            for (Entry e : bucket) {
+               double dLat = e.latitude - latitude;
+               double dLong = e.longitude - longitude;
+               if (dLat * dLat + dLong * dLong < radiusSq)
+                  result.add(e.hotelName);
+            }
+         }
+      }
+      return result;
+   }//end within
+
+}//end HotelGrid
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Load generator for HotelServer.  Opens a growing number of concurrent
+ * sessions, logs each one in and replays a mix of read-only menu
+ * operations as fast as the server answers, then prints the p50/p99
+ * latency and the requests per second reached at each session count.
+ *
+ * A request is timed from sending its input lines until the server prints
+ * the next "Please make your choice: " prompt.
+ *
+ */
+public class HotelLoadGen {
+
+   private static final byte[] PROMPT = bytes("Please make your choice: ");
+   // asked by the paged histories, answered with a plain return to stay on the first page
+   private static final byte[] NEXT_PAGE = bytes("for the next page, anything else to go back: ");
+
+   private final String host;
+   private final int port;
+   private final String userID;
+   private final String password;
+   private final String[] workload;
+
+   public HotelLoadGen(String host, int port, String userID, String password, int hotelID, String date) {
+      this.host = host;
+      this.port = port;
+      this.userID = userID;
+      this.password = password;
+      // one entry per menu request, as typed by a user
+      this.workload = new String[] {
+         "1\n10\n10\n",                         // view hotels
+         "2\n" + hotelID + "\n" + date + "\n",  // view rooms
+         "4\n",                                 // recent bookings
+         "6\n",                                 // recent room updates
+         "8\n" + hotelID + "\n",                // regular customers
+         "10\n" + hotelID + "\n\n",            // repair history, every company
+      };
+   }
+
+   private static byte[] bytes(String s) {
+      try{
+         return s.getBytes("UTF-8");
+      }catch (IOException e){
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /*
+    * Reads server output until the main menu prompt shows up, declining
+    * any next page on the way.
+    */
+   private static void awaitPrompt(InputStream in, OutputStream out) throws IOException {
+      int matched = 0;
+      int paged = 0;
+      while (matched < PROMPT.length) {
+         int b = in.read();
+         if (b < 0)
+            throw new IOException("server closed the session");
+         if (b == PROMPT[matched])
+            ++matched;
+         else
+            matched = (b == PROMPT[0]) ? 1 : 0;
+         if (b == NEXT_PAGE[paged])
+            ++paged;
+         else
+            paged = (b == NEXT_PAGE[0]) ? 1 : 0;
+         if (paged == NEXT_PAGE.length) {
+            out.write(bytes("\n"));
+            out.flush();
+            paged = 0;
+         }
+      }
+   }
+
+   private class Client implements Runnable {
+      final long until;
+      final List<Long> latencies = new ArrayList<Long>();
+      Exception failure = null;
+
+      Client(long until) {
+         this.until = until;
+      }
+
+      public void run() {
+         Socket socket = null;
+         try{
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            awaitPrompt(in, out);
+            out.write(bytes("2\n" + userID + "\n" + password + "\n"));
+            out.flush();
+            awaitPrompt(in, out);
+            for (int i = 0; System.nanoTime() < until; ++i) {
+               long start = System.nanoTime();
+               out.write(bytes(workload[i % workload.length]));
+               out.flush();
+               awaitPrompt(in, out);
+               latencies.add(System.nanoTime() - start);
+            }
+            out.write(bytes("20\n9\n"));
+            out.flush();
+         }catch (Exception e){
+            failure = e;
+         }finally{
+            try{
+               if (socket != null)
+                  socket.close();
+            }catch (IOException e){
+               // ignored.
+            }
+         }
+      }
+   }//end Client
+
+   /**
+    * Runs the workload with the given number of sessions and prints one
+    * line of results.
+    */
+   public void runLevel(int sessions, int seconds) throws InterruptedException {
+      long until = System.nanoTime() + seconds * 1000000000L;
+      Client[] clients = new Client[sessions];
+      Thread[] threads = new Thread[sessions];
+      for (int i = 0; i < sessions; ++i) {
+         clients[i] = new Client(until);
+         threads[i] = new Thread(clients[i], "loadgen-" + i);
+         threads[i].start();
+      }
+      int failures = 0;
+      int total = 0;
+      for (int i = 0; i < sessions; ++i) {
+         threads[i].join();
+         if (clients[i].failure != null) {
+            ++failures;
+            System.err.println("session " + i + " failed: " + clients[i].failure.getMessage());
+         }
+         total += clients[i].latencies.size();
+      }
+      long[] all = new long[total];
+      int n = 0;
+      for (Client c : clients)
+         for (long l : c.latencies)
+            all[n++] = l;
+      Arrays.sort(all);
+      System.out.println(String.format("sessions=%4d requests=%8d rps=%9.1f p50=%8.3fms p99=%8.3fms failed=%d",
+                                       sessions, total, (double) total / seconds,
+                                       percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, failures));
+   }//end runLevel
+
+   private static long percentile(long[] sorted, double p) {
+      if (sorted.length == 0)
+         return 0;
+      return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotelLoadGen.class.getName () +
+            " <host> <port> <userID> <password> <hotelID> <date> [seconds per level] [max sessions]");
+         return;
+      }//end if
+      HotelLoadGen gen = new HotelLoadGen(args[0], Integer.parseInt(args[1]), args[2], args[3],
+                                          Integer.parseInt(args[4]), args[5]);
+      int seconds = args.length > 6 ? Integer.parseInt(args[6]) : 10;
+      int maxSessions = args.length > 7 ? Integer.parseInt(args[7]) : 64;
+      for (int sessions = 1; sessions <= maxSessions; sessions *= 2)
+         gen.runLevel(sessions, seconds);
+   }//end main
+
+}//end HotelLoadGen
@@ -0,0 +1,139 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the Hotel menus to many simultaneous users over TCP on localhost.
+ * Every client connection gets its own Session (input, output and login
+ * state) and runs on a bounded pool of worker threads, while all sessions
+ * share one Hotel object and therefore one connection pool.  Connect with
+ * any line based client, e.g. "nc localhost 9090".
+ *
+ */
+public class HotelServer {
+
+   private final Hotel esql;
+   private final ServerSocket serverSocket;
+   private final ThreadPoolExecutor workers;
+
+   /**
+    * @param esql the shared database access object
+    * @param port the TCP port to listen on, bound to the loopback address
+    * @param maxSessions the number of sessions served at the same time;
+    *        as many more may wait in the queue before clients are refused
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public HotelServer(Hotel esql, int port, int maxSessions) throws IOException {
+      this.esql = esql;
+      this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+      this.workers = new ThreadPoolExecutor(maxSessions, maxSessions, 60, TimeUnit.SECONDS,
+                                            new ArrayBlockingQueue<Runnable>(maxSessions));
+   }
+
+   /**
+    * Accepts clients until the server socket is closed.
+    */
+   public void serve() {
+      System.out.println("Listening on " + serverSocket.getLocalSocketAddress());
+      while (!serverSocket.isClosed()) {
+         final Socket client;
+         try{
+            client = serverSocket.accept();
+         }catch (IOException e){
+            if (!serverSocket.isClosed())
+               System.err.println("accept failed: " + e.getMessage());
+            continue;
+         }
+         try{
+            workers.execute(new Runnable() {
+               public void run() {
+                  handle(client);
+               }
+            });
+         }catch (RejectedExecutionException e){
+            try{
+               client.getOutputStream().write("Server busy, try again later\n".getBytes("UTF-8"));
+               client.close();
+            }catch (IOException ignored){
+               // the client is gone anyway
+            }
+         }
+      }
+   }//end serve
+
+   private void handle(Socket client) {
+      try{
+         client.setTcpNoDelay(true);
+         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+         PrintStream out = new PrintStream(new BufferedOutputStream(client.getOutputStream()), false, "UTF-8");
+         Session session = new Session(in, out, out);
+         Hotel.Greeting(session);
+         Hotel.runSession(esql, session);
+         out.println("Bye !");
+         out.flush();
+      }catch (Exception e){
+         System.err.println("session ended: " + e.getMessage());
+      }finally{
+         try{
+            client.close();
+         }catch (IOException e){
+            // ignored.
+         }
+      }
+   }//end handle
+
+   /**
+    * Stops accepting clients and waits for the running sessions to end.
+    */
+   public void shutdown() {
+      try{
+         serverSocket.close();
+      }catch (IOException e){
+         // ignored.
+      }
+      workers.shutdown();
+      try{
+         workers.awaitTermination(10, TimeUnit.SECONDS);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+   }//end shutdown
+
+   public static void main(String[] args) {
+      if (args.length < 4 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotelServer.class.getName () +
+            " <dbname> <port> <user> <listen port> [max sessions]");
+         return;
+      }//end if
+
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         final Hotel esql = new Hotel (args[0], args[1], args[2], "");
+         int maxSessions = args.length == 5 ? Integer.parseInt(args[4]) : 64;
+         final HotelServer server = new HotelServer(esql, Integer.parseInt(args[3]), maxSessions);
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+               server.shutdown();
+               esql.cleanup();
+            }
+         });
+         server.serve();
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+}//end HotelServer
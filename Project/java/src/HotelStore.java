@@ -0,0 +1,105 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The storage behind the menu operations a user reaches right after login
+ * (options 1 to 10) and behind creating users and logging in.  JdbcStore
+ * runs them against PostgreSQL through the DAOs, MemoryStore on in-memory
+ * tables of its own, so Hotel can run without a database server.
+ *
+ * Failures are reported as SQLExceptions by both, so the menus handle them
+ * the same way.
+ *
+ */
+public interface HotelStore {
+
+   /**
+    * @return the userID given to the new user
+    */
+   int createUser(String name, String password, String userType) throws SQLException;
+
+   /**
+    * @param password the password to check, or null to skip the check
+    * @return the user and the hotels they manage, or null if there is no
+    *         such user or the password does not match
+    */
+   Principal loadPrincipal(int userID, String password) throws SQLException;
+
+   /**
+    * @return the names of the hotels strictly closer than radius
+    */
+   List<String> hotelsWithin(double latitude, double longitude, double radius) throws SQLException;
+
+   /**
+    * @return the rooms of the hotel that have no booking on the date
+    */
+   List<Room> availableRooms(int hotelID, Date date) throws SQLException;
+
+   /**
+    * @return the booking with the charged price, or null if the room does
+    *         not exist or is already booked on that date
+    */
+   Booking book(int customerID, int hotelID, int roomNumber, Date date) throws SQLException;
+
+   /**
+    * @return one page of the customer's bookings with the room price,
+    *         newest first, after the given booking (null for the first)
+    */
+   BookingPage customerPage(int customerID, Booking after, int size) throws SQLException;
+
+   /**
+    * Changes the room's price and logs the change for the manager.
+    *
+    * @return the number of rooms changed, 0 if the room does not exist
+    */
+   int changePrice(int managerID, int hotelID, int roomNumber, int price) throws SQLException;
+
+   /**
+    * Changes the room's image URL and logs the change for the manager.
+    *
+    * @return the number of rooms changed, 0 if the room does not exist
+    */
+   int changeImageURL(int managerID, int hotelID, int roomNumber, String imageURL) throws SQLException;
+
+   /**
+    * @return the most recent room updates made by the manager, newest first
+    */
+   List<RoomUpdate> recentUpdates(int managerID, int limit) throws SQLException;
+
+   /**
+    * @return one page of the hotel's bookings between the two dates, both
+    *         included, with the customer names, oldest first, after the
+    *         given booking (null for the first)
+    */
+   BookingPage hotelPage(int hotelID, Date from, Date to, Booking after, int size) throws SQLException;
+
+   /**
+    * @return the customers with the most bookings in the hotel, ties
+    *         broken by customerID
+    */
+   List<CustomerCount> regularCustomers(int hotelID, int limit) throws SQLException;
+
+   /**
+    * Places the repair requests all or nothing, grouped per company.
+    *
+    * @return the new repairIDs per companyID
+    */
+   Map<Integer, List<Integer>> placeRequests(int managerID, List<RepairRequest> requests) throws SQLException;
+
+   /**
+    * @return one page of the hotel's repairs, newest first, for every
+    *         company or only the given one, below the given repairID (null
+    *         for the first)
+    */
+   RepairPage historyPage(int hotelID, Integer companyID, Integer before, int size) throws SQLException;
+
+   /**
+    * @return one line for the startup message
+    */
+   String describe();
+
+   void close();
+
+}//end HotelStore
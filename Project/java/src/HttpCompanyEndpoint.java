@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Posts a company's repairs to its HTTP endpoint, one
+ * "repairID,hotelID,roomNumber,repairDate" line per repair.  The URL is
+ * made from a pattern with a %d for the companyID, e.g.
+ * http://localhost:9200/companies/%d/repairs.
+ *
+ */
+public class HttpCompanyEndpoint implements CompanyEndpoint {
+
+   private final String urlPattern;
+   private final int timeoutMillis;
+
+   public HttpCompanyEndpoint(String urlPattern, int timeoutMillis) {
+      this.urlPattern = urlPattern;
+      this.timeoutMillis = timeoutMillis;
+   }
+
+   public void dispatch(int companyID, List<RoomRepair> repairs) throws IOException {
+      StringBuilder body = new StringBuilder();
+      for (RoomRepair r : repairs)
+         body.append(r.repairID).append(',').append(r.hotelID).append(',').append(r.roomNumber).append(',')
+             .append(r.repairDate).append('\n');
+      byte[] bytes = body.toString().getBytes("UTF-8");
+
+      HttpURLConnection http = (HttpURLConnection) new URL(String.format(Locale.ROOT, urlPattern, companyID)).openConnection();
+      boolean drained = false;
+      try{
+         http.setConnectTimeout(timeoutMillis);
+         http.setReadTimeout(timeoutMillis);
+         http.setRequestMethod("POST");
+         http.setDoOutput(true);
+         http.setFixedLengthStreamingMode(bytes.length);
+         http.setRequestProperty("Content-Type", "text/csv; charset=UTF-8");
+         OutputStream out = http.getOutputStream();
+         out.write(bytes);
+         out.close();
+         int status = http.getResponseCode();
+         if (status / 100 != 2)
+            throw new IOException("company " + companyID + " answered " + status + " " + http.getResponseMessage());
+         // read the answer to the end so the connection can be reused
+         InputStream in = http.getInputStream();
+         byte[] skip = new byte[512];
+         while (in.read(skip) >= 0)
+            ;
+         in.close();
+         drained = true;
+      }finally{
+         // disconnect() would close the kept-alive socket, only drop one left mid answer
+         if (!drained)
+            http.disconnect();
+      }
+   }//end dispatch
+
+}//end HttpCompanyEndpoint
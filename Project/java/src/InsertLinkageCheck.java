@@ -0,0 +1,165 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency check for the inserts that hand back a generated key.  Many
+ * threads create users and place repair requests as fast as they can, each
+ * remembering the ID the DAO returned and what it inserted under it.  The
+ * database is then read back: every returned ID must be unique, belong to
+ * the row its thread inserted, and every repair must have exactly one
+ * request from the right manager.  Rows inserted by the check are deleted
+ * afterwards.  Exits with status 1 when any link is wrong.
+ *
+ */
+public class InsertLinkageCheck {
+
+   private final Hotel esql;
+   private final List<int[]> rooms;
+   private final List<Integer> companies;
+
+   // what each thread inserted, by the ID it got back
+   private final Map<Integer, String> users = new ConcurrentHashMap<Integer, String>();
+   private final Map<Integer, String> repairs = new ConcurrentHashMap<Integer, String>();
+   private final AtomicInteger duplicates = new AtomicInteger();
+
+   public InsertLinkageCheck(Hotel esql) throws SQLException {
+      this.esql = esql;
+      // hotelID, roomNumber and the hotel's manager
+      this.rooms = esql.query("SELECT R.hotelID, R.roomNumber, H.managerUserID FROM Rooms R, Hotel H"
+                              + " WHERE H.hotelID = R.hotelID ORDER BY R.hotelID, R.roomNumber LIMIT 1000",
+                              new RowMapper<int[]>() {
+                                 public int[] map(ResultSet rs) throws SQLException {
+                                    return new int[] { rs.getInt(1), rs.getInt(2), rs.getInt(3) };
+                                 }
+                              });
+      this.companies = esql.query("SELECT companyID FROM MaintenanceCompany ORDER BY companyID", Hotel.INT);
+      if (rooms.isEmpty() || companies.isEmpty())
+         throw new SQLException("the database holds no rooms or maintenance companies to check with");
+   }
+
+   private static String repairKey(int managerID, int companyID, int hotelID, int roomNumber) {
+      return managerID + "/" + companyID + "/" + hotelID + "/" + roomNumber;
+   }
+
+   /**
+    * Runs the inserts and returns the number of inserts per second.
+    */
+   public double insert(int threads, final int perThread) throws Exception {
+      final List<Exception> failures = new ArrayList<Exception>();
+      Thread[] workers = new Thread[threads];
+      long start = System.nanoTime();
+      for (int t = 0; t < threads; ++t) {
+         final int thread = t;
+         workers[t] = new Thread("linkage-" + t) {
+            public void run() {
+               try{
+                  for (int i = 0; i < perThread; ++i) {
+                     String name = "linkcheck-" + thread + "-" + i;
+                     if (users.put(esql.users().create(name, "xyz", "customer"), name) != null)
+                        duplicates.incrementAndGet();
+
+                     int[] room = rooms.get((thread * perThread + i) % rooms.size());
+                     int companyID = companies.get(i % companies.size());
+                     int repairID = esql.repairs().placeRequest(room[2], companyID, room[0], room[1]);
+                     if (repairs.put(repairID, repairKey(room[2], companyID, room[0], room[1])) != null)
+                        duplicates.incrementAndGet();
+                  }
+               }catch (Exception e){
+                  synchronized (failures) {
+                     failures.add(e);
+                  }
+               }
+            }
+         };
+         workers[t].start();
+      }
+      for (Thread w : workers)
+         w.join();
+      if (!failures.isEmpty())
+         throw failures.get(0);
+      return 2.0 * threads * perThread / ((System.nanoTime() - start) / 1e9);
+   }//end insert
+
+   /**
+    * Reads the inserted rows back and counts the IDs that were handed to
+    * the wrong insert.
+    */
+   public int verify(int maxUserID, int maxRepairID) throws SQLException {
+      int wrong = duplicates.get();
+      Map<Integer, String> stored = new HashMap<Integer, String>();
+      for (Object[] row : esql.query("SELECT userID, name FROM Users WHERE userID > ?", new RowMapper<Object[]>() {
+         public Object[] map(ResultSet rs) throws SQLException {
+            return new Object[] { rs.getInt(1), Hotel.trimmed(rs.getString(2)) };
+         }
+      }, maxUserID))
+         stored.put((Integer) row[0], (String) row[1]);
+      for (Map.Entry<Integer, String> e : users.entrySet())
+         if (!e.getValue().equals(stored.get(e.getKey())))
+            ++wrong;
+
+      // one row per request, so a repair with no or several requests shows up too
+      List<Object[]> rows = esql.query("SELECT R.repairID, Q.managerID, R.companyID, R.hotelID, R.roomNumber"
+                                       + " FROM RoomRepairs R LEFT JOIN RoomRepairRequests Q ON Q.repairID = R.repairID"
+                                       + " WHERE R.repairID > ?", new RowMapper<Object[]>() {
+         public Object[] map(ResultSet rs) throws SQLException {
+            return new Object[] { rs.getInt(1), repairKey(rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5)) };
+         }
+      }, maxRepairID);
+      if (rows.size() != repairs.size())
+         wrong += Math.abs(rows.size() - repairs.size());
+      for (Object[] row : rows)
+         if (!row[1].equals(repairs.get(row[0])))
+            ++wrong;
+      return wrong;
+   }//end verify
+
+   public void cleanup(int maxUserID, int maxRepairID) throws SQLException {
+      esql.update("DELETE FROM RoomRepairRequests WHERE repairID > ?", maxRepairID);
+      esql.update("DELETE FROM RoomRepairs WHERE repairID > ?", maxRepairID);
+      esql.update("DELETE FROM Users WHERE userID > ? AND name LIKE 'linkcheck-%'", maxUserID);
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            InsertLinkageCheck.class.getName () +
+            " <dbname> <port> <user> [threads] [inserts per thread]");
+         return;
+      }//end if
+      Hotel esql = null;
+      int wrong = -1;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new Hotel (args[0], args[1], args[2], "");
+         int threads = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+         int perThread = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+
+         int maxUserID = esql.queryFirst("SELECT COALESCE(MAX(userID), 0) FROM Users", Hotel.INT);
+         int maxRepairID = esql.queryFirst("SELECT COALESCE(MAX(repairID), 0) FROM RoomRepairs", Hotel.INT);
+         InsertLinkageCheck check = new InsertLinkageCheck(esql);
+         try{
+            double rate = check.insert(threads, perThread);
+            wrong = check.verify(maxUserID, maxRepairID);
+            System.out.println(String.format("%d threads, %d inserts at %.0f inserts/s: %d wrong links",
+                                             threads, 2 * threads * perThread, rate, wrong));
+         }finally{
+            check.cleanup(maxUserID, maxRepairID);
+         }
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }
+      System.exit(wrong == 0 ? 0 : 1);
+   }//end main
+
+}//end InsertLinkageCheck
@@ -0,0 +1,79 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HotelStore of a Hotel connected to PostgreSQL: every call goes to
+ * the DAO method the menus used before, with its caches.
+ *
+ */
+public class JdbcStore implements HotelStore {
+
+   private final Hotel esql;
+
+   public JdbcStore(Hotel esql) {
+      this.esql = esql;
+   }
+
+   public int createUser(String name, String password, String userType) throws SQLException {
+      return esql.users().create(name, password, userType);
+   }
+
+   public Principal loadPrincipal(int userID, String password) throws SQLException {
+      return esql.users().loadPrincipal(userID, password);
+   }
+
+   public List<String> hotelsWithin(double latitude, double longitude, double radius) throws SQLException {
+      return esql.hotelsWithin(latitude, longitude, radius);
+   }
+
+   public List<Room> availableRooms(int hotelID, Date date) throws SQLException {
+      return esql.rooms().availableRooms(hotelID, date);
+   }
+
+   public Booking book(int customerID, int hotelID, int roomNumber, Date date) throws SQLException {
+      return esql.bookings().book(customerID, hotelID, roomNumber, date);
+   }
+
+   public BookingPage customerPage(int customerID, Booking after, int size) throws SQLException {
+      return esql.bookings().customerPage(customerID, after, size);
+   }
+
+   public int changePrice(int managerID, int hotelID, int roomNumber, int price) throws SQLException {
+      return esql.rooms().changePrice(managerID, hotelID, roomNumber, price);
+   }
+
+   public int changeImageURL(int managerID, int hotelID, int roomNumber, String imageURL) throws SQLException {
+      return esql.rooms().changeImageURL(managerID, hotelID, roomNumber, imageURL);
+   }
+
+   public List<RoomUpdate> recentUpdates(int managerID, int limit) throws SQLException {
+      return esql.rooms().recentUpdates(managerID, limit);
+   }
+
+   public BookingPage hotelPage(int hotelID, Date from, Date to, Booking after, int size) throws SQLException {
+      return esql.bookings().hotelPage(hotelID, from, to, after, size);
+   }
+
+   public List<CustomerCount> regularCustomers(int hotelID, int limit) throws SQLException {
+      return esql.bookings().regularCustomers(hotelID, limit);
+   }
+
+   public Map<Integer, List<Integer>> placeRequests(int managerID, List<RepairRequest> requests) throws SQLException {
+      return esql.repairs().placeRequests(managerID, requests);
+   }
+
+   public RepairPage historyPage(int hotelID, Integer companyID, Integer before, int size) throws SQLException {
+      return esql.repairs().historyPage(hotelID, companyID, before, size);
+   }
+
+   public String describe() {
+      return "PostgreSQL";
+   }
+
+   public void close() {
+      // the connections belong to the Hotel, closed by its cleanup()
+   }
+
+}//end JdbcStore
@@ -0,0 +1,1152 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A HotelStore that keeps every table in memory, so Hotel runs without a
+ * database server.  Rows are found through hash indexes on their primary
+ * keys; bookings also through secondary indexes by (hotel, date), the
+ * booked room numbers, and by customer and by hotel, sorted by (date,
+ * bookingID) so the history pages are range scans like their SQL
+ * counterparts.  Repairs are indexed by hotel, room updates by manager,
+ * and the booking counts behind the regular customers report are kept up
+ * to date on every booking, like CustomerBookingCounts.
+ *
+ * Every change is appended to a write-ahead log (store.log in the store
+ * directory), with a CRC per record, before it is applied.  The log is
+ * flushed to the operating system on every change and, with
+ * -Dhotel.store.fsync=true, forced to disk too.  After
+ * hotel.store.snapshotEvery changes (default 100000) and on close the
+ * tables are written to store.snapshot and a new, empty log is started;
+ * the generation number in both files tells which log belongs to which
+ * snapshot.  On open the snapshot is read and its log replayed, a torn
+ * record at the end of the log is cut off.  A store directory without a
+ * snapshot is filled from the CSV files of Project/data, or copied from
+ * the database (see copyOf).
+ *
+ * One read/write lock guards the tables: the menu reads run in parallel,
+ * changes one at a time.  A snapshot holds the read lock, so reads go on
+ * while it is written.
+ *
+ */
+public class MemoryStore implements HotelStore {
+
+   private static final int MAGIC_SNAPSHOT = 0x484d454d; // "HMEM"
+   private static final int MAGIC_LOG = 0x484c4f47;      // "HLOG"
+   private static final int FORMAT = 1;
+
+   // log record types
+   private static final byte USER = 1;
+   private static final byte BOOKING = 2;
+   private static final byte PRICE = 3;
+   private static final byte IMAGE = 4;
+   private static final byte REPAIRS = 5;
+
+   private static class UserRow {
+      final String name;
+      final String password;
+      final String userType;
+
+      UserRow(String name, String password, String userType) {
+         this.name = name;
+         this.password = password;
+         this.userType = userType;
+      }
+   }//end UserRow
+
+   private static class HotelRow {
+      final String name;
+      final double latitude;
+      final double longitude;
+      final int managerID;
+
+      HotelRow(String name, double latitude, double longitude, int managerID) {
+         this.name = name;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.managerID = managerID;
+      }
+   }//end HotelRow
+
+   private static class BookingRow {
+      final int bookingID;
+      final int customerID;
+      final int hotelID;
+      final int roomNumber;
+      final int day;
+
+      BookingRow(int bookingID, int customerID, int hotelID, int roomNumber, int day) {
+         this.bookingID = bookingID;
+         this.customerID = customerID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.day = day;
+      }
+   }//end BookingRow
+
+   // primary keys
+   private final Map<Integer, UserRow> users = new HashMap<Integer, UserRow>();
+   private final Map<Integer, HotelRow> hotels = new HashMap<Integer, HotelRow>();
+   private final Map<Long, Room> rooms = new HashMap<Long, Room>();
+   private final Set<Integer> companies = new HashSet<Integer>();
+   private final Map<Integer, BookingRow> bookings = new HashMap<Integer, BookingRow>();
+   private final Map<Integer, RoomRepair> repairs = new HashMap<Integer, RoomRepair>();
+   // requestNumber to { managerID, repairID }
+   private final Map<Integer, int[]> requests = new HashMap<Integer, int[]>();
+
+   // secondary indexes
+   private final Map<Integer, Set<Integer>> hotelsByManager = new HashMap<Integer, Set<Integer>>();
+   private final Map<Integer, TreeMap<Integer, Room>> roomsByHotel = new HashMap<Integer, TreeMap<Integer, Room>>();
+   private final Map<Long, BitSet> bookedByDate = new HashMap<Long, BitSet>();
+   private final Map<Integer, TreeMap<Long, BookingRow>> bookingsByCustomer = new HashMap<Integer, TreeMap<Long, BookingRow>>();
+   private final Map<Integer, TreeMap<Long, BookingRow>> bookingsByHotel = new HashMap<Integer, TreeMap<Long, BookingRow>>();
+   private final Map<Integer, Map<Integer, int[]>> bookingCounts = new HashMap<Integer, Map<Integer, int[]>>();
+   private final Map<Integer, TreeMap<Integer, RoomRepair>> repairsByHotel = new HashMap<Integer, TreeMap<Integer, RoomRepair>>();
+   // oldest first
+   private final Map<Integer, List<RoomUpdate>> updatesByManager = new HashMap<Integer, List<RoomUpdate>>();
+   private final HotelGrid grid = new HotelGrid(Hotel.HOTEL_SEARCH_RADIUS);
+
+   // the next key of every serial column
+   private int nextUserID = 1;
+   private int nextBookingID = 1;
+   private int nextRepairID = 1;
+   private int nextRequestNumber = 1;
+   private int updates = 0;
+
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+   private final File dir;
+   private final File snapshotFile;
+   private final File logFile;
+   private final boolean fsync;
+   private final int snapshotEvery;
+
+   // guarded by the write lock, or the read lock while a snapshot is written
+   private long generation = 0;
+   private FileOutputStream logStream = null;
+   private DataOutputStream log = null;
+   private int logged = 0;
+   private boolean failed = false;
+   private String loadedFrom = "empty";
+
+   private MemoryStore(File dir) {
+      this.dir = dir;
+      this.snapshotFile = new File(dir, "store.snapshot");
+      this.logFile = new File(dir, "store.log");
+      this.fsync = Boolean.getBoolean("hotel.store.fsync");
+      this.snapshotEvery = Integer.getInteger("hotel.store.snapshotEvery", 100000);
+   }
+
+   /**
+    * Opens the store kept in the directory: reads its snapshot and replays
+    * its log, or, for a new store, loads the CSV files of dataDir.
+    *
+    * @param dataDir a directory laid out like Project/data, or null to
+    *        start a new store empty
+    * @throws java.sql.SQLException when the files cannot be read
+    */
+   public static MemoryStore open(File dir, File dataDir) throws SQLException {
+      MemoryStore store = new MemoryStore(dir);
+      long start = System.nanoTime();
+      try{
+         if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+         int replayed = 0;
+         if (store.snapshotFile.exists()) {
+            store.readSnapshot();
+            replayed = store.replay();
+            store.loadedFrom = "snapshot and " + Math.max(0, replayed) + " logged changes";
+         } else if (dataDir != null) {
+            store.importCsv(dataDir);
+            store.loadedFrom = "CSV files of " + dataDir;
+         }
+         // a snapshot now spares the next start the replay
+         if (!store.snapshotFile.exists() || replayed > 0)
+            store.snapshot();
+         else
+            // appending to a log of another generation would lose the changes on the next open
+            store.openLog(replayed < 0);
+      }catch (IOException e){
+         store.closeLog();
+         throw new SQLException("cannot open the store in " + dir + ": " + e.getMessage());
+      }
+      store.loadedFrom += String.format(" in %.1f ms", (System.nanoTime() - start) / 1e6);
+      return store;
+   }//end open
+
+   /**
+    * Makes a store in the directory with the tables of the database,
+    * replacing whatever the directory held, e.g. to compare the two
+    * stores on the same data.
+    */
+   public static MemoryStore copyOf(Hotel esql, File dir) throws SQLException {
+      final MemoryStore store = new MemoryStore(dir);
+      long start = System.nanoTime();
+      esql.stream("SELECT userID, name, password, userType FROM Users", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            store.putUser(rs.getInt(1), Hotel.trimmed(rs.getString(2)), Hotel.trimmed(rs.getString(3)),
+                          Hotel.trimmed(rs.getString(4)));
+            return null;
+         }
+      }, IGNORE);
+      esql.stream("SELECT hotelID, hotelName, latitude, longitude, managerUserID FROM Hotel", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            store.putHotel(rs.getInt(1), Hotel.trimmed(rs.getString(2)), rs.getDouble(3), rs.getDouble(4), rs.getInt(5));
+            return null;
+         }
+      }, IGNORE);
+      esql.stream("SELECT hotelID, roomNumber, price, imageURL FROM Rooms", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            store.putRoom(new Room(rs.getInt(1), rs.getInt(2), rs.getInt(3), Hotel.trimmed(rs.getString(4))));
+            return null;
+         }
+      }, IGNORE);
+      esql.stream("SELECT companyID FROM MaintenanceCompany", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            store.companies.add(rs.getInt(1));
+            return null;
+         }
+      }, IGNORE);
+      esql.stream("SELECT bookingID, customerID, hotelID, roomNumber, bookingDate - DATE '1970-01-01' FROM RoomBookings",
+                  new RowMapper<Void>() {
+                     public Void map(ResultSet rs) throws SQLException {
+                        store.putBooking(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5));
+                        return null;
+                     }
+                  }, IGNORE);
+      esql.stream("SELECT " + RepairDao.REPAIR_COLUMNS + " FROM RoomRepairs", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            store.putRepair(new RoomRepair(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getDate(5),
+                                           rs.getString(6)));
+            return null;
+         }
+      }, IGNORE);
+      esql.stream("SELECT requestNumber, managerID, repairID FROM RoomRepairRequests", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            store.putRequest(rs.getInt(1), rs.getInt(2), rs.getInt(3));
+            return null;
+         }
+      }, IGNORE);
+      esql.stream("SELECT managerID, hotelID, roomNumber, updatedOn FROM RoomUpdatesLog ORDER BY updatedOn", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            store.putUpdate(new RoomUpdate(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getTimestamp(4)));
+            return null;
+         }
+      }, IGNORE);
+      try{
+         if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+         store.snapshot();
+      }catch (IOException e){
+         store.closeLog();
+         throw new SQLException("cannot write the store in " + dir + ": " + e.getMessage());
+      }
+      store.loadedFrom = String.format("the database in %.1f ms", (System.nanoTime() - start) / 1e6);
+      return store;
+   }//end copyOf
+
+   private static final RowVisitor<Void> IGNORE = new RowVisitor<Void>() {
+      public void visit(Void row) {
+      }
+   };
+
+   /*
+    * Loading, shared by the CSV import, the copy, the snapshot and the log
+    */
+
+   private void putUser(int userID, String name, String password, String userType) {
+      users.put(userID, new UserRow(name, password, userType));
+      nextUserID = Math.max(nextUserID, userID + 1);
+   }
+
+   private void putHotel(int hotelID, String name, double latitude, double longitude, int managerID) {
+      hotels.put(hotelID, new HotelRow(name, latitude, longitude, managerID));
+      Set<Integer> managed = hotelsByManager.get(managerID);
+      if (managed == null)
+         hotelsByManager.put(managerID, managed = new HashSet<Integer>());
+      managed.add(hotelID);
+      grid.put(hotelID, name, latitude, longitude);
+   }
+
+   private void putRoom(Room room) {
+      rooms.put(key(room.hotelID, room.roomNumber), room);
+      TreeMap<Integer, Room> hotelRooms = roomsByHotel.get(room.hotelID);
+      if (hotelRooms == null)
+         roomsByHotel.put(room.hotelID, hotelRooms = new TreeMap<Integer, Room>());
+      hotelRooms.put(room.roomNumber, room);
+   }
+
+   private void putBooking(int bookingID, int customerID, int hotelID, int roomNumber, int day) {
+      BookingRow booking = new BookingRow(bookingID, customerID, hotelID, roomNumber, day);
+      bookings.put(bookingID, booking);
+      nextBookingID = Math.max(nextBookingID, bookingID + 1);
+      BitSet booked = bookedByDate.get(key(hotelID, day));
+      if (booked == null)
+         bookedByDate.put(key(hotelID, day), booked = new BitSet());
+      booked.set(roomNumber);
+      index(bookingsByCustomer, customerID).put(key(day, bookingID), booking);
+      index(bookingsByHotel, hotelID).put(key(day, bookingID), booking);
+      Map<Integer, int[]> counts = bookingCounts.get(hotelID);
+      if (counts == null)
+         bookingCounts.put(hotelID, counts = new HashMap<Integer, int[]>());
+      int[] count = counts.get(customerID);
+      if (count == null)
+         counts.put(customerID, count = new int[1]);
+      ++count[0];
+   }//end putBooking
+
+   private static TreeMap<Long, BookingRow> index(Map<Integer, TreeMap<Long, BookingRow>> index, int id) {
+      TreeMap<Long, BookingRow> rows = index.get(id);
+      if (rows == null)
+         index.put(id, rows = new TreeMap<Long, BookingRow>());
+      return rows;
+   }
+
+   private void putRepair(RoomRepair repair) {
+      repairs.put(repair.repairID, repair);
+      nextRepairID = Math.max(nextRepairID, repair.repairID + 1);
+      TreeMap<Integer, RoomRepair> hotelRepairs = repairsByHotel.get(repair.hotelID);
+      if (hotelRepairs == null)
+         repairsByHotel.put(repair.hotelID, hotelRepairs = new TreeMap<Integer, RoomRepair>());
+      hotelRepairs.put(repair.repairID, repair);
+   }
+
+   private void putRequest(int requestNumber, int managerID, int repairID) {
+      requests.put(requestNumber, new int[] { managerID, repairID });
+      nextRequestNumber = Math.max(nextRequestNumber, requestNumber + 1);
+   }
+
+   private void putUpdate(RoomUpdate update) {
+      List<RoomUpdate> managed = updatesByManager.get(update.managerID);
+      if (managed == null)
+         updatesByManager.put(update.managerID, managed = new ArrayList<RoomUpdate>());
+      managed.add(update);
+      ++updates;
+   }
+
+   /**
+    * Two ints as one sortable key: (hotelID, roomNumber), (hotelID, day)
+    * or (day, bookingID).  The second must not be negative.
+    */
+   static long key(int high, int low) {
+      return ((long) high << 32) | low;
+   }
+
+   /**
+    * @return the date of an epoch day as counted by Hotel.epochDay
+    */
+   static Date dateOf(int day) {
+      Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+      utc.setTimeInMillis(day * 86400000L);
+      Calendar local = Calendar.getInstance();
+      local.clear();
+      local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH));
+      return new Date(local.getTimeInMillis());
+   }
+
+   /*
+    * HotelStore
+    */
+
+   public int createUser(String name, String password, String userType) throws SQLException {
+      lock.writeLock().lock();
+      try{
+         int userID = nextUserID;
+         write(record(USER, userID, name, password, userType));
+         return userID;
+      }finally{
+         unlockWrite();
+      }
+   }
+
+   public Principal loadPrincipal(int userID, String password) throws SQLException {
+      lock.readLock().lock();
+      try{
+         UserRow user = users.get(userID);
+         if (user == null || (password != null && !password.equals(user.password)))
+            return null;
+         Set<Integer> managed = hotelsByManager.get(userID);
+         return new Principal(userID, user.name, user.userType,
+                              managed == null ? new HashSet<Integer>() : new HashSet<Integer>(managed));
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   public List<String> hotelsWithin(double latitude, double longitude, double radius) {
+      return grid.within(latitude, longitude, radius);
+   }
+
+   public List<Room> availableRooms(int hotelID, Date date) throws SQLException {
+      lock.readLock().lock();
+      try{
+         List<Room> available = new ArrayList<Room>();
+         TreeMap<Integer, Room> hotelRooms = roomsByHotel.get(hotelID);
+         if (hotelRooms == null)
+            return available;
+         BitSet booked = bookedByDate.get(key(hotelID, Hotel.epochDay(date)));
+         for (Room room : hotelRooms.values())
+            if (booked == null || !booked.get(room.roomNumber))
+               available.add(room);
+         return available;
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   public Booking book(int customerID, int hotelID, int roomNumber, Date date) throws SQLException {
+      int day = Hotel.epochDay(date);
+      lock.writeLock().lock();
+      try{
+         Room room = rooms.get(key(hotelID, roomNumber));
+         if (room == null)
+            return null;
+         if (!users.containsKey(customerID))
+            throw new SQLException("there is no user " + customerID);
+         BitSet booked = bookedByDate.get(key(hotelID, day));
+         if (booked != null && booked.get(roomNumber))
+            return null;
+         int bookingID = nextBookingID;
+         write(record(BOOKING, bookingID, customerID, hotelID, roomNumber, day));
+         return new Booking(bookingID, customerID, null, hotelID, roomNumber, date, room.price);
+      }finally{
+         unlockWrite();
+      }
+   }//end book
+
+   public BookingPage customerPage(int customerID, Booking after, int size) throws SQLException {
+      lock.readLock().lock();
+      try{
+         List<Booking> rows = new ArrayList<Booking>();
+         TreeMap<Long, BookingRow> index = bookingsByCustomer.get(customerID);
+         if (index != null) {
+            long bound = after == null ? Long.MAX_VALUE : key(Hotel.epochDay(after.bookingDate), after.bookingID);
+            for (BookingRow b : index.headMap(bound, false).descendingMap().values()) {
+               Room room = rooms.get(key(b.hotelID, b.roomNumber));
+               if (room == null)
+                  continue;
+               rows.add(new Booking(b.bookingID, b.customerID, null, b.hotelID, b.roomNumber, dateOf(b.day), room.price));
+               if (rows.size() > size)
+                  break;
+            }
+         }
+         return page(rows, size);
+      }finally{
+         lock.readLock().unlock();
+      }
+   }//end customerPage
+
+   public int changePrice(int managerID, int hotelID, int roomNumber, int price) throws SQLException {
+      lock.writeLock().lock();
+      try{
+         if (!rooms.containsKey(key(hotelID, roomNumber)))
+            return 0;
+         write(record(PRICE, managerID, hotelID, roomNumber, System.currentTimeMillis(), price));
+         return 1;
+      }finally{
+         unlockWrite();
+      }
+   }
+
+   public int changeImageURL(int managerID, int hotelID, int roomNumber, String imageURL) throws SQLException {
+      lock.writeLock().lock();
+      try{
+         if (!rooms.containsKey(key(hotelID, roomNumber)))
+            return 0;
+         write(record(IMAGE, managerID, hotelID, roomNumber, System.currentTimeMillis(), imageURL));
+         return 1;
+      }finally{
+         unlockWrite();
+      }
+   }
+
+   public List<RoomUpdate> recentUpdates(int managerID, int limit) throws SQLException {
+      lock.readLock().lock();
+      try{
+         List<RoomUpdate> recent = new ArrayList<RoomUpdate>();
+         List<RoomUpdate> managed = updatesByManager.get(managerID);
+         for (int i = managed == null ? -1 : managed.size() - 1; i >= 0 && recent.size() < limit; --i)
+            recent.add(managed.get(i));
+         return recent;
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   public BookingPage hotelPage(int hotelID, Date from, Date to, Booking after, int size) throws SQLException {
+      lock.readLock().lock();
+      try{
+         List<Booking> rows = new ArrayList<Booking>();
+         TreeMap<Long, BookingRow> index = bookingsByHotel.get(hotelID);
+         // bookingIDs start at 1, so (from, 0) is before every booking of the range
+         long lower = after == null ? key(Hotel.epochDay(from), 0) : key(Hotel.epochDay(after.bookingDate), after.bookingID);
+         long upper = key(Hotel.epochDay(to) + 1, 0);
+         if (index != null && lower < upper) {
+            for (BookingRow b : index.subMap(lower, false, upper, false).values()) {
+               UserRow customer = users.get(b.customerID);
+               if (customer == null)
+                  continue;
+               rows.add(new Booking(b.bookingID, b.customerID, customer.name, b.hotelID, b.roomNumber, dateOf(b.day), 0));
+               if (rows.size() > size)
+                  break;
+            }
+         }
+         return page(rows, size);
+      }finally{
+         lock.readLock().unlock();
+      }
+   }//end hotelPage
+
+   // one row more than the page was read to know whether another page follows
+   private static BookingPage page(List<Booking> rows, int size) {
+      boolean hasMore = rows.size() > size;
+      return new BookingPage(hasMore ? new ArrayList<Booking>(rows.subList(0, size)) : rows, hasMore);
+   }
+
+   public List<CustomerCount> regularCustomers(int hotelID, int limit) throws SQLException {
+      lock.readLock().lock();
+      try{
+         List<CustomerCount> customers = new ArrayList<CustomerCount>();
+         Map<Integer, int[]> counts = bookingCounts.get(hotelID);
+         if (counts != null) {
+            for (Map.Entry<Integer, int[]> e : counts.entrySet()) {
+               UserRow customer = users.get(e.getKey());
+               if (customer != null)
+                  customers.add(new CustomerCount(e.getKey(), customer.name, e.getValue()[0]));
+            }
+         }
+         Collections.sort(customers, new Comparator<CustomerCount>() {
+            public int compare(CustomerCount a, CustomerCount b) {
+               if (a.bookings != b.bookings)
+                  return a.bookings > b.bookings ? -1 : 1;
+               return a.customerID < b.customerID ? -1 : a.customerID == b.customerID ? 0 : 1;
+            }
+         });
+         return customers.size() > limit ? new ArrayList<CustomerCount>(customers.subList(0, limit)) : customers;
+      }finally{
+         lock.readLock().unlock();
+      }
+   }//end regularCustomers
+
+   public Map<Integer, List<Integer>> placeRequests(int managerID, List<RepairRequest> requested) throws SQLException {
+      Map<Integer, List<RepairRequest>> byCompany = new TreeMap<Integer, List<RepairRequest>>();
+      for (RepairRequest r : requested) {
+         List<RepairRequest> company = byCompany.get(r.companyID);
+         if (company == null)
+            byCompany.put(r.companyID, company = new ArrayList<RepairRequest>());
+         company.add(r);
+      }
+      Map<Integer, List<Integer>> placed = new TreeMap<Integer, List<Integer>>();
+      if (requested.isEmpty())
+         return placed;
+      lock.writeLock().lock();
+      try{
+         List<Object> fields = new ArrayList<Object>();
+         fields.add(REPAIRS);
+         fields.add(managerID);
+         fields.add(Hotel.epochDay(new Date(System.currentTimeMillis())));
+         fields.add(nextRepairID);
+         fields.add(nextRequestNumber);
+         fields.add(requested.size());
+         int repairID = nextRepairID;
+         for (Map.Entry<Integer, List<RepairRequest>> company : byCompany.entrySet()) {
+            if (!companies.contains(company.getKey()))
+               throw new SQLException("there is no maintenance company " + company.getKey() + ", no repair was placed");
+            List<Integer> ids = new ArrayList<Integer>();
+            for (RepairRequest r : company.getValue()) {
+               if (!rooms.containsKey(key(r.hotelID, r.roomNumber)))
+                  throw new SQLException("hotel " + r.hotelID + " has no room " + r.roomNumber + ", no repair was placed");
+               fields.add(r.companyID);
+               fields.add(r.hotelID);
+               fields.add(r.roomNumber);
+               ids.add(repairID++);
+            }
+            placed.put(company.getKey(), ids);
+         }
+         if (!users.containsKey(managerID))
+            throw new SQLException("there is no user " + managerID);
+         // one record, so a crash keeps all of the requests or none
+         write(record(fields.toArray()));
+         return placed;
+      }finally{
+         unlockWrite();
+      }
+   }//end placeRequests
+
+   public RepairPage historyPage(int hotelID, Integer companyID, Integer before, int size) throws SQLException {
+      lock.readLock().lock();
+      try{
+         List<RoomRepair> rows = new ArrayList<RoomRepair>();
+         TreeMap<Integer, RoomRepair> index = repairsByHotel.get(hotelID);
+         if (index != null) {
+            for (RoomRepair repair : index.headMap(before == null ? Integer.MAX_VALUE : before, false).descendingMap().values()) {
+               if (companyID != null && repair.companyID != companyID)
+                  continue;
+               rows.add(repair);
+               if (rows.size() > size)
+                  break;
+            }
+         }
+         boolean hasMore = rows.size() > size;
+         return new RepairPage(hasMore ? rows.subList(0, size) : rows, hasMore);
+      }finally{
+         lock.readLock().unlock();
+      }
+   }//end historyPage
+
+   public String describe() {
+      return "in memory in " + dir + ", " + counts() + " from " + loadedFrom;
+   }
+
+   /**
+    * @return the number of rows per table
+    */
+   String counts() {
+      lock.readLock().lock();
+      try{
+         return String.format("%d users, %d hotels, %d rooms, %d bookings, %d repairs, %d room updates", users.size(),
+                              hotels.size(), rooms.size(), bookings.size(), repairs.size(), updates);
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   /*
+    * Parameters for StoreBench, drawn from the tables
+    */
+
+   /**
+    * @return every room, by hotelID and roomNumber
+    */
+   List<Room> allRooms() {
+      lock.readLock().lock();
+      try{
+         List<Room> all = new ArrayList<Room>(rooms.values());
+         Collections.sort(all, new Comparator<Room>() {
+            public int compare(Room a, Room b) {
+               return a.hotelID != b.hotelID ? (a.hotelID < b.hotelID ? -1 : 1)
+                                             : (a.roomNumber < b.roomNumber ? -1 : a.roomNumber == b.roomNumber ? 0 : 1);
+            }
+         });
+         return all;
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return the managers of the hotels, ascending
+    */
+   List<Integer> managerIDs() {
+      lock.readLock().lock();
+      try{
+         List<Integer> managers = new ArrayList<Integer>(hotelsByManager.keySet());
+         Collections.sort(managers);
+         return managers;
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return the customers of the first bookings, by bookingID
+    */
+   List<Integer> customerIDs(int limit) {
+      lock.readLock().lock();
+      try{
+         List<Integer> customers = new ArrayList<Integer>();
+         for (int id = 1; id < nextBookingID && customers.size() < limit; ++id) {
+            BookingRow b = bookings.get(id);
+            if (b != null)
+               customers.add(b.customerID);
+         }
+         return customers;
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return the first and the last booked date, or null without bookings
+    */
+   Date[] bookingRange() {
+      lock.readLock().lock();
+      try{
+         if (bookings.isEmpty())
+            return null;
+         int first = Integer.MAX_VALUE;
+         int last = Integer.MIN_VALUE;
+         for (BookingRow b : bookings.values()) {
+            first = Math.min(first, b.day);
+            last = Math.max(last, b.day);
+         }
+         return new Date[] { dateOf(first), dateOf(last) };
+      }finally{
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * Writes a snapshot, so the next open has no log to replay, and closes
+    * the log.
+    */
+   public void close() {
+      lock.writeLock().lock();
+      try{
+         if (log != null && logged > 0 && !failed)
+            snapshot();
+      }catch (IOException e){
+         System.err.println("Unable to write the store snapshot " + snapshotFile + ": " + e.getMessage());
+      }finally{
+         closeLog();
+         lock.writeLock().unlock();
+      }
+   }
+
+   /*
+    * The write-ahead log
+    */
+
+   /**
+    * Encodes the fields of one log record; the first is its type.
+    */
+   private static byte[] record(Object... fields) {
+      try{
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+         DataOutputStream out = new DataOutputStream(bytes);
+         for (Object f : fields) {
+            if (f instanceof Byte)
+               out.writeByte((Byte) f);
+            else if (f instanceof Integer)
+               out.writeInt((Integer) f);
+            else if (f instanceof Long)
+               out.writeLong((Long) f);
+            else
+               writeString(out, (String) f);
+         }
+         return bytes.toByteArray();
+      }catch (IOException e){
+         throw new IllegalStateException(e);
+      }
+   }//end record
+
+   private static void writeString(DataOutputStream out, String s) throws IOException {
+      out.writeBoolean(s != null);
+      if (s != null)
+         out.writeUTF(s);
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+   }
+
+   /**
+    * Logs a change and applies it to the tables.  The caller holds the
+    * write lock.
+    *
+    * @throws java.sql.SQLException when the log could not be written; the
+    *         change is not applied then, and no later one either, as the
+    *         log may end in a torn record
+    */
+   private void write(byte[] record) throws SQLException {
+      if (failed || log == null)
+         throw new SQLException("the store log " + logFile + " cannot be written, reopen the store");
+      try{
+         CRC32 crc = new CRC32();
+         crc.update(record);
+         log.writeInt(record.length);
+         log.writeInt((int) crc.getValue());
+         log.write(record);
+         log.flush();
+         if (fsync)
+            logStream.getFD().sync();
+      }catch (IOException e){
+         failed = true;
+         throw new SQLException("cannot write the store log " + logFile + ": " + e.getMessage());
+      }
+      ++logged;
+      try{
+         apply(record);
+      }catch (IOException e){
+         throw new IllegalStateException(e);
+      }
+   }//end write
+
+   /**
+    * Applies one log record to the tables, as a change or on replay.
+    */
+   private void apply(byte[] record) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      byte type = in.readByte();
+      if (type == USER) {
+         putUser(in.readInt(), readString(in), readString(in), readString(in));
+      } else if (type == BOOKING) {
+         putBooking(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+      } else if (type == PRICE || type == IMAGE) {
+         int managerID = in.readInt();
+         int hotelID = in.readInt();
+         int roomNumber = in.readInt();
+         long updatedOn = in.readLong();
+         Room room = rooms.get(key(hotelID, roomNumber));
+         if (room == null)
+            return;
+         putRoom(type == PRICE ? new Room(hotelID, roomNumber, in.readInt(), room.imageURL)
+                               : new Room(hotelID, roomNumber, room.price, readString(in)));
+         putUpdate(new RoomUpdate(managerID, hotelID, roomNumber, new Timestamp(updatedOn)));
+      } else if (type == REPAIRS) {
+         int managerID = in.readInt();
+         Date repairDate = dateOf(in.readInt());
+         int repairID = in.readInt();
+         int requestNumber = in.readInt();
+         int count = in.readInt();
+         for (int i = 0; i < count; ++i) {
+            putRepair(new RoomRepair(repairID, in.readInt(), in.readInt(), in.readInt(), repairDate, "requested"));
+            putRequest(requestNumber++, managerID, repairID++);
+         }
+      } else {
+         throw new IOException("unknown record type " + type);
+      }
+   }//end apply
+
+   /**
+    * Replays the log of the current generation; a log of an older one is
+    * already in the snapshot.  A torn or corrupt record ends the replay
+    * and is cut off with everything after it.
+    *
+    * @return the number of changes replayed, or -1 when there is no log of
+    *         the current generation: none, a torn header, or the log of
+    *         the generation before, left by a crash inside snapshot()
+    */
+   private int replay() throws IOException {
+      if (!logFile.exists())
+         return -1;
+      long size = logFile.length();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+      int replayed = 0;
+      long good = 16;
+      try{
+         if (in.readInt() != MAGIC_LOG || in.readInt() != FORMAT)
+            throw new IOException(logFile + " is not a store log");
+         if (in.readLong() != generation)
+            return -1;
+         while (true) {
+            byte[] record;
+            try{
+               int length = in.readInt();
+               int crc = in.readInt();
+               // a torn length must not allocate more than the file holds
+               if (length < 0 || length > size - good - 8)
+                  break;
+               record = new byte[length];
+               in.readFully(record);
+               CRC32 check = new CRC32();
+               check.update(record);
+               if ((int) check.getValue() != crc)
+                  break;
+            }catch (EOFException e){
+               break;
+            }
+            apply(record);
+            good += 8 + record.length;
+            ++replayed;
+         }
+      }catch (EOFException e){
+         // a log cut before its header was complete holds no change
+         return -1;
+      }finally{
+         in.close();
+      }
+      if (good < logFile.length()) {
+         System.err.println("Cutting a torn record off the store log " + logFile + " at byte " + good);
+         RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+         try{
+            file.setLength(good);
+         }finally{
+            file.close();
+         }
+      }
+      return replayed;
+   }//end replay
+
+   private void openLog(boolean fresh) throws IOException {
+      if (fresh) {
+         File tmp = new File(dir, "store.log.tmp");
+         DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+         try{
+            out.writeInt(MAGIC_LOG);
+            out.writeInt(FORMAT);
+            out.writeLong(generation);
+            out.flush();
+         }finally{
+            out.close();
+         }
+         Files.move(tmp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      logStream = new FileOutputStream(logFile, true);
+      log = new DataOutputStream(new BufferedOutputStream(logStream, 8192));
+      logged = 0;
+   }//end openLog
+
+   private void closeLog() {
+      try{
+         if (log != null)
+            log.close();
+      }catch (IOException e){
+         // ignored.
+      }
+      log = null;
+      logStream = null;
+   }
+
+   /*
+    * Snapshots
+    */
+
+   /**
+    * Downgrades the write lock to a read lock and writes a snapshot when
+    * enough changes were logged since the last one, then unlocks.
+    */
+   private void unlockWrite() {
+      if (logged < snapshotEvery || failed) {
+         lock.writeLock().unlock();
+         return;
+      }
+      lock.readLock().lock();
+      lock.writeLock().unlock();
+      try{
+         snapshot();
+      }catch (IOException e){
+         System.err.println("Unable to write the store snapshot " + snapshotFile + ": " + e.getMessage());
+         logged = 0;
+      }finally{
+         lock.readLock().unlock();
+      }
+   }//end unlockWrite
+
+   /**
+    * Writes every table to a new snapshot of the next generation and starts
+    * the empty log of that generation.  A crash in between leaves the old
+    * log behind, which the generation check then skips and open() starts
+    * over.
+    */
+   private void snapshot() throws IOException {
+      File tmp = new File(dir, "store.snapshot.tmp");
+      FileOutputStream stream = new FileOutputStream(tmp);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+      try{
+         out.writeInt(MAGIC_SNAPSHOT);
+         out.writeInt(FORMAT);
+         out.writeLong(generation + 1);
+         out.writeInt(nextUserID);
+         out.writeInt(nextBookingID);
+         out.writeInt(nextRepairID);
+         out.writeInt(nextRequestNumber);
+
+         out.writeInt(users.size());
+         for (Map.Entry<Integer, UserRow> e : users.entrySet()) {
+            out.writeInt(e.getKey());
+            writeString(out, e.getValue().name);
+            writeString(out, e.getValue().password);
+            writeString(out, e.getValue().userType);
+         }
+         out.writeInt(companies.size());
+         for (int companyID : companies)
+            out.writeInt(companyID);
+         out.writeInt(hotels.size());
+         for (Map.Entry<Integer, HotelRow> e : hotels.entrySet()) {
+            HotelRow h = e.getValue();
+            out.writeInt(e.getKey());
+            writeString(out, h.name);
+            out.writeDouble(h.latitude);
+            out.writeDouble(h.longitude);
+            out.writeInt(h.managerID);
+         }
+         out.writeInt(rooms.size());
+         for (Room r : rooms.values()) {
+            out.writeInt(r.hotelID);
+            out.writeInt(r.roomNumber);
+            out.writeInt(r.price);
+            writeString(out, r.imageURL);
+         }
+         out.writeInt(bookings.size());
+         for (BookingRow b : bookings.values()) {
+            out.writeInt(b.bookingID);
+            out.writeInt(b.customerID);
+            out.writeInt(b.hotelID);
+            out.writeInt(b.roomNumber);
+            out.writeInt(b.day);
+         }
+         out.writeInt(repairs.size());
+         for (RoomRepair r : repairs.values()) {
+            out.writeInt(r.repairID);
+            out.writeInt(r.companyID);
+            out.writeInt(r.hotelID);
+            out.writeInt(r.roomNumber);
+            out.writeInt(Hotel.epochDay(r.repairDate));
+            writeString(out, r.status);
+         }
+         out.writeInt(requests.size());
+         for (Map.Entry<Integer, int[]> e : requests.entrySet()) {
+            out.writeInt(e.getKey());
+            out.writeInt(e.getValue()[0]);
+            out.writeInt(e.getValue()[1]);
+         }
+         out.writeInt(updates);
+         for (List<RoomUpdate> managed : updatesByManager.values()) {
+            for (RoomUpdate u : managed) {
+               out.writeInt(u.managerID);
+               out.writeInt(u.hotelID);
+               out.writeInt(u.roomNumber);
+               out.writeLong(u.updatedOn.getTime());
+            }
+         }
+         out.flush();
+         stream.getFD().sync();
+      }finally{
+         out.close();
+      }
+      Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      closeLog();
+      ++generation;
+      openLog(true);
+   }//end snapshot
+
+   private void readSnapshot() throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16));
+      try{
+         if (in.readInt() != MAGIC_SNAPSHOT || in.readInt() != FORMAT)
+            throw new IOException(snapshotFile + " is not a store snapshot");
+         generation = in.readLong();
+         nextUserID = in.readInt();
+         nextBookingID = in.readInt();
+         nextRepairID = in.readInt();
+         nextRequestNumber = in.readInt();
+
+         for (int n = in.readInt(); n > 0; --n)
+            putUser(in.readInt(), readString(in), readString(in), readString(in));
+         for (int n = in.readInt(); n > 0; --n)
+            companies.add(in.readInt());
+         for (int n = in.readInt(); n > 0; --n)
+            putHotel(in.readInt(), readString(in), in.readDouble(), in.readDouble(), in.readInt());
+         for (int n = in.readInt(); n > 0; --n)
+            putRoom(new Room(in.readInt(), in.readInt(), in.readInt(), readString(in)));
+         for (int n = in.readInt(); n > 0; --n)
+            putBooking(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+         for (int n = in.readInt(); n > 0; --n)
+            putRepair(new RoomRepair(in.readInt(), in.readInt(), in.readInt(), in.readInt(), dateOf(in.readInt()),
+                                     readString(in)));
+         for (int n = in.readInt(); n > 0; --n)
+            putRequest(in.readInt(), in.readInt(), in.readInt());
+         for (int n = in.readInt(); n > 0; --n)
+            putUpdate(new RoomUpdate(in.readInt(), in.readInt(), in.readInt(), new Timestamp(in.readLong())));
+      }finally{
+         in.close();
+      }
+   }//end readSnapshot
+
+   /*
+    * The CSV files of Project/data
+    */
+
+   private void importCsv(File dataDir) throws IOException {
+      try{
+         importRows(dataDir);
+      }catch (IllegalArgumentException e){
+         // a bad number or timestamp
+         throw new IOException("bad value in the CSV files of " + dataDir + ": " + e.getMessage());
+      }catch (IndexOutOfBoundsException e){
+         throw new IOException("a line with too few fields in the CSV files of " + dataDir);
+      }
+   }
+
+   private void importRows(File dataDir) throws IOException {
+      for (String[] f : readCsv(new File(dataDir, "users.csv")))
+         putUser(Integer.parseInt(f[0]), f[1], f[2], f[3]);
+      for (String[] f : readCsv(new File(dataDir, "company.csv")))
+         companies.add(Integer.parseInt(f[0]));
+      for (String[] f : readCsv(new File(dataDir, "hotels.csv")))
+         putHotel(Integer.parseInt(f[0]), f[1], Double.parseDouble(f[2]), Double.parseDouble(f[3]), Integer.parseInt(f[5]));
+      for (String[] f : readCsv(new File(dataDir, "rooms.csv")))
+         putRoom(new Room(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]), f[3]));
+      for (String[] f : readCsv(new File(dataDir, "bookings.csv")))
+         putBooking(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+                    Hotel.epochDay(parseDate(f[4])));
+      for (String[] f : readCsv(new File(dataDir, "roomRepairs.csv")))
+         putRepair(new RoomRepair(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                                  Integer.parseInt(f[3]), parseDate(f[4]), "requested"));
+      for (String[] f : readCsv(new File(dataDir, "roomRepairRequests.csv")))
+         putRequest(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+      List<RoomUpdate> logged = new ArrayList<RoomUpdate>();
+      for (String[] f : readCsv(new File(dataDir, "roomUpdatesLog.csv")))
+         logged.add(new RoomUpdate(Integer.parseInt(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+                                   Timestamp.valueOf(f[4])));
+      Collections.sort(logged, new Comparator<RoomUpdate>() {
+         public int compare(RoomUpdate a, RoomUpdate b) {
+            return a.updatedOn.compareTo(b.updatedOn);
+         }
+      });
+      for (RoomUpdate update : logged)
+         putUpdate(update);
+   }//end importRows
+
+   private static Date parseDate(String text) throws IOException {
+      Date date = Hotel.parseDate(text);
+      if (date == null)
+         throw new IOException("not a date: " + text);
+      return date;
+   }
+
+   /**
+    * @return the fields of every line after the header
+    */
+   private static List<String[]> readCsv(File file) throws IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      try{
+         String line = in.readLine();
+         while ((line = in.readLine()) != null) {
+            if (line.trim().length() == 0)
+               continue;
+            String[] f = line.split(",", -1);
+            for (int i = 0; i < f.length; ++i)
+               f[i] = f[i].trim();
+            rows.add(f);
+         }
+      }finally{
+         in.close();
+      }
+      return rows;
+   }//end readCsv
+
+}//end MemoryStore
@@ -0,0 +1,29 @@
+/**
+ * One line of an occupancy and revenue report: a hotel, a month or a
+ * room, the nights booked in it and what they earned at the current room
+ * prices.
+ *
+ */
+public class OccupancyRow {
+
+   public final String label;
+   public final long nights;
+   public final long revenue;
+   // nights that could have been booked: rooms times days
+   public final long roomNights;
+
+   public OccupancyRow(String label, long nights, long revenue, long roomNights) {
+      this.label = label;
+      this.nights = nights;
+      this.revenue = revenue;
+      this.roomNights = roomNights;
+   }
+
+   /**
+    * @return the share of the room nights that were booked, 0 to 1
+    */
+   public double occupancy() {
+      return roomNights == 0 ? 0 : (double) nights / roomNights;
+   }
+
+}//end OccupancyRow
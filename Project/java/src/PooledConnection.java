@@ -0,0 +1,116 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical connection owned by a ConnectionPool, together with a small
+ * LRU cache of prepared statements keyed by their SQL text.  The bundled
+ * driver substitutes the parameters on the client and sends plain SQL, so
+ * reusing a PreparedStatement only saves splitting the text at its
+ * placeholders and allocating the statement again; the server still
+ * parses and plans every execution.
+ *
+ * With -Dhotel.pool.serverPrepare=true the statements are prepared on the
+ * server (PREPARE and EXECUTE), so it plans each cached statement once.
+ * It is off by default: the driver declares the parameter types from the
+ * setters, and a null bound with Types.NULL is declared as text, which
+ * fails against an integer column.
+ *
+ */
+public class PooledConnection {
+
+   static final boolean SERVER_PREPARE = Boolean.getBoolean("hotel.pool.serverPrepare");
+
+   private final ConnectionPool pool;
+   private final Connection connection;
+   private final Map<String, PreparedStatement> statements;
+
+   // bookkeeping used by the pool for validation, eviction and leak checks
+   long createdAt;
+   long lastUsedAt;
+   long borrowedAt;
+   Throwable borrowSite;
+   boolean leakReported;
+
+   PooledConnection(ConnectionPool pool, Connection connection, final int cacheSize) {
+      this.pool = pool;
+      this.connection = connection;
+      this.createdAt = System.currentTimeMillis();
+      this.lastUsedAt = this.createdAt;
+      // access ordered map so the least recently used statement is evicted first
+      this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= cacheSize)
+               return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }//end PooledConnection
+
+   /**
+    * @return the underlying JDBC connection
+    */
+   public Connection getConnection() {
+      return connection;
+   }
+
+   /**
+    * Returns a prepared statement for the given SQL, reusing a cached one
+    * when the same text was prepared before on this connection.  Callers
+    * must close the ResultSets they open but never the statement itself.
+    *
+    * @param sql the SQL text, possibly with ? placeholders
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = statements.get(sql);
+      if (stmt != null) {
+         pool.recordStatementHit();
+         stmt.clearParameters();
+         return stmt;
+      }
+      pool.recordStatementMiss();
+      stmt = connection.prepareStatement(sql);
+      if (SERVER_PREPARE && stmt instanceof org.postgresql.PGStatement)
+         ((org.postgresql.PGStatement) stmt).setUseServerPrepare(true);
+      statements.put(sql, stmt);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Returns this connection to its pool.
+    */
+   public void release() {
+      pool.release(this);
+   }
+
+   int cachedStatements() {
+      return statements.size();
+   }
+
+   /**
+    * Closes every cached statement and the physical connection.
+    */
+   void closePhysical() {
+      for (PreparedStatement stmt : statements.values())
+         closeQuietly(stmt);
+      statements.clear();
+      try{
+         connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+   }//end closePhysical
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try{
+         stmt.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+   }
+
+}//end PooledConnection
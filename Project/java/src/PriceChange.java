@@ -0,0 +1,39 @@
+/**
+ * A new price for one room, as given to a bulk repricing.
+ *
+ */
+public class PriceChange {
+
+   public final int hotelID;
+   public final int roomNumber;
+   public final int price;
+
+   public PriceChange(int hotelID, int roomNumber, int price) {
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.price = price;
+   }
+
+   /**
+    * Parses one "hotelID,roomNumber,price" line, e.g. a row pasted from a
+    * CSV file.
+    *
+    * @throws java.lang.IllegalArgumentException when the text is not three
+    *         numbers
+    */
+   public static PriceChange parse(String text) {
+      String[] f = text.trim().split("\\s*,\\s*");
+      try{
+         if (f.length != 3)
+            throw new NumberFormatException();
+         return new PriceChange(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException("not a price, expected hotelID,roomNumber,price: " + text);
+      }
+   }//end parse
+
+   public String toString() {
+      return "hotel " + hotelID + " room " + roomNumber + " at " + price;
+   }
+
+}//end PriceChange
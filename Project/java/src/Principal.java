@@ -0,0 +1,41 @@
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A logged in user together with the hotels they manage, loaded once at
+ * login so authorization checks are plain set lookups.
+ *
+ */
+public class Principal {
+
+   public final int userID;
+   public final String name;
+   public final String userType;
+   private final Set<Integer> managedHotels;
+
+   public Principal(int userID, String name, String userType, Set<Integer> managedHotels) {
+      this.userID = userID;
+      this.name = name;
+      this.userType = userType;
+      this.managedHotels = Collections.unmodifiableSet(managedHotels);
+   }
+
+   /**
+    * @return true if the user manages at least one hotel
+    */
+   public boolean isManager() {
+      return !managedHotels.isEmpty();
+   }
+
+   /**
+    * @return true if the user is the manager of the given hotel
+    */
+   public boolean manages(int hotelID) {
+      return managedHotels.contains(hotelID);
+   }
+
+   public Set<Integer> getManagedHotels() {
+      return managedHotels;
+   }
+
+}//end Principal
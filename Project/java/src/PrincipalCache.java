@@ -0,0 +1,56 @@
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Principals of the users seen by this process, shared by every session.
+ * An entry is reloaded from the database the next time it is asked for
+ * after being invalidated, e.g. when a hotel changes manager.
+ *
+ */
+public class PrincipalCache {
+
+   private final Hotel esql;
+   private final ConcurrentMap<Integer, Principal> principals = new ConcurrentHashMap<Integer, Principal>();
+
+   public PrincipalCache(Hotel esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * Checks the credentials against the store and caches the principal
+    *
+    * @return the principal, or null if the credentials do not match
+    * @throws java.sql.SQLException when the lookup failed
+    */
+   public Principal logIn(int userID, String password) throws SQLException {
+      Principal principal = esql.store().loadPrincipal(userID, password);
+      if (principal != null)
+         principals.put(userID, principal);
+      return principal;
+   }
+
+   /**
+    * @return the cached principal, reloaded if it was invalidated, or null
+    *         if the user no longer exists
+    * @throws java.sql.SQLException when the reload failed
+    */
+   public Principal get(int userID) throws SQLException {
+      Principal principal = principals.get(userID);
+      if (principal == null) {
+         principal = esql.store().loadPrincipal(userID, null);
+         if (principal != null)
+            principals.put(userID, principal);
+      }
+      return principal;
+   }
+
+   public void invalidate(int userID) {
+      principals.remove(userID);
+   }
+
+   public void invalidateAll() {
+      principals.clear();
+   }
+
+}//end PrincipalCache
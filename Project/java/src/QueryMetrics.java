@@ -0,0 +1,324 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms, row counts and error counts of the SQL statements
+ * run through Hotel, grouped by the menu operation that issued them.  The
+ * operation is a per thread setting (see setOperation), so every session
+ * of a HotelServer is accounted to its own current operation.
+ *
+ * Statements slower than hotel.slowQueryMs (default 200) and failed
+ * statements are appended as one JSON object per line to the file named
+ * by hotel.slowQueryLog (default slow_queries.log).  When hotel.metrics.port
+ * is set, the counters are served in the Prometheus text format on that
+ * local port.  Recording takes no locks: a few atomic increments and two
+ * System.nanoTime() calls per statement.  It can be switched off with
+ * -Dhotel.metrics=false, HotelBench reports the cost per statement.
+ *
+ */
+public class QueryMetrics {
+
+   static final boolean ENABLED = !"false".equals(System.getProperty("hotel.metrics"));
+
+   private static final ThreadLocal<String> OPERATION = new ThreadLocal<String>() {
+      protected String initialValue() {
+         return "other";
+      }
+   };
+
+   /**
+    * Log-linear histogram of microsecond values: exact below 2^SUB_BITS,
+    * then 2^(SUB_BITS-1) buckets per power of two, so any recorded value
+    * is reported within 1/64 of its true value.
+    */
+   static class Histogram {
+      static final int SUB_BITS = 7;
+      static final int SUB = 1 << SUB_BITS;
+      static final int HALF = SUB / 2;
+      // values up to 2^40 us (about 12 days), larger ones land in the last bucket
+      static final int BUCKETS = SUB + (40 - SUB_BITS + 1) * HALF;
+
+      private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+      private final AtomicLong count = new AtomicLong();
+      private final AtomicLong sum = new AtomicLong();
+      private final AtomicLong max = new AtomicLong();
+
+      static int index(long value) {
+         if (value < SUB)
+            return (int) Math.max(0, value);
+         int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+         return (int) Math.min(BUCKETS - 1, SUB + (shift - 1) * HALF + ((value >>> shift) - HALF));
+      }
+
+      // largest value that falls into the bucket
+      static long highestEquivalent(int index) {
+         if (index < SUB)
+            return index;
+         int shift = (index - SUB) / HALF + 1;
+         long sub = (index - SUB) % HALF + HALF;
+         return ((sub + 1) << shift) - 1;
+      }
+
+      void record(long value) {
+         counts.incrementAndGet(index(value));
+         count.incrementAndGet();
+         sum.addAndGet(value);
+         long m;
+         while (value > (m = max.get()) && !max.compareAndSet(m, value))
+            ;
+      }
+
+      long count() {
+         return count.get();
+      }
+
+      long sum() {
+         return sum.get();
+      }
+
+      long max() {
+         return max.get();
+      }
+
+      /**
+       * @return the value at quantile q (0..1), 0 when nothing was recorded
+       */
+      long percentile(double q) {
+         long total = count.get();
+         if (total == 0)
+            return 0;
+         long rank = Math.max(1, (long) Math.ceil(q * total));
+         long seen = 0;
+         for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts.get(i);
+            if (seen >= rank)
+               return Math.min(highestEquivalent(i), max.get());
+         }
+         return max.get();
+      }
+   }//end Histogram
+
+   private static class Stats {
+      final Histogram latency = new Histogram();
+      final AtomicLong rows = new AtomicLong();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong slow = new AtomicLong();
+   }//end Stats
+
+   private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+   private final long slowNanos;
+   private final String slowLogFile;
+   private PrintWriter slowLog = null;
+   private ServerSocket endpoint = null;
+
+   public QueryMetrics() {
+      this(Long.getLong("hotel.slowQueryMs", 200L), System.getProperty("hotel.slowQueryLog", "slow_queries.log"));
+   }
+
+   public QueryMetrics(long slowMillis, String slowLogFile) {
+      this.slowNanos = slowMillis * 1000000L;
+      this.slowLogFile = slowLogFile;
+   }
+
+   /**
+    * Names the operation the statements of the calling thread belong to,
+    * until the next call.
+    */
+   public static void setOperation(String operation) {
+      OPERATION.set(operation);
+   }
+
+   public static String operation() {
+      return OPERATION.get();
+   }
+
+   private Stats statsOf(String operation) {
+      Stats s = stats.get(operation);
+      if (s == null) {
+         Stats created = new Stats();
+         s = stats.putIfAbsent(operation, created);
+         if (s == null)
+            s = created;
+      }
+      return s;
+   }
+
+   /**
+    * Records one statement run by the current operation.
+    *
+    * @param sql the statement text, only used for the slow query log
+    * @param startNanos System.nanoTime() taken before the statement
+    * @param rows rows returned or changed
+    * @param error the exception the statement failed with, or null
+    */
+   public void record(String sql, long startNanos, long rows, SQLException error) {
+      if (!ENABLED)
+         return;
+      long elapsed = System.nanoTime() - startNanos;
+      String operation = OPERATION.get();
+      Stats s = statsOf(operation);
+      s.latency.record(elapsed / 1000);
+      s.rows.addAndGet(rows);
+      if (error != null)
+         s.errors.incrementAndGet();
+      if (elapsed >= slowNanos || error != null) {
+         if (elapsed >= slowNanos)
+            s.slow.incrementAndGet();
+         logStatement(operation, sql, elapsed, rows, error);
+      }
+   }//end record
+
+   private synchronized void logStatement(String operation, String sql, long elapsed, long rows, SQLException error) {
+      try{
+         if (slowLog == null)
+            slowLog = new PrintWriter(new FileWriter(slowLogFile, true));
+         StringBuilder line = new StringBuilder("{\"time\":\"");
+         line.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new java.util.Date()));
+         line.append("\",\"thread\":\"").append(json(Thread.currentThread().getName()));
+         line.append("\",\"operation\":\"").append(json(operation));
+         line.append("\",\"ms\":").append(elapsed / 1000 / 1000.0);
+         line.append(",\"rows\":").append(rows);
+         if (error != null) {
+            line.append(",\"sqlState\":\"").append(json(error.getSQLState()));
+            line.append("\",\"error\":\"").append(json(error.getMessage())).append('"');
+         }
+         line.append(",\"sql\":\"").append(json(sql)).append("\"}");
+         slowLog.println(line);
+         slowLog.flush();
+      }catch (IOException e){
+         // the log is best effort, the statement itself went through
+      }
+   }//end logStatement
+
+   private static String json(String s) {
+      if (s == null)
+         return "";
+      StringBuilder sb = new StringBuilder(s.length());
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         if (c == '"' || c == '\\')
+            sb.append('\\').append(c);
+         else if (c < ' ')
+            sb.append(String.format("\\u%04x", (int) c));
+         else
+            sb.append(c);
+      }
+      return sb.toString();
+   }
+
+   /**
+    * @return every counter in the Prometheus text exposition format,
+    *         latencies in seconds
+    */
+   public String dump() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("# TYPE hotel_statement_seconds summary\n");
+      Map<String, Stats> sorted = new TreeMap<String, Stats>(stats);
+      for (Map.Entry<String, Stats> e : sorted.entrySet()) {
+         String label = "operation=\"" + e.getKey() + "\"";
+         Histogram h = e.getValue().latency;
+         for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 })
+            sb.append("hotel_statement_seconds{").append(label).append(",quantile=\"").append(q).append("\"} ")
+              .append(h.percentile(q) / 1e6).append('\n');
+         sb.append("hotel_statement_seconds_sum{").append(label).append("} ").append(h.sum() / 1e6).append('\n');
+         sb.append("hotel_statement_seconds_count{").append(label).append("} ").append(h.count()).append('\n');
+      }
+      counter(sb, sorted, "hotel_statement_rows_total", 0);
+      counter(sb, sorted, "hotel_statement_errors_total", 1);
+      counter(sb, sorted, "hotel_statement_slow_total", 2);
+      return sb.toString();
+   }//end dump
+
+   private static void counter(StringBuilder sb, Map<String, Stats> sorted, String name, int which) {
+      sb.append("# TYPE ").append(name).append(" counter\n");
+      for (Map.Entry<String, Stats> e : sorted.entrySet()) {
+         Stats s = e.getValue();
+         long value = which == 0 ? s.rows.get() : which == 1 ? s.errors.get() : s.slow.get();
+         sb.append(name).append("{operation=\"").append(e.getKey()).append("\"} ").append(value).append('\n');
+      }
+   }
+
+   /**
+    * @return one line per operation with its statement count, latency
+    *         percentiles in ms, rows and errors
+    */
+   public String summary() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%-32s %9s %9s %9s %9s %9s %10s %7s%n",
+                              "operation", "stmts", "mean ms", "p50 ms", "p99 ms", "max ms", "rows", "errors"));
+      for (Map.Entry<String, Stats> e : new TreeMap<String, Stats>(stats).entrySet()) {
+         Histogram h = e.getValue().latency;
+         long n = h.count();
+         sb.append(String.format("%-32s %9d %9.3f %9.3f %9.3f %9.3f %10d %7d%n", e.getKey(), n,
+                                 n == 0 ? 0.0 : h.sum() / 1e3 / n, h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+                                 h.max() / 1e3, e.getValue().rows.get(), e.getValue().errors.get()));
+      }
+      return sb.toString();
+   }//end summary
+
+   /**
+    * Serves dump() over HTTP on the loopback interface from a daemon
+    * thread, whatever the request path.
+    */
+   public synchronized void serve(int port) throws IOException {
+      endpoint = new ServerSocket(port, 16, InetAddress.getByName("127.0.0.1"));
+      final ServerSocket listener = endpoint;
+      Thread t = new Thread("metrics-endpoint") {
+         public void run() {
+            while (!listener.isClosed()) {
+               Socket socket = null;
+               try{
+                  socket = listener.accept();
+                  socket.setSoTimeout(2000);
+                  // the request itself does not matter, read its first bytes and answer
+                  InputStream in = socket.getInputStream();
+                  in.read(new byte[1024]);
+                  byte[] body = dump().getBytes("UTF-8");
+                  OutputStream out = socket.getOutputStream();
+                  out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4\r\nContent-Length: "
+                             + body.length + "\r\n\r\n").getBytes("UTF-8"));
+                  out.write(body);
+                  out.flush();
+               }catch (IOException e){
+                  // closed, or a client that went away
+               }finally{
+                  try{
+                     if (socket != null)
+                        socket.close();
+                  }catch (IOException e){
+                     // ignored.
+                  }
+               }
+            }
+         }
+      };
+      t.setDaemon(true);
+      t.start();
+   }//end serve
+
+   public synchronized void close() {
+      try{
+         if (endpoint != null)
+            endpoint.close();
+      }catch (IOException e){
+         // ignored.
+      }
+      if (slowLog != null)
+         slowLog.close();
+   }
+
+}//end QueryMetrics
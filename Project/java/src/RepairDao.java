@@ -0,0 +1,161 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Data access for RoomRepairs and RoomRepairRequests.
+ *
+ */
+public class RepairDao {
+
+   private static final RowMapper<RoomRepair> REPAIR = new RowMapper<RoomRepair>() {
+      public RoomRepair map(ResultSet rs) throws SQLException {
+         return new RoomRepair(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getDate(5),
+                               rs.getString(6));
+      }
+   };
+
+   static final String REPAIR_COLUMNS = "repairID, companyID, hotelID, roomNumber, repairDate, status";
+
+   // repairs per statement of placeRequests, 3 parameters each
+   static final int REQUEST_CHUNK = 1000;
+
+   private final Hotel esql;
+
+   public RepairDao(Hotel esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * Inserts a repair dated today and the manager's request for it in one
+    * statement, so the request always points at the repair it created,
+    * whatever other sessions insert meanwhile, and neither row exists
+    * without the other.
+    *
+    * @return the repairID of the new repair
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public int placeRequest(int managerID, int companyID, int hotelID, int roomNumber) throws SQLException {
+      return esql.queryFirst("WITH repair AS (INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate)"
+                             + " VALUES (?, ?, ?, CURRENT_DATE) RETURNING repairID)"
+                             + " INSERT INTO RoomRepairRequests (managerID, repairID) SELECT ?, repairID FROM repair"
+                             + " RETURNING repairID",
+                             Hotel.INT, companyID, hotelID, roomNumber, managerID);
+   }
+
+   /**
+    * Places a batch of repair requests, e.g. after an inspection sweep,
+    * in one transaction: either every room gets its repair and request
+    * or none does.  The requests are grouped per company, so the repairs
+    * of one company get consecutive repairIDs, and inserted a chunk at a
+    * time with one statement that writes both tables.
+    *
+    * @return the new repairIDs per companyID
+    * @throws java.sql.SQLException when a room or company does not exist
+    *         or the insert failed; nothing was placed then
+    */
+   public Map<Integer, List<Integer>> placeRequests(int managerID, List<RepairRequest> requests) throws SQLException {
+      Map<Integer, List<RepairRequest>> byCompany = new TreeMap<Integer, List<RepairRequest>>();
+      for (RepairRequest r : requests) {
+         List<RepairRequest> company = byCompany.get(r.companyID);
+         if (company == null)
+            byCompany.put(r.companyID, company = new ArrayList<RepairRequest>());
+         company.add(r);
+      }
+      List<RepairRequest> ordered = new ArrayList<RepairRequest>(requests.size());
+      for (List<RepairRequest> company : byCompany.values())
+         ordered.addAll(company);
+
+      Map<Integer, List<Integer>> placed = new TreeMap<Integer, List<Integer>>();
+      if (ordered.isEmpty())
+         return placed;
+      long start = System.nanoTime();
+      int rows = 0;
+      SQLException failure = null;
+      PooledConnection conn = esql.getConnection();
+      try{
+         conn.getConnection().setAutoCommit(false);
+         for (int from = 0; from < ordered.size(); from += REQUEST_CHUNK) {
+            List<RepairRequest> chunk = ordered.subList(from, Math.min(from + REQUEST_CHUNK, ordered.size()));
+            StringBuilder values = new StringBuilder("(VALUES ");
+            Object[] params = new Object[chunk.size() * 4 + 1];
+            int n = 0;
+            for (RepairRequest r : chunk) {
+               values.append(n == 0 ? "" : ", ").append("(?::integer, ?::integer, ?::integer, ?::integer)");
+               params[n] = n / 4;
+               params[n + 1] = r.companyID;
+               params[n + 2] = r.hotelID;
+               params[n + 3] = r.roomNumber;
+               n += 4;
+            }
+            params[n] = managerID;
+            PreparedStatement stmt = conn.prepare("WITH repair AS (INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate)"
+                                                  + " SELECT V.companyID, V.hotelID, V.roomNumber, CURRENT_DATE"
+                                                  + " FROM " + values + ") AS V(n, companyID, hotelID, roomNumber) ORDER BY V.n"
+                                                  + " RETURNING repairID, companyID),"
+                                                  + " request AS (INSERT INTO RoomRepairRequests (managerID, repairID)"
+                                                  + " SELECT ?, repairID FROM repair)"
+                                                  + " SELECT repairID, companyID FROM repair ORDER BY repairID");
+            Hotel.bind(stmt, params);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+               List<Integer> ids = placed.get(rs.getInt(2));
+               if (ids == null)
+                  placed.put(rs.getInt(2), ids = new ArrayList<Integer>());
+               ids.add(rs.getInt(1));
+               ++rows;
+            }
+            rs.close();
+         }
+         conn.getConnection().commit();
+         return placed;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         // release() rolls back whatever was not committed
+         conn.release();
+         esql.metrics().record("placeRequests: " + ordered.size() + " repairs", start, rows, failure);
+      }
+   }//end placeRequests
+
+   /**
+    * Reads one page of a hotel's repairs, newest first, for every company
+    * or only for the given one.  The page is one backward range scan of
+    * the (hotelID, repairID) or (hotelID, companyID, repairID) index that
+    * starts right below the given repairID.
+    *
+    * @param companyID the company to show, null for all of them
+    * @param before the last repairID of the previous page, null for the
+    *        first page
+    */
+   public RepairPage historyPage(int hotelID, Integer companyID, Integer before, int size) throws SQLException {
+      int key = before == null ? Integer.MAX_VALUE : before;
+      List<RoomRepair> repairs = companyID == null
+         ? esql.query("SELECT " + REPAIR_COLUMNS + " FROM RoomRepairs WHERE hotelID = ? AND repairID < ?"
+                      + " ORDER BY repairID DESC LIMIT ?",
+                      REPAIR, hotelID, key, size + 1)
+         : esql.query("SELECT " + REPAIR_COLUMNS + " FROM RoomRepairs WHERE hotelID = ? AND companyID = ? AND repairID < ?"
+                      + " ORDER BY repairID DESC LIMIT ?",
+                      REPAIR, hotelID, companyID, key, size + 1);
+      boolean hasMore = repairs.size() > size;
+      return new RepairPage(hasMore ? repairs.subList(0, size) : repairs, hasMore);
+   }
+
+   /**
+    * Marks a dispatched repair of the hotel completed.
+    *
+    * @return false when the hotel has no such repair or it was not
+    *         dispatched
+    */
+   public boolean complete(int hotelID, int repairID) throws SQLException {
+      return esql.update("UPDATE RoomRepairs SET status = 'completed', statusChanged = CURRENT_TIMESTAMP"
+                         + " WHERE repairID = ? AND hotelID = ? AND status = 'dispatched'",
+                         repairID, hotelID) == 1;
+   }
+
+}//end RepairDao
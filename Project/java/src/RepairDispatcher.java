@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sends the requested repairs to their maintenance companies, a batch of
+ * one company at a time.  Each batch is its own transaction: its rows
+ * are locked with FOR UPDATE SKIP LOCKED, so dispatchers in several
+ * sessions share the work instead of sending a repair twice, handed to
+ * the company's endpoint and only then marked dispatched.  A batch the
+ * company refuses is rolled back and stays requested for the next run.
+ *
+ * The endpoint is an HttpCompanyEndpoint when -Dhotel.repairs.endpoint
+ * gives a URL pattern with a %d for the companyID, otherwise an in-process
+ * StubCompanyServer, so dispatching works without any real company.
+ *
+ */
+public class RepairDispatcher {
+
+   static final int BATCH = Integer.getInteger("hotel.repairs.batch", 100);
+   static final int ATTEMPTS = 3;
+
+   private final Hotel esql;
+   private final CompanyEndpoint endpoint;
+   private final StubCompanyServer stub;
+
+   public RepairDispatcher(Hotel esql, CompanyEndpoint endpoint) {
+      this.esql = esql;
+      this.endpoint = endpoint;
+      this.stub = null;
+   }
+
+   private RepairDispatcher(Hotel esql, StubCompanyServer stub, String urlPattern) {
+      this.esql = esql;
+      this.endpoint = new HttpCompanyEndpoint(urlPattern, Integer.getInteger("hotel.repairs.timeout", 5000));
+      this.stub = stub;
+   }
+
+   /**
+    * @return a dispatcher to the configured endpoint, or to a local stub
+    *         when none is configured
+    */
+   public static RepairDispatcher create(Hotel esql) throws IOException {
+      String urlPattern = System.getProperty("hotel.repairs.endpoint");
+      if (urlPattern != null)
+         return new RepairDispatcher(esql, null, urlPattern);
+      StubCompanyServer stub = new StubCompanyServer(Integer.getInteger("hotel.repairs.stub.failEvery", 0));
+      return new RepairDispatcher(esql, stub, stub.start(0));
+   }
+
+   /**
+    * @return the stub companies' endpoint, null when a real one is used
+    */
+   public StubCompanyServer stub() {
+      return stub;
+   }
+
+   /**
+    * Dispatches every requested repair of the given hotels.
+    *
+    * @return a line that sums up what was sent and what failed
+    */
+   public String dispatch(Collection<Integer> hotels) throws SQLException {
+      if (hotels.isEmpty())
+         return "Nothing to dispatch";
+      StringBuilder in = new StringBuilder();
+      for (int i = 0; i < hotels.size(); ++i)
+         in.append(i == 0 ? "?" : ", ?");
+      List<Integer> companies = esql.query("SELECT DISTINCT companyID FROM RoomRepairs"
+                                           + " WHERE status = 'requested' AND hotelID IN (" + in + ") ORDER BY companyID",
+                                           Hotel.INT,
+                                           hotels.toArray());
+      int sent = 0, batches = 0, failed = 0;
+      for (int companyID : companies) {
+         int attempt = 0;
+         while (true) {
+            try{
+               int n = dispatchBatch(companyID, hotels, in.toString());
+               if (n == 0)
+                  break;
+               sent += n;
+               ++batches;
+               attempt = 0;
+            }catch (IOException e){
+               ++failed;
+               // the company's remaining repairs wait for the next run
+               if (++attempt == ATTEMPTS)
+                  break;
+               Hotel.backoff(attempt + 4);
+            }
+         }
+      }
+      return "Dispatched " + sent + " repairs in " + batches + " batches to " + companies.size() + " companies, "
+         + failed + " batches refused";
+   }//end dispatch
+
+   /**
+    * Locks, sends and marks one batch of the company's requested repairs.
+    *
+    * @return the number of repairs dispatched, 0 when none is left
+    * @throws java.io.IOException when the company did not take them, the
+    *         repairs stay requested then
+    */
+   private int dispatchBatch(int companyID, Collection<Integer> hotels, String in) throws SQLException, IOException {
+      long start = System.nanoTime();
+      List<RoomRepair> batch = new ArrayList<RoomRepair>();
+      SQLException failure = null;
+      PooledConnection conn = esql.getConnection();
+      try{
+         conn.getConnection().setAutoCommit(false);
+         Object[] params = new Object[hotels.size() + 2];
+         int n = 0;
+         params[n++] = companyID;
+         for (int hotelID : hotels)
+            params[n++] = hotelID;
+         params[n] = BATCH;
+         PreparedStatement stmt = conn.prepare("SELECT " + RepairDao.REPAIR_COLUMNS + " FROM RoomRepairs"
+                                               + " WHERE status = 'requested' AND companyID = ? AND hotelID IN (" + in + ")"
+                                               + " ORDER BY repairID LIMIT ? FOR UPDATE SKIP LOCKED");
+         Hotel.bind(stmt, params);
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next())
+            batch.add(new RoomRepair(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getDate(5), rs.getString(6)));
+         rs.close();
+         if (batch.isEmpty())
+            return 0;
+
+         endpoint.dispatch(companyID, batch);
+
+         StringBuilder ids = new StringBuilder();
+         Object[] repairIDs = new Object[batch.size()];
+         for (int i = 0; i < batch.size(); ++i) {
+            ids.append(i == 0 ? "?" : ", ?");
+            repairIDs[i] = batch.get(i).repairID;
+         }
+         stmt = conn.prepare("UPDATE RoomRepairs SET status = 'dispatched', statusChanged = CURRENT_TIMESTAMP"
+                             + " WHERE repairID IN (" + ids + ")");
+         Hotel.bind(stmt, repairIDs);
+         stmt.executeUpdate();
+         conn.getConnection().commit();
+         return batch.size();
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }catch (IOException e){
+         // logged like a failed statement, with the company's answer
+         failure = new SQLException("company " + companyID + ": " + e.getMessage());
+         throw e;
+      }finally{
+         // release() rolls back whatever was not committed
+         conn.release();
+         esql.metrics().record("dispatchRepairs: company " + companyID, start, batch.size(), failure);
+      }
+   }//end dispatchBatch
+
+   public void close() {
+      if (stub != null)
+         stub.close();
+   }
+
+}//end RepairDispatcher
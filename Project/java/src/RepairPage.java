@@ -0,0 +1,26 @@
+import java.util.List;
+
+/**
+ * One page of a hotel's repair history, newest first.  The next page
+ * starts below the repairID of the last repair of this one.
+ *
+ */
+public class RepairPage {
+
+   public final List<RoomRepair> repairs;
+   public final boolean hasMore;
+
+   public RepairPage(List<RoomRepair> repairs, boolean hasMore) {
+      this.repairs = repairs;
+      this.hasMore = hasMore;
+   }
+
+   /**
+    * @return the repairID to pass as the key of the next page, null for
+    *         an empty page
+    */
+   public Integer last() {
+      return repairs.isEmpty() ? null : repairs.get(repairs.size() - 1).repairID;
+   }
+
+}//end RepairPage
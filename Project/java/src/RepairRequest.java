@@ -0,0 +1,22 @@
+/**
+ * A room to repair and the maintenance company to send it to, as placed
+ * by a batch of repair requests.
+ *
+ */
+public class RepairRequest {
+
+   public final int hotelID;
+   public final int roomNumber;
+   public final int companyID;
+
+   public RepairRequest(int hotelID, int roomNumber, int companyID) {
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.companyID = companyID;
+   }
+
+   public String toString() {
+      return "hotel " + hotelID + " room " + roomNumber + " by company " + companyID;
+   }
+
+}//end RepairRequest
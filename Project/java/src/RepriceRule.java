@@ -0,0 +1,68 @@
+import java.util.Locale;
+
+/**
+ * A price change for a range of rooms of one hotel, written as
+ * "&lt;hotelID&gt; &lt;rooms&gt; &lt;change&gt;": rooms is a room number, a range
+ * such as 1-50 or * for every room, change is +8% or -5% (relative),
+ * +10 or -10 (added to the price) or =120 (the new price), e.g.
+ * "17 1-50 +8%".
+ *
+ */
+public class RepriceRule {
+
+   public final int hotelID;
+   public final int fromRoom;
+   public final int toRoom;
+   // the new price is round(price * factor) + delta, or setTo when given
+   public final double factor;
+   public final int delta;
+   public final Integer setTo;
+
+   public RepriceRule(int hotelID, int fromRoom, int toRoom, double factor, int delta, Integer setTo) {
+      this.hotelID = hotelID;
+      this.fromRoom = fromRoom;
+      this.toRoom = toRoom;
+      this.factor = factor;
+      this.delta = delta;
+      this.setTo = setTo;
+   }
+
+   /**
+    * @throws java.lang.IllegalArgumentException when the text is not a rule
+    */
+   public static RepriceRule parse(String text) {
+      String[] f = text.trim().split("\\s+");
+      if (f.length != 3)
+         throw new IllegalArgumentException("not a rule, expected <hotelID> <rooms> <change>: " + text);
+      try{
+         int hotelID = Integer.parseInt(f[0]);
+         int from = 0;
+         int to = Integer.MAX_VALUE;
+         if (!f[1].equals("*")) {
+            int dash = f[1].indexOf('-', 1);
+            from = Integer.parseInt(dash < 0 ? f[1] : f[1].substring(0, dash));
+            to = dash < 0 ? from : Integer.parseInt(f[1].substring(dash + 1));
+         }
+         String change = f[2];
+         if (change.startsWith("="))
+            return new RepriceRule(hotelID, from, to, 1.0, 0, Integer.parseInt(change.substring(1)));
+         if (!change.startsWith("+") && !change.startsWith("-"))
+            throw new NumberFormatException();
+         int sign = change.startsWith("-") ? -1 : 1;
+         if (change.endsWith("%"))
+            return new RepriceRule(hotelID, from, to, 1 + sign * Double.parseDouble(change.substring(1, change.length() - 1)) / 100,
+                                   0, null);
+         return new RepriceRule(hotelID, from, to, 1.0, sign * Integer.parseInt(change.substring(1)), null);
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException("not a rule, expected e.g. '17 1-50 +8%': " + text);
+      }
+   }//end parse
+
+   public String toString() {
+      String rooms = fromRoom == 0 && toRoom == Integer.MAX_VALUE ? "*" : fromRoom == toRoom ? "" + fromRoom : fromRoom + "-" + toRoom;
+      String change = setTo != null ? "=" + setTo : factor != 1.0 ? String.format(Locale.ROOT, "%+.2f%%", (factor - 1) * 100)
+                      : String.format(Locale.ROOT, "%+d", delta);
+      return hotelID + " " + rooms + " " + change;
+   }
+
+}//end RepriceRule
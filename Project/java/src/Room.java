@@ -0,0 +1,19 @@
+/**
+ * A row of the Rooms table.
+ *
+ */
+public class Room {
+
+   public final int hotelID;
+   public final int roomNumber;
+   public final int price;
+   public final String imageURL;
+
+   public Room(int hotelID, int roomNumber, int price, String imageURL) {
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.price = price;
+      this.imageURL = imageURL;
+   }
+
+}//end Room
@@ -0,0 +1,329 @@
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Data access for Rooms and RoomUpdatesLog.
+ *
+ */
+public class RoomDao {
+
+   private static final RowMapper<Room> ROOM = new RowMapper<Room>() {
+      public Room map(ResultSet rs) throws SQLException {
+         return new Room(rs.getInt(1), rs.getInt(2), rs.getInt(3), Hotel.trimmed(rs.getString(4)));
+      }
+   };
+
+   private static final RowMapper<RoomUpdate> ROOM_UPDATE = new RowMapper<RoomUpdate>() {
+      public RoomUpdate map(ResultSet rs) throws SQLException {
+         return new RoomUpdate(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getTimestamp(4));
+      }
+   };
+
+   private final Hotel esql;
+
+   public RoomDao(Hotel esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * @return the rooms of the hotel that have no booking on the given date
+    */
+   public List<Room> availableRooms(int hotelID, Date date) throws SQLException {
+      AvailabilityCache cache = esql.availability();
+      BitSet booked = cache.get(hotelID, date);
+      List<Room> available = new ArrayList<Room>();
+      if (booked != null) {
+         for (Room room : roomsOf(hotelID))
+            if (!booked.get(room.roomNumber))
+               available.add(room);
+         return available;
+      }
+
+      // miss: only the booked room numbers come from the database, the rooms from the catalog
+      long token = cache.beginLoad();
+      final BitSet loaded = new BitSet();
+      esql.query("SELECT roomNumber FROM RoomBookings WHERE hotelID = ? AND bookingDate = ?", new RowMapper<Void>() {
+         public Void map(ResultSet rs) throws SQLException {
+            loaded.set(rs.getInt(1));
+            return null;
+         }
+      }, hotelID, date);
+      cache.put(hotelID, date, loaded, token);
+      for (Room room : roomsOf(hotelID))
+         if (!loaded.get(room.roomNumber))
+            available.add(room);
+      return available;
+   }//end availableRooms
+
+   /**
+    * Builds the hotel's availability over the given days from one range
+    * scan of its bookings; the rooms come from the catalog.  Every day of
+    * the range is put into the availability cache on the way, so viewRooms
+    * for any of those dates is answered from memory afterwards.
+    */
+   public AvailabilityCalendar calendar(int hotelID, Date firstDay, int days) throws SQLException {
+      List<Room> rooms = roomsOf(hotelID);
+      int[] numbers = new int[rooms.size()];
+      for (int i = 0; i < numbers.length; ++i)
+         numbers[i] = rooms.get(i).roomNumber;
+      final AvailabilityCalendar calendar = new AvailabilityCalendar(hotelID, firstDay, days, numbers);
+      final int first = Hotel.epochDay(firstDay);
+
+      AvailabilityCache cache = esql.availability();
+      long token = cache.beginLoad();
+      esql.query("SELECT roomNumber, bookingDate FROM RoomBookings WHERE hotelID = ? AND bookingDate >= ? AND bookingDate < ?",
+                 new RowMapper<Void>() {
+                    public Void map(ResultSet rs) throws SQLException {
+                       calendar.markBooked(rs.getInt(1), Hotel.epochDay(rs.getDate(2)) - first);
+                       return null;
+                    }
+                 }, hotelID, firstDay, calendar.date(days));
+      for (int day = 0; day < days; ++day)
+         cache.put(hotelID, calendar.date(day), calendar.bookedOn(day), token);
+      return calendar;
+   }//end calendar
+
+   /**
+    * @return every room of the hotel, ordered by room number
+    */
+   public List<Room> roomsOf(int hotelID) throws SQLException {
+      List<Room> rooms = esql.catalog().rooms(hotelID);
+      if (rooms != null)
+         return rooms;
+      // a hotel added after the catalog was loaded
+      return esql.query("SELECT hotelID, roomNumber, price, imageURL FROM Rooms WHERE hotelID = ? ORDER BY roomNumber",
+                        ROOM, hotelID);
+   }
+
+   /**
+    * @return the room, or null if the hotel has no such room
+    */
+   public Room find(int hotelID, int roomNumber) throws SQLException {
+      Room room = esql.catalog().room(hotelID, roomNumber);
+      if (room != null)
+         return room;
+      return esql.queryFirst("SELECT hotelID, roomNumber, price, imageURL FROM Rooms WHERE hotelID = ? AND roomNumber = ?",
+                             ROOM, hotelID, roomNumber);
+   }
+
+   public int updatePrice(int hotelID, int roomNumber, int price) throws SQLException {
+      try{
+         return esql.update("UPDATE Rooms SET price = ? WHERE hotelID = ? AND roomNumber = ?", price, hotelID, roomNumber);
+      }finally{
+         esql.catalog().invalidate(hotelID);
+      }
+   }
+
+   public int updateImageURL(int hotelID, int roomNumber, String imageURL) throws SQLException {
+      try{
+         return esql.update("UPDATE Rooms SET imageURL = ? WHERE hotelID = ? AND roomNumber = ?", imageURL, hotelID, roomNumber);
+      }finally{
+         esql.catalog().invalidate(hotelID);
+      }
+   }
+
+   /**
+    * Changes the room's price and logs the change in RoomUpdatesLog,
+    * either in the same statement or through the audit log queue.  The
+    * queued entry is journaled after the update committed; a crash in
+    * between loses the log row, use hotel.audit=transaction where every
+    * change must be logged.
+    *
+    * @return the number of rooms changed, 0 if the room does not exist
+    */
+   public int changePrice(int managerID, int hotelID, int roomNumber, int price) throws SQLException {
+      if (!esql.audit().inTransaction()) {
+         int changed = updatePrice(hotelID, roomNumber, price);
+         if (changed > 0)
+            esql.audit().record(managerID, hotelID, roomNumber);
+         return changed;
+      }
+      try{
+         return esql.update("WITH changed AS (UPDATE Rooms SET price = ? WHERE hotelID = ? AND roomNumber = ?"
+                            + " RETURNING hotelID, roomNumber) " + LOG_CHANGED, price, hotelID, roomNumber, managerID);
+      }finally{
+         esql.catalog().invalidate(hotelID);
+      }
+   }//end changePrice
+
+   /**
+    * Changes the room's image URL and logs the change like changePrice.
+    *
+    * @return the number of rooms changed, 0 if the room does not exist
+    */
+   public int changeImageURL(int managerID, int hotelID, int roomNumber, String imageURL) throws SQLException {
+      if (!esql.audit().inTransaction()) {
+         int changed = updateImageURL(hotelID, roomNumber, imageURL);
+         if (changed > 0)
+            esql.audit().record(managerID, hotelID, roomNumber);
+         return changed;
+      }
+      try{
+         return esql.update("WITH changed AS (UPDATE Rooms SET imageURL = ? WHERE hotelID = ? AND roomNumber = ?"
+                            + " RETURNING hotelID, roomNumber) " + LOG_CHANGED, imageURL, hotelID, roomNumber, managerID);
+      }finally{
+         esql.catalog().invalidate(hotelID);
+      }
+   }//end changeImageURL
+
+   // logs the rooms of a "changed" CTE for the manager bound last
+   private static final String LOG_CHANGED = "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn)"
+                                             + " SELECT ?, hotelID, roomNumber, CURRENT_TIMESTAMP FROM changed";
+
+   // rows per VALUES list of a bulk repricing
+   private static final int REPRICE_CHUNK = 1000;
+
+   /**
+    * Applies the rules in one transaction, one set-based UPDATE per chunk
+    * of rules that also writes the RoomUpdatesLog rows of the rooms it
+    * changed.  A room matched by several rules takes the last of them,
+    * whichever chunk they are in: the chunks run from the last to the
+    * first, and a temporary table of the rooms repriced so far keeps the
+    * earlier chunks off them.  Prices never go below 0.
+    *
+    * @return the number of rooms repriced
+    */
+   public int reprice(int managerID, List<RepriceRule> rules) throws SQLException {
+      List<String> statements = new ArrayList<String>();
+      List<Object[]> params = new ArrayList<Object[]>();
+      Set<Integer> hotels = new HashSet<Integer>();
+      boolean chunked = rules.size() > REPRICE_CHUNK;
+      if (chunked) {
+         statements.add("CREATE TEMP TABLE repriced (hotelID integer, roomNumber integer,"
+                        + " PRIMARY KEY (hotelID, roomNumber)) ON COMMIT DROP");
+         params.add(new Object[0]);
+      }
+      int first = statements.size();
+      for (int from = 0; from < rules.size(); from += REPRICE_CHUNK) {
+         List<RepriceRule> chunk = rules.subList(from, Math.min(from + REPRICE_CHUNK, rules.size()));
+         StringBuilder values = new StringBuilder("(VALUES ");
+         Object[] p = new Object[chunk.size() * 7 + 1];
+         int i = 0;
+         int n = from;
+         for (RepriceRule r : chunk) {
+            values.append(i == 0 ? "" : ", ")
+                  .append("(?::integer, ?::integer, ?::integer, ?::integer, ?::float8, ?::integer, ?::integer)");
+            p[i++] = n++;
+            p[i++] = r.hotelID;
+            p[i++] = r.fromRoom;
+            p[i++] = r.toRoom;
+            p[i++] = r.factor;
+            p[i++] = r.delta;
+            p[i++] = r.setTo;
+            hotels.add(r.hotelID);
+         }
+         p[i] = managerID;
+         String sql = "WITH target AS (SELECT DISTINCT ON (R.hotelID, R.roomNumber) R.hotelID, R.roomNumber,"
+                      + " GREATEST(0, COALESCE(V.setTo, ROUND(R.price * V.factor)::integer + V.delta)) AS price"
+                      + " FROM Rooms R, " + values + ") AS V(n, hotelID, fromRoom, toRoom, factor, delta, setTo)"
+                      + " WHERE R.hotelID = V.hotelID AND R.roomNumber BETWEEN V.fromRoom AND V.toRoom"
+                      + (chunked ? " AND NOT EXISTS (SELECT 1 FROM repriced D"
+                                   + " WHERE D.hotelID = R.hotelID AND D.roomNumber = R.roomNumber)" : "")
+                      + " ORDER BY R.hotelID, R.roomNumber, V.n DESC),"
+                      + " changed AS (UPDATE Rooms R SET price = T.price FROM target T"
+                      + " WHERE R.hotelID = T.hotelID AND R.roomNumber = T.roomNumber RETURNING R.hotelID, R.roomNumber)"
+                      + (chunked ? ", done AS (INSERT INTO repriced SELECT hotelID, roomNumber FROM changed)" : "")
+                      + " " + LOG_CHANGED;
+         // the last chunk runs first
+         statements.add(first, sql);
+         params.add(first, p);
+      }
+      return inOneTransaction("reprice: " + rules.size() + " rules", statements, params, hotels);
+   }//end reprice
+
+   /**
+    * Sets the given prices in one transaction, one UPDATE ... FROM (VALUES)
+    * per chunk that also writes the RoomUpdatesLog rows.  A room listed
+    * twice gets its last price; rooms that do not exist are skipped.
+    *
+    * @return the number of rooms repriced
+    */
+   public int setPrices(int managerID, List<PriceChange> changes) throws SQLException {
+      Map<Long, PriceChange> last = new LinkedHashMap<Long, PriceChange>();
+      for (PriceChange c : changes)
+         last.put(((long) c.hotelID << 32) | (c.roomNumber & 0xffffffffL), c);
+      List<PriceChange> unique = new ArrayList<PriceChange>(last.values());
+      List<String> statements = new ArrayList<String>();
+      List<Object[]> params = new ArrayList<Object[]>();
+      Set<Integer> hotels = new HashSet<Integer>();
+      for (int from = 0; from < unique.size(); from += REPRICE_CHUNK) {
+         List<PriceChange> chunk = unique.subList(from, Math.min(from + REPRICE_CHUNK, unique.size()));
+         StringBuilder values = new StringBuilder("(VALUES ");
+         Object[] p = new Object[chunk.size() * 3 + 1];
+         int i = 0;
+         for (PriceChange c : chunk) {
+            values.append(i == 0 ? "" : ", ").append("(?::integer, ?::integer, ?::integer)");
+            p[i++] = c.hotelID;
+            p[i++] = c.roomNumber;
+            p[i++] = c.price;
+            hotels.add(c.hotelID);
+         }
+         p[i] = managerID;
+         statements.add("WITH changed AS (UPDATE Rooms R SET price = V.price FROM " + values
+                        + ") AS V(hotelID, roomNumber, price) WHERE R.hotelID = V.hotelID AND R.roomNumber = V.roomNumber"
+                        + " RETURNING R.hotelID, R.roomNumber) " + LOG_CHANGED);
+         params.add(p);
+      }
+      return inOneTransaction("setPrices: " + unique.size() + " rooms", statements, params, hotels);
+   }//end setPrices
+
+   /*
+    * Runs the statements in one transaction and invalidates the catalog
+    * of the hotels they touch, whether they commit or not.
+    *
+    * @return the rows changed by all statements together
+    */
+   private int inOneTransaction(String name, List<String> statements, List<Object[]> params, Set<Integer> hotels)
+      throws SQLException {
+      long start = System.nanoTime();
+      int changed = 0;
+      SQLException failure = null;
+      PooledConnection conn = esql.getConnection();
+      try{
+         conn.getConnection().setAutoCommit(false);
+         for (int i = 0; i < statements.size(); ++i) {
+            PreparedStatement stmt = conn.prepare(statements.get(i));
+            Hotel.bind(stmt, params.get(i));
+            changed += stmt.executeUpdate();
+         }
+         conn.getConnection().commit();
+         return changed;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         // release() rolls back whatever was not committed
+         conn.release();
+         for (int hotelID : hotels)
+            esql.catalog().invalidate(hotelID);
+         esql.metrics().record(name, start, changed, failure);
+      }
+   }//end inOneTransaction
+
+   /**
+    * Records in RoomUpdatesLog that a manager changed a room, right away.
+    */
+   public void logUpdate(int managerID, int hotelID, int roomNumber) throws SQLException {
+      esql.update("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES (?, ?, ?, CURRENT_TIMESTAMP)",
+                  managerID, hotelID, roomNumber);
+   }
+
+   /**
+    * @return the most recent room updates made by the manager, newest first
+    */
+   public List<RoomUpdate> recentUpdates(int managerID, int limit) throws SQLException {
+      return esql.query("SELECT managerID, hotelID, roomNumber, updatedOn FROM RoomUpdatesLog"
+                        + " WHERE managerID = ? ORDER BY updatedOn DESC LIMIT ?",
+                        ROOM_UPDATE, managerID, limit);
+   }
+
+}//end RoomDao
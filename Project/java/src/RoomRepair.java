@@ -0,0 +1,26 @@
+import java.sql.Date;
+
+/**
+ * A row of RoomRepairs.
+ *
+ */
+public class RoomRepair {
+
+   public final int repairID;
+   public final int companyID;
+   public final int hotelID;
+   public final int roomNumber;
+   public final Date repairDate;
+   // requested, dispatched or completed
+   public final String status;
+
+   public RoomRepair(int repairID, int companyID, int hotelID, int roomNumber, Date repairDate, String status) {
+      this.repairID = repairID;
+      this.companyID = companyID;
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.repairDate = repairDate;
+      this.status = status;
+   }
+
+}//end RoomRepair
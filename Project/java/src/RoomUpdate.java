@@ -0,0 +1,21 @@
+import java.sql.Timestamp;
+
+/**
+ * A row of RoomUpdatesLog.
+ *
+ */
+public class RoomUpdate {
+
+   public final int managerID;
+   public final int hotelID;
+   public final int roomNumber;
+   public final Timestamp updatedOn;
+
+   public RoomUpdate(int managerID, int hotelID, int roomNumber, Timestamp updatedOn) {
+      this.managerID = managerID;
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.updatedOn = updatedOn;
+   }
+
+}//end RoomUpdate
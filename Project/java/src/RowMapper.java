@@ -0,0 +1,19 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a ResultSet into a typed object.  Used by the
+ * parameterized query helpers of Hotel so the DAOs never have to go
+ * through List<List<String>>.
+ *
+ */
+public interface RowMapper<T> {
+
+   /**
+    * @param rs a result set positioned on the row to map
+    * @return the object built from that row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   T map(ResultSet rs) throws SQLException;
+
+}//end RowMapper
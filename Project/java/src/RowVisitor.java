@@ -0,0 +1,16 @@
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a streamed query one at a time, so callers can
+ * print or aggregate them without holding the whole result in memory.
+ *
+ */
+public interface RowVisitor<T> {
+
+   /**
+    * @param row the mapped row; it is not kept by the caller afterwards
+    * @throws java.sql.SQLException to abort the query
+    */
+   void visit(T row) throws SQLException;
+
+}//end RowVisitor
@@ -0,0 +1,60 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * The state of one interactive user: where their input comes from, where
+ * the menus are printed and who they are logged in as.  The console uses
+ * a single Session over System.in/System.out; HotelServer creates one
+ * per client connection.
+ *
+ */
+public class Session {
+
+   /**
+    * Thrown when the user's input stream ends, to unwind the menus.
+    */
+   public static class ClosedException extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      public ClosedException() {
+         super("input closed");
+      }
+   }//end ClosedException
+
+   public final BufferedReader in;
+   public final PrintStream out;
+   public final PrintStream err;
+
+   // the logged in user, null while logged out
+   Principal principal = null;
+
+   public Session(BufferedReader in, PrintStream out, PrintStream err) {
+      this.in = in;
+      this.out = out;
+      this.err = err;
+   }
+
+   /**
+    * @return the userID of the logged in user
+    */
+   public int userID() {
+      return principal.userID;
+   }
+
+   /**
+    * Reads one line of input
+    *
+    * @throws Session.ClosedException when the input has ended
+    * @throws java.io.IOException when reading failed
+    */
+   public String readLine() throws IOException {
+      // prompts are printed without a newline, make sure the user sees them
+      out.flush();
+      String line = in.readLine();
+      if (line == null)
+         throw new ClosedException();
+      return line;
+   }
+
+}//end Session
@@ -0,0 +1,90 @@
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the BookingSnapshot reports without a database: fills a
+ * snapshot with a seeded, synthetic booking history of any size (100
+ * million bookings fit in a 2 GB heap) and times the reports by hotel,
+ * month and room with 1, 2, 4 ... scan threads up to one per processor.
+ * Bookings are spread evenly over hotels of 50 rooms, 1,000 bookings
+ * per hotel unless given, and over the years from 2015 on.
+ *
+ */
+public class SnapshotBench {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1 || args.length > 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-Xmx<heap>] [-classpath <classpath>] " +
+            SnapshotBench.class.getName () +
+            " <bookings> [hotels] [years] [iterations]");
+         return;
+      }//end if
+      final long bookings = Long.parseLong(args[0]);
+      final int hotels = args.length > 1 ? Integer.parseInt(args[1]) : (int) Math.max(1, bookings / 1000);
+      int years = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+      int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+      final int roomsPerHotel = DataGenerator.ROOMS_PER_HOTEL;
+      int first = Hotel.epochDay(Date.valueOf("2015-01-01"));
+      int days = years * 365;
+
+      BookingSnapshot snapshot = new BookingSnapshot(null) {
+         protected List<Room> rooms(int hotelID) {
+            List<Room> rooms = new ArrayList<Room>(roomsPerHotel);
+            for (int n = 1; n <= roomsPerHotel; ++n)
+               rooms.add(new Room(hotelID, n, 50 + (hotelID * 31 + n * 7) % 200, null));
+            return rooms;
+         }
+      };
+      Random random = new Random(166L);
+      long start = System.nanoTime();
+      for (int id = 1; id <= bookings; ++id)
+         snapshot.add(id, 1 + random.nextInt(hotels), 1 + random.nextInt(roomsPerHotel), first + random.nextInt(days));
+      snapshot.publish();
+      System.out.println(String.format("built %d bookings in %.1f s", bookings, (System.nanoTime() - start) / 1e9));
+      System.gc();
+      Runtime rt = Runtime.getRuntime();
+      System.out.println(String.format("heap in use %.1f MB", (rt.totalMemory() - rt.freeMemory()) / 1048576.0));
+      System.out.println(snapshot.metrics());
+
+      List<Integer> all = new ArrayList<Integer>(hotels);
+      for (int h = 1; h <= hotels; ++h)
+         all.add(h);
+      List<Integer> one = all.subList(0, 1);
+      System.out.println(String.format("%-32s %8s %9s %9s %9s %10s %9s",
+                                       "report", "calls", "mean ms", "p50 ms", "p99 ms", "ops/s", "rows/op"));
+      int processors = Runtime.getRuntime().availableProcessors();
+      for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+         ForkJoinPool pool = new ForkJoinPool(threads);
+         Object[][] reports = {
+            { "byHotel/all", BookingSnapshot.BY_HOTEL, all },
+            { "byMonth/all", BookingSnapshot.BY_MONTH, all },
+            { "byMonth/hotel", BookingSnapshot.BY_MONTH, one },
+            { "byRoom/hotel", BookingSnapshot.BY_ROOM, one },
+         };
+         for (Object[] r : reports) {
+            @SuppressWarnings("unchecked")
+            List<Integer> selected = (List<Integer>) r[2];
+            snapshot.report(pool, (Integer) r[1], selected, first, first + days);
+            long[] latencies = new long[iterations];
+            long total = 0;
+            long rows = 0;
+            for (int i = 0; i < iterations; ++i) {
+               long t = System.nanoTime();
+               rows += snapshot.report(pool, (Integer) r[1], selected, first, first + days).size();
+               latencies[i] = System.nanoTime() - t;
+               total += latencies[i];
+            }
+            HotelBench.print(null, null, r[0] + "/" + threads + "threads", latencies, total, rows);
+         }
+         pool.shutdown();
+         if (threads == processors)
+            break;
+      }
+   }//end main
+
+}//end SnapshotBench
@@ -0,0 +1,333 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Latency of the menu operations 1 to 10, login and new users on both
+ * HotelStores: PostgreSQL through JdbcStore, and a MemoryStore copied from
+ * the same database into a scratch directory.  Both run the same requests,
+ * drawn by a Random with the same seed from the copied tables, and the
+ * results are printed like HotelBench's.  With --memory the MemoryStore
+ * alone is measured, filled from the CSV files of a data directory, so no
+ * database server is needed.
+ *
+ * Then the store is checked for recovery: its files are copied while it
+ * is open, as a crash would leave them, and the copy must open with the
+ * same rows after replaying its log.  So must a copy left as by a crash
+ * between the new snapshot and the new log, including a change made
+ * after that restart.  Its open times are reported, and
+ * the time of a change with the log forced to disk.
+ *
+ * Writes go to dates far in the future; what they inserted into the
+ * database is deleted again at the end, the scratch directory too.
+ *
+ */
+public class StoreBench {
+
+   private static final Date FUTURE = Date.valueOf("2100-01-01");
+
+   // parameters, the same for both stores
+   private final List<Room> rooms;
+   private final List<Integer> managers;
+   private final List<Integer> customers;
+   private final Date firstDate;
+   private final int days;
+
+   /**
+    * One menu operation; run() returns the number of rows it produced.
+    */
+   private abstract static class Operation {
+      final String name;
+
+      Operation(String name) {
+         this.name = name;
+      }
+
+      abstract long run() throws SQLException;
+   }//end Operation
+
+   public StoreBench(MemoryStore sample) throws SQLException {
+      this.rooms = sample.allRooms();
+      this.managers = sample.managerIDs();
+      this.customers = sample.customerIDs(1000);
+      Date[] range = sample.bookingRange();
+      if (rooms.isEmpty() || managers.isEmpty() || range == null)
+         throw new SQLException("the store holds no rooms, managers or bookings to benchmark with");
+      this.firstDate = range[0];
+      this.days = Math.max(1, Hotel.epochDay(range[1]) - Hotel.epochDay(firstDate) + 1);
+   }
+
+   private List<Operation> operations(final HotelStore store, long seed) {
+      final Random random = new Random(seed);
+      final int[] futureDay = { 0 };
+      List<Operation> ops = new ArrayList<Operation>();
+      ops.add(new Operation("CreateUser") {
+         long run() throws SQLException {
+            store.createUser("bench" + random.nextInt(1000), "secret", "Customer");
+            return 1;
+         }
+      });
+      ops.add(new Operation("LogIn") {
+         long run() throws SQLException {
+            return store.loadPrincipal(pick(random, managers), null) == null ? 0 : 1;
+         }
+      });
+      ops.add(new Operation("viewHotels") {
+         long run() throws SQLException {
+            return store.hotelsWithin(random.nextDouble() * 160 - 80, random.nextDouble() * 340 - 170,
+                                      Hotel.HOTEL_SEARCH_RADIUS).size();
+         }
+      });
+      ops.add(new Operation("viewRooms") {
+         long run() throws SQLException {
+            return store.availableRooms(pick(random, rooms).hotelID, anyDate(random)).size();
+         }
+      });
+      ops.add(new Operation("bookRooms") {
+         long run() throws SQLException {
+            Room room = pick(random, rooms);
+            return store.book(pick(random, customers), room.hotelID, room.roomNumber,
+                              HotelBench.plusDays(FUTURE, futureDay[0]++)) == null ? 0 : 1;
+         }
+      });
+      ops.add(new Operation("viewRecentBookingsfromCustomer") {
+         long run() throws SQLException {
+            return store.customerPage(pick(random, customers), null, Hotel.PAGE_SIZE).bookings.size();
+         }
+      });
+      ops.add(new Operation("updateRoomInfo") {
+         long run() throws SQLException {
+            // writes back the price the room already has
+            Room room = pick(random, rooms);
+            return store.changePrice(pick(random, managers), room.hotelID, room.roomNumber, room.price);
+         }
+      });
+      ops.add(new Operation("viewRecentUpdates") {
+         long run() throws SQLException {
+            return store.recentUpdates(pick(random, managers), 5).size();
+         }
+      });
+      ops.add(new Operation("viewBookingHistoryofHotel") {
+         long run() throws SQLException {
+            Date from = anyDate(random);
+            return store.hotelPage(pick(random, rooms).hotelID, from, HotelBench.plusDays(from, 30), null,
+                                   Hotel.PAGE_SIZE).bookings.size();
+         }
+      });
+      ops.add(new Operation("viewRegularCustomers") {
+         long run() throws SQLException {
+            return store.regularCustomers(pick(random, rooms).hotelID, 5).size();
+         }
+      });
+      ops.add(new Operation("placeRoomRepairRequests") {
+         long run() throws SQLException {
+            // 5 rooms spread over 5 companies, all or nothing
+            List<RepairRequest> requests = new ArrayList<RepairRequest>();
+            for (int i = 0; i < 5; ++i) {
+               Room room = pick(random, rooms);
+               requests.add(new RepairRequest(room.hotelID, room.roomNumber, 1 + i));
+            }
+            long placed = 0;
+            for (List<Integer> ids : store.placeRequests(pick(random, managers), requests).values())
+               placed += ids.size();
+            return placed;
+         }
+      });
+      ops.add(new Operation("viewRoomRepairHistory") {
+         long run() throws SQLException {
+            return store.historyPage(pick(random, rooms).hotelID, null, null, Hotel.PAGE_SIZE).repairs.size();
+         }
+      });
+      return ops;
+   }//end operations
+
+   private static <T> T pick(Random random, List<T> list) {
+      return list.get(random.nextInt(list.size()));
+   }
+
+   private Date anyDate(Random random) {
+      return HotelBench.plusDays(firstDate, random.nextInt(days));
+   }
+
+   /**
+    * Runs every operation on the store and prints one line per operation.
+    *
+    * @param iterations timed calls per operation, after iterations / 10
+    *        warm up calls
+    */
+   public void run(HotelStore store, String label, int iterations) throws SQLException {
+      System.out.println();
+      System.out.println(label + ": " + store.describe());
+      System.out.println(String.format(Locale.ROOT, "%-32s %8s %9s %9s %9s %10s %9s",
+                                       "operation", "calls", "mean ms", "p50 ms", "p99 ms", "ops/s", "rows/op"));
+      for (Operation op : operations(store, 166L)) {
+         QueryMetrics.setOperation(op.name);
+         for (int i = 0; i < iterations / 10; ++i)
+            op.run();
+         long[] latencies = new long[iterations];
+         long rows = 0;
+         long total = 0;
+         for (int i = 0; i < iterations; ++i) {
+            long start = System.nanoTime();
+            rows += op.run();
+            latencies[i] = System.nanoTime() - start;
+            total += latencies[i];
+         }
+         HotelBench.print(null, label, op.name, latencies, total, rows);
+      }
+   }//end run
+
+   /**
+    * Copies the files of the open store, as a crash would leave them, and
+    * opens the copy; does the same for a crash inside snapshot(), after
+    * the new snapshot replaced the old one but before the new log did;
+    * then reopens the store itself after closing it.
+    *
+    * @return true if all came back with the rows of the store
+    */
+   public static boolean recover(MemoryStore store, File dir) throws Exception {
+      String counts = store.counts();
+      File crashed = new File(dir.getPath() + ".crashed");
+      File swapped = new File(dir.getPath() + ".swapped");
+      boolean ok = true;
+      try{
+         copyFiles(dir, crashed);
+         MemoryStore copy = MemoryStore.open(crashed, null);
+         System.out.println("after a crash: " + copy.describe());
+         ok &= copy.counts().equals(counts);
+         copy.close();
+
+         // the open wrote the next generation's snapshot and log; put the old log back
+         copyFiles(dir, swapped);
+         MemoryStore.open(swapped, null).close();
+         Files.copy(new File(dir, "store.log").toPath(), new File(swapped, "store.log").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+         copy = MemoryStore.open(swapped, null);
+         ok &= copy.counts().equals(counts);
+         copy.createUser("recover-check", "xyz", "customer");
+         String changed = copy.counts();
+         // and crash again, the change must be in the log it was written to
+         copyFiles(swapped, crashed);
+         MemoryStore again = MemoryStore.open(crashed, null);
+         System.out.println("after a crash inside a snapshot: " + again.describe());
+         ok &= again.counts().equals(changed);
+         again.close();
+         copy.close();
+      }finally{
+         delete(crashed);
+         delete(swapped);
+      }
+      store.close();
+      MemoryStore reopened = MemoryStore.open(dir, null);
+      System.out.println("after close: " + reopened.describe());
+      ok &= reopened.counts().equals(counts);
+      reopened.close();
+      if (!ok)
+         System.out.println("recovered rows differ from " + counts);
+      return ok;
+   }//end recover
+
+   /**
+    * Times booking with every log record forced to disk.
+    */
+   public void fsync(File dir, int iterations) throws Exception {
+      System.setProperty("hotel.store.fsync", "true");
+      MemoryStore store = MemoryStore.open(dir, null);
+      try{
+         long[] latencies = new long[iterations];
+         long rows = 0;
+         long total = 0;
+         Random random = new Random(166L);
+         for (int i = 0; i < iterations; ++i) {
+            Room room = pick(random, rooms);
+            long start = System.nanoTime();
+            rows += store.book(pick(random, customers), room.hotelID, room.roomNumber, HotelBench.plusDays(FUTURE, 5000 + i)) == null ? 0 : 1;
+            latencies[i] = System.nanoTime() - start;
+            total += latencies[i];
+         }
+         HotelBench.print(null, "memory", "bookRooms/fsync", latencies, total, rows);
+      }finally{
+         store.close();
+         System.clearProperty("hotel.store.fsync");
+      }
+   }//end fsync
+
+   private static void copyFiles(File from, File to) throws Exception {
+      to.mkdirs();
+      for (String name : new String[] { "store.snapshot", "store.log" })
+         Files.copy(new File(from, name).toPath(), new File(to, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   private static void delete(File dir) {
+      File[] files = dir.listFiles();
+      if (files != null)
+         for (File f : files)
+            f.delete();
+      dir.delete();
+   }
+
+   public static void main(String[] args) {
+      boolean memoryOnly = args.length > 0 && args[0].equals("--memory");
+      if (memoryOnly ? args.length != 2 && args.length != 3 : args.length != 3 && args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            StoreBench.class.getName () +
+            " <dbname> <port> <user> [iterations] | --memory <dataDir> [iterations]");
+         return;
+      }//end if
+      Hotel esql = null;
+      File dir = null;
+      boolean ok = false;
+      try{
+         int iterations = args.length > (memoryOnly ? 2 : 3) ? Integer.parseInt(args[args.length - 1]) : 1000;
+         dir = Files.createTempDirectory("hotel-store").toFile();
+         long start = System.nanoTime();
+         MemoryStore memory;
+         if (memoryOnly) {
+            memory = MemoryStore.open(dir, new File(args[1]));
+         } else {
+            Class.forName("org.postgresql.Driver").newInstance();
+            esql = new Hotel(args[0], args[1], args[2], "");
+            memory = MemoryStore.copyOf(esql, dir);
+         }
+         System.out.println(String.format(Locale.ROOT, "memory store loaded in %.1f ms", (System.nanoTime() - start) / 1e6));
+         StoreBench bench = new StoreBench(memory);
+         if (esql != null) {
+            int maxUserID = esql.queryFirst("SELECT COALESCE(MAX(userID), 0) FROM Users", Hotel.INT);
+            int maxBookingID = esql.queryFirst("SELECT COALESCE(MAX(bookingID), 0) FROM RoomBookings", Hotel.INT);
+            int maxUpdateNumber = esql.queryFirst("SELECT COALESCE(MAX(updateNumber), 0) FROM RoomUpdatesLog", Hotel.INT);
+            int maxRepairID = esql.queryFirst("SELECT COALESCE(MAX(repairID), 0) FROM RoomRepairs", Hotel.INT);
+            try{
+               bench.run(esql.store(), "jdbc", iterations);
+            }finally{
+               esql.update("DELETE FROM RoomBookings WHERE bookingID > ? AND bookingDate >= ?", maxBookingID, FUTURE);
+               esql.update("DELETE FROM RoomUpdatesLog WHERE updateNumber > ?", maxUpdateNumber);
+               esql.update("DELETE FROM RoomRepairRequests WHERE repairID > ?", maxRepairID);
+               esql.update("DELETE FROM RoomRepairs WHERE repairID > ?", maxRepairID);
+               esql.update("DELETE FROM Users WHERE userID > ?", maxUserID);
+               esql.availability().clear();
+            }
+         }
+         bench.run(memory, "memory", iterations);
+         System.out.println();
+         ok = recover(memory, dir);
+         bench.fsync(dir, Math.min(iterations, 200));
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (dir != null)
+            delete(dir);
+         if (esql != null)
+            esql.cleanup();
+      }
+      System.exit(ok ? 0 : 1);
+   }//end main
+
+}//end StoreBench
@@ -0,0 +1,117 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Heap used while reading a large booking history, streamed through
+ * Hotel.stream and materialized through executeQueryAndReturnResult.  The
+ * rows are shaped like those of the booking history of a hotel and made
+ * by generate_series, so no data set of that size has to be loaded.  For
+ * each row count the peak heap above what was in use before is printed;
+ * it stays flat for the stream and grows with the rows, up to running
+ * out of memory, for the list.  Run it with a fixed heap, e.g. -Xmx512m.
+ *
+ */
+public class StreamHeapBench {
+
+   // bookingID, customerID, name, hotelID, roomNumber, bookingDate, price
+   private static final String HISTORY =
+      "SELECT g, g % 100000, 'customer ' || (g % 100000), g % 20000, g % 50, DATE '2015-01-01' + (g % 3650), 0"
+      + " FROM generate_series(1, %d) g";
+
+   private static final RowMapper<Booking> BOOKING = new RowMapper<Booking>() {
+      public Booking map(ResultSet rs) throws SQLException {
+         return new Booking(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getInt(4), rs.getInt(5), rs.getDate(6),
+                            rs.getInt(7));
+      }
+   };
+
+   /**
+    * Collects garbage and starts tracking the heap peak anew.
+    *
+    * @return the heap in use now
+    */
+   private static long resetPeak() {
+      System.gc();
+      long used = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+         if (pool.getType() == MemoryType.HEAP) {
+            pool.resetPeakUsage();
+            used += pool.getUsage().getUsed();
+         }
+      }
+      return used;
+   }
+
+   /**
+    * @return the sum of the heap pools' peaks since resetPeak()
+    */
+   private static long peak() {
+      long peak = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+         if (pool.getType() == MemoryType.HEAP)
+            peak += pool.getPeakUsage().getUsed();
+      return peak;
+   }
+
+   private static void print(String name, long rows, long base, long start, String note) {
+      System.out.println(String.format("%-12s %10d %12.1f %10.1f %s", name, rows, (peak() - base) / 1048576.0,
+                                       (System.nanoTime() - start) / 1e9, note));
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-Xmx<heap>] [-classpath <classpath>] " +
+            StreamHeapBench.class.getName () +
+            " <dbname> <port> <user> [rows ...]");
+         return;
+      }//end if
+      Hotel esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new Hotel (args[0], args[1], args[2], "");
+         long[] sizes = { 100000, 1000000, 5000000 };
+         if (args.length > 3) {
+            sizes = new long[args.length - 3];
+            for (int i = 3; i < args.length; ++i)
+               sizes[i - 3] = Long.parseLong(args[i]);
+         }
+         System.out.println(String.format("max heap %.0f MB, fetch size %d", Runtime.getRuntime().maxMemory() / 1048576.0,
+                                          Hotel.FETCH_SIZE));
+         System.out.println(String.format("%-12s %10s %12s %10s", "read", "rows", "peak MB", "s"));
+         for (long rows : sizes) {
+            final long[] prices = { 0 };
+            long base = resetPeak();
+            long start = System.nanoTime();
+            long streamed = esql.stream(String.format(HISTORY, rows), BOOKING, new RowVisitor<Booking>() {
+               public void visit(Booking booking) {
+                  prices[0] += booking.price;
+               }
+            });
+            print("stream", streamed, base, start, "");
+
+            base = resetPeak();
+            start = System.nanoTime();
+            try{
+               List<List<String>> result = esql.executeQueryAndReturnResult(String.format(HISTORY, rows));
+               print("list", result.size(), base, start, "");
+            }catch (OutOfMemoryError e){
+               // the connection is left mid result, and larger sizes fail too
+               print("list", rows, base, start, "out of memory");
+               break;
+            }
+         }
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end StreamHeapBench
@@ -0,0 +1,161 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for the maintenance companies' endpoints on a local port.
+ * It takes POST /companies/<companyID>/repairs requests, counts the
+ * repair lines of each company and answers 200, or 503 to every
+ * failEvery-th request so the dispatcher's retries can be tried without
+ * any real company.
+ *
+ *
+ */
+public class StubCompanyServer {
+
+   private final int failEvery;
+   private final AtomicInteger requests = new AtomicInteger();
+   private final Map<Integer, Integer> received = new TreeMap<Integer, Integer>();
+   private ServerSocket listener;
+
+   public StubCompanyServer(int failEvery) {
+      this.failEvery = failEvery;
+   }
+
+   /**
+    * Listens on the given local port, 0 for any free one.
+    *
+    * @return the URL pattern of the endpoints, for HttpCompanyEndpoint
+    */
+   public synchronized String start(int port) throws IOException {
+      listener = new ServerSocket(port, 16, InetAddress.getByName("127.0.0.1"));
+      final ServerSocket socket = listener;
+      Thread t = new Thread("company-stub") {
+         public void run() {
+            while (!socket.isClosed()) {
+               try{
+                  Socket client = socket.accept();
+                  try{
+                     client.setSoTimeout(5000);
+                     answer(client);
+                  }finally{
+                     client.close();
+                  }
+               }catch (IOException e){
+                  // closed, or a client that went away
+               }
+            }
+         }
+      };
+      t.setDaemon(true);
+      t.start();
+      return "http://127.0.0.1:" + listener.getLocalPort() + "/companies/%d/repairs";
+   }//end start
+
+   private void answer(Socket client) throws IOException {
+      InputStream in = client.getInputStream();
+      String requestLine = readLine(in);
+      int length = 0;
+      boolean badLength = false;
+      String header;
+      while ((header = readLine(in)) != null && header.length() > 0) {
+         if (header.toLowerCase().startsWith("content-length:")) {
+            try{
+               length = Integer.parseInt(header.substring(15).trim());
+            }catch (NumberFormatException e){
+               badLength = true;
+            }
+         }
+      }
+      badLength |= length < 0;
+      byte[] body = new byte[badLength ? 0 : length];
+      for (int n = 0, r; n < body.length; n += r)
+         if ((r = in.read(body, n, body.length - n)) < 0)
+            throw new IOException("request body cut short");
+
+      String status;
+      String[] parts = requestLine == null ? new String[0] : requestLine.split(" ");
+      String[] path = parts.length < 2 ? new String[0] : parts[1].split("/");
+      int companyID = -1;
+      try{
+         if (path.length == 4)
+            companyID = Integer.parseInt(path[2]);
+      }catch (NumberFormatException e){
+         // answered below
+      }
+      if (parts.length < 2 || !"POST".equals(parts[0]) || path.length != 4 || !"repairs".equals(path[3])) {
+         status = "404 Not Found";
+      } else if (badLength || companyID < 0) {
+         status = "400 Bad Request";
+      } else if (failEvery > 0 && requests.incrementAndGet() % failEvery == 0) {
+         status = "503 Service Unavailable";
+      } else {
+         int repairs = 0;
+         for (String line : new String(body, "UTF-8").split("\n"))
+            if (line.trim().length() > 0)
+               ++repairs;
+         synchronized (this) {
+            Integer n = received.get(companyID);
+            received.put(companyID, (n == null ? 0 : n) + repairs);
+         }
+         status = "200 OK";
+      }
+      OutputStream out = client.getOutputStream();
+      out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+      out.flush();
+   }//end answer
+
+   private static String readLine(InputStream in) throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int c;
+      while ((c = in.read()) >= 0 && c != '\n')
+         if (c != '\r')
+            line.write(c);
+      return c < 0 && line.size() == 0 ? null : line.toString("UTF-8");
+   }
+
+   /**
+    * @return the number of repairs taken so far per companyID
+    */
+   public synchronized Map<Integer, Integer> received() {
+      return new TreeMap<Integer, Integer>(received);
+   }
+
+   public synchronized void close() {
+      try{
+         if (listener != null)
+            listener.close();
+      }catch (IOException e){
+         // ignored.
+      }
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            StubCompanyServer.class.getName () +
+            " <port> [failEvery]");
+         return;
+      }//end if
+      StubCompanyServer server = new StubCompanyServer(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+      System.out.println("Endpoints at " + server.start(Integer.parseInt(args[0])));
+      Map<Integer, Integer> last = server.received();
+      while (true) {
+         Thread.sleep(5000);
+         Map<Integer, Integer> now = server.received();
+         if (!now.equals(last))
+            System.out.println("Repairs received per company: " + now);
+         last = now;
+      }
+   }//end main
+
+}//end StubCompanyServer
@@ -0,0 +1,17 @@
+/**
+ * A row of the Users table, without the password.
+ *
+ */
+public class User {
+
+   public final int userID;
+   public final String name;
+   public final String userType;
+
+   public User(int userID, String name, String userType) {
+      this.userID = userID;
+      this.name = name;
+      this.userType = userType;
+   }
+
+}//end User
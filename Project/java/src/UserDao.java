@@ -0,0 +1,65 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Data access for the Users table and the hotels each user manages.
+ *
+ */
+public class UserDao {
+
+   private static final RowMapper<User> USER = new RowMapper<User>() {
+      public User map(ResultSet rs) throws SQLException {
+         return new User(rs.getInt(1), Hotel.trimmed(rs.getString(2)), Hotel.trimmed(rs.getString(3)));
+      }
+   };
+
+   private final Hotel esql;
+
+   public UserDao(Hotel esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * Inserts a new user
+    *
+    * @return the userID given to the new user
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public int create(String name, String password, String userType) throws SQLException {
+      // the key comes back from the insert itself, another session's insert cannot be mistaken for it
+      return esql.queryFirst("INSERT INTO USERS (name, password, userType) VALUES (?, ?, ?) RETURNING userID",
+                             Hotel.INT, name, password, userType);
+   }
+
+   /**
+    * Loads the user and the hotels they manage in one query.
+    *
+    * @param password the password to check, or null to skip the check
+    *        when reloading an already authenticated user
+    * @return the principal, or null if there is no such user or the
+    *         password does not match
+    */
+   public Principal loadPrincipal(int userID, String password) throws SQLException {
+      List<Object[]> rows = esql.query("SELECT U.userID, U.name, U.userType, H.hotelID FROM USERS U"
+                                       + " LEFT JOIN Hotel H ON H.managerUserID = U.userID"
+                                       + " WHERE U.userID = ? AND (CAST(? AS varchar) IS NULL OR U.password = CAST(? AS varchar))",
+                                       new RowMapper<Object[]>() {
+                                          public Object[] map(ResultSet rs) throws SQLException {
+                                             int hotelID = rs.getInt(4);
+                                             return new Object[] { USER.map(rs), rs.wasNull() ? null : hotelID };
+                                          }
+                                       }, userID, password, password);
+      if (rows.isEmpty())
+         return null;
+      User user = (User) rows.get(0)[0];
+      Set<Integer> hotels = new HashSet<Integer>();
+      for (Object[] row : rows)
+         if (row[1] != null)
+            hotels.add((Integer) row[1]);
+      return new Principal(user.userID, user.name, user.userType, hotels);
+   }//end loadPrincipal
+
+}//end UserDao
@@ -3,5 +3,5 @@ export PGPORT=8192
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_tables.sql
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_indexes.sql
-psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/load_data.sql
+psql -h localhost -p $PGPORT -v datadir=$DIR/../../data $USER"_DB" < $DIR/../src/load_data.sql
 
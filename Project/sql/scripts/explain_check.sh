@@ -0,0 +1,58 @@
+#! /bin/bash
+# Plan regression check: builds a scratch database filled with synthetic data,
+# then runs EXPLAIN ANALYZE on the query of every menu option and fails if any
+# of them falls back to a sequential scan. The default partitions of the
+# partitioned tables are empty, scanning them sequentially is expected.
+#
+# usage: source explain_check.sh [bookings] [hotels] [rooms per hotel] [users]
+export PGPORT=8192
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+DB=$USER"_DB_explain"
+BOOKINGS=${1:-5000000}
+HOTELS=${2:-20000}
+ROOMS=${3:-50}
+USERS=${4:-200000}
+
+PSQL="psql -h localhost -p $PGPORT -X -q -v ON_ERROR_STOP=1 $DB"
+
+dropdb -h localhost -p $PGPORT --if-exists $DB
+createdb -h localhost -p $PGPORT $DB || return 1 2>/dev/null || exit 1
+$PSQL < $DIR/../src/create_tables.sql
+$PSQL < $DIR/../src/create_indexes.sql
+echo "loading $BOOKINGS synthetic bookings ..."
+$PSQL -v users=$USERS -v hotels=$HOTELS -v rooms=$ROOMS -v bookings=$BOOKINGS -f $DIR/../src/synthetic_data.sql
+
+# one "name|query" line per menu option, shaped like the statements in the DAOs
+QUERIES=(
+"LogIn|SELECT U.userID, U.name, U.userType, H.hotelID FROM USERS U LEFT JOIN Hotel H ON H.managerUserID = U.userID WHERE U.userID = 17 AND U.password = 'xyz'"
+"viewHotels|SELECT hotelName FROM hotels_within(10, 10, 30)"
+"viewRooms|SELECT roomNumber FROM RoomBookings WHERE hotelID = 17 AND bookingDate = DATE '2015-01-03'"
+"viewAvailabilityCalendar|SELECT roomNumber, bookingDate FROM RoomBookings WHERE hotelID = 17 AND bookingDate >= DATE '2015-01-03' AND bookingDate < DATE '2015-04-03'"
+"bookRooms|INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES ($((HOTELS + 1)), 17, 3, DATE '2030-01-01') ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING RETURNING bookingID"
+"viewRecentBookingsfromCustomer|SELECT RB.bookingID, RB.customerID, NULL, RB.hotelID, RB.roomNumber, RB.bookingDate, R.price FROM RoomBookings RB, Rooms R WHERE RB.customerID = $((HOTELS + 4242)) AND RB.bookingDate <= DATE '2016-06-01' AND (RB.bookingDate, RB.bookingID) < (DATE '2016-06-01', 1000) AND RB.hotelID = R.hotelID AND RB.roomNumber = R.roomNumber ORDER BY RB.bookingDate DESC, RB.bookingID DESC LIMIT 6"
+"viewRecentUpdates|SELECT managerID, hotelID, roomNumber, updatedOn FROM RoomUpdatesLog WHERE managerID = 17 ORDER BY updatedOn DESC LIMIT 5"
+"viewBookingHistoryofHotel|SELECT RB.bookingID, RB.customerID, U.name, RB.hotelID, RB.roomNumber, RB.bookingDate, 0 FROM RoomBookings RB, Users U WHERE RB.hotelID = 17 AND RB.bookingDate >= DATE '2015-01-02' AND RB.bookingDate <= DATE '2015-12-31' AND (RB.bookingDate, RB.bookingID) > (DATE '2015-01-02', 0) AND RB.customerID = U.userID ORDER BY RB.bookingDate, RB.bookingID LIMIT 6"
+"viewRegularCustomers|SELECT C.customerID, U.name, C.bookings FROM CustomerBookingCounts C, Users U WHERE C.hotelID = 17 AND U.userID = C.customerID ORDER BY C.bookings DESC, C.customerID LIMIT 5"
+"viewRoomRepairHistory|SELECT repairID, companyID, hotelID, roomNumber, repairDate, status FROM RoomRepairs WHERE hotelID = 17 AND repairID < 2147483647 ORDER BY repairID DESC LIMIT 6"
+"viewRoomRepairHistory/company|SELECT repairID, companyID, hotelID, roomNumber, repairDate, status FROM RoomRepairs WHERE hotelID = 17 AND companyID = 3 AND repairID < 2147483647 ORDER BY repairID DESC LIMIT 6"
+)
+
+FAILED=0
+for entry in "${QUERIES[@]}"; do
+   NAME=${entry%%|*}
+   QUERY=${entry#*|}
+   PLAN=$($PSQL -A -t -c "EXPLAIN ANALYZE $QUERY")
+   TIME=$(echo "$PLAN" | grep "Execution Time" | sed 's/.*: //')
+   if echo "$PLAN" | grep "Seq Scan" | grep -vq "_default"; then
+      echo "FAIL $NAME ($TIME)"
+      echo "$PLAN" | sed 's/^/     /'
+      FAILED=1
+   else
+      echo "ok   $NAME ($TIME)"
+   fi
+done
+
+if [ $FAILED -ne 0 ]; then
+   echo "some menu queries are not using an index"
+   return 1 2>/dev/null || exit 1
+fi
@@ -0,0 +1,13 @@
+#! /bin/bash
+# Creates the RoomBookings and RoomUpdatesLog partitions for the next two years and,
+# when a retention such as '10 years' is given, detaches the older ones as archive tables.
+# Meant to be run regularly, e.g. from cron.
+#
+# usage: source maintain_partitions.sh [retention]
+export PGPORT=8192
+RETENTION=${1:+"'$1'"}
+RETENTION=${RETENTION:-NULL}
+psql -h localhost -p $PGPORT -X -q -A -t $USER"_DB" <<SQL
+SELECT maintain_partitions('RoomBookings', '1 year', 2, $RETENTION);
+SELECT maintain_partitions('RoomUpdatesLog', '1 year', 2, $RETENTION);
+SQL
@@ -0,0 +1,31 @@
+---Spatial index for hotels_within(); the expression must match the one used in that function.
+CREATE INDEX hotel_location_idx ON Hotel USING gist (point(latitude, longitude));
+
+---A room can only be booked once per date. The constraint's index also serves the
+---availability checks of viewRooms and bookRooms (hotelID, roomNumber, bookingDate).
+ALTER TABLE RoomBookings ADD CONSTRAINT roombookings_room_date_key UNIQUE (hotelID, roomNumber, bookingDate);
+
+---Booking history of a customer, newest first (viewRecentBookingsfromCustomer). bookingID breaks ties,
+---so every page starts with a seek to the (bookingDate, bookingID) key of the previous page's last row.
+CREATE INDEX roombookings_customer_date_idx ON RoomBookings (customerID, bookingDate, bookingID);
+
+---Bookings of a hotel over a date range, paged the same way (viewBookingHistoryofHotel).
+CREATE INDEX roombookings_hotel_date_idx ON RoomBookings (hotelID, bookingDate, bookingID);
+
+---Every manager authorization check looks hotels up by their manager.
+CREATE INDEX hotel_manager_idx ON Hotel (managerUserID, hotelID);
+
+---The 5 most recent updates of a manager (viewRecentUpdates).
+CREATE INDEX roomupdateslog_manager_date_idx ON RoomUpdatesLog (managerID, updatedOn DESC);
+
+---Repairs of a hotel, newest first and paged by repairID, for every company or for one
+---(viewRoomRepairHistory).
+CREATE INDEX roomrepairs_hotel_idx ON RoomRepairs (hotelID, repairID);
+CREATE INDEX roomrepairs_hotel_company_idx ON RoomRepairs (hotelID, companyID, repairID);
+
+---Repairs waiting to be sent to their company; small, as dispatched rows leave it.
+CREATE INDEX roomrepairs_requested_idx ON RoomRepairs (companyID, repairID) WHERE status = 'requested';
+
+---The customers of a hotel ordered by number of bookings, so the top 5 is read straight off the
+---front of the index (viewRegularCustomers).
+CREATE INDEX customerbookingcounts_rank_idx ON CustomerBookingCounts (hotelID, bookings DESC, customerID);
@@ -6,6 +6,8 @@ DROP TABLE IF EXISTS RoomBookings CASCADE;
 DROP TABLE IF EXISTS RoomRepairs CASCADE;
 DROP TABLE IF EXISTS RoomRepairRequests CASCADE;
 DROP TABLE IF EXISTS RoomUpdatesLog CASCADE;
+DROP TABLE IF EXISTS CustomerBookingCounts CASCADE;
+DROP TABLE IF EXISTS ChangeFeed CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50),
@@ -48,10 +50,12 @@ CREATE TABLE RoomBookings (
                     hotelID integer NOT NULL,
                     roomNumber integer NOT NULL, 
                     bookingDate date NOT NULL, 
-                    PRIMARY KEY(bookingID),
+                    PRIMARY KEY(bookingID, bookingDate),
                     FOREIGN KEY(customerID) REFERENCES Users(userID),
                     FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
-);
+) PARTITION BY RANGE (bookingDate);
+--Note: RoomBookings and RoomUpdatesLog are partitioned by date (see create_partitions below), so their
+--primary keys include the date column; bookingID and updateNumber are still unique on their own.
 
 CREATE TABLE RoomRepairs (  
                             repairID serial,
@@ -59,7 +63,10 @@ CREATE TABLE RoomRepairs (
                             hotelID integer NOT NULL,
                             roomNumber integer NOT NULL, 
                             repairDate date NOT NULL,
+                            status varchar(10) NOT NULL DEFAULT 'requested',  ---requested, dispatched or completed
+                            statusChanged timestamp,
                             PRIMARY KEY(repairID),
+                            CHECK (status IN ('requested', 'dispatched', 'completed')),
                             FOREIGN KEY(companyID) REFERENCES MaintenanceCompany(companyID),
                             FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
 );
@@ -81,14 +88,231 @@ CREATE TABLE RoomUpdatesLog (
                             hotelID integer NOT NULL,
                             roomNumber integer NOT NULL,
                             updatedOn timestamp NOT NULL,
-                            PRIMARY KEY(updateNumber),
+                            PRIMARY KEY(updateNumber, updatedOn),
                             FOREIGN KEY(managerID) REFERENCES Users(userID),
                             FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
+) PARTITION BY RANGE (updatedOn);
+
+--The following table keeps the number of bookings of every customer in every hotel. It is maintained
+--by the triggers on RoomBookings below, so the regular customers report reads it instead of counting bookings.
+CREATE TABLE CustomerBookingCounts (
+                            hotelID integer NOT NULL,
+                            customerID integer NOT NULL,
+                            bookings bigint NOT NULL,
+                            PRIMARY KEY(hotelID, customerID)
+);
+
+---Applies the rows a RoomBookings statement inserted, deleted or updated to CustomerBookingCounts.
+---The triggers fire once per statement, so a multi-row INSERT or a \copy updates each count only once.
+CREATE OR REPLACE FUNCTION count_bookings() RETURNS trigger AS $count$
+BEGIN
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        UPDATE CustomerBookingCounts C SET bookings = C.bookings - R.bookings
+        FROM (SELECT hotelID, customerID, COUNT(*) AS bookings FROM removed_bookings GROUP BY hotelID, customerID) R
+        WHERE C.hotelID = R.hotelID AND C.customerID = R.customerID;
+        DELETE FROM CustomerBookingCounts C
+        WHERE C.bookings <= 0 AND (C.hotelID, C.customerID) IN (SELECT hotelID, customerID FROM removed_bookings);
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        -- sorted so concurrent statements lock the counts they share in the same order
+        INSERT INTO CustomerBookingCounts AS C (hotelID, customerID, bookings)
+        SELECT hotelID, customerID, COUNT(*) FROM added_bookings
+        GROUP BY hotelID, customerID ORDER BY hotelID, customerID
+        ON CONFLICT (hotelID, customerID) DO UPDATE SET bookings = C.bookings + EXCLUDED.bookings;
+    END IF;
+    RETURN NULL;
+END;
+$count$ LANGUAGE plpgsql;
+
+CREATE TRIGGER roombookings_count_insert AFTER INSERT ON RoomBookings
+    REFERENCING NEW TABLE AS added_bookings FOR EACH STATEMENT EXECUTE PROCEDURE count_bookings();
+CREATE TRIGGER roombookings_count_delete AFTER DELETE ON RoomBookings
+    REFERENCING OLD TABLE AS removed_bookings FOR EACH STATEMENT EXECUTE PROCEDURE count_bookings();
+CREATE TRIGGER roombookings_count_update AFTER UPDATE ON RoomBookings
+    REFERENCING OLD TABLE AS removed_bookings NEW TABLE AS added_bookings
+    FOR EACH STATEMENT EXECUTE PROCEDURE count_bookings();
+
+---Recomputes CustomerBookingCounts from RoomBookings, for loads that ran with the triggers disabled.
+CREATE OR REPLACE FUNCTION rebuild_customer_booking_counts() RETURNS void AS $rebuild$
+    TRUNCATE CustomerBookingCounts;
+    INSERT INTO CustomerBookingCounts (hotelID, customerID, bookings)
+    SELECT hotelID, customerID, COUNT(*) FROM RoomBookings GROUP BY hotelID, customerID;
+$rebuild$ LANGUAGE sql;
+
+--The following table holds compact change events for the caches of every Hotel process (see ChangeFeed.java):
+--'B' bookings of a hotel on a date, 'R' rooms of a hotel and 'H' a hotel. A NULL hotelID stands for every hotel,
+--written instead of single events when a statement changes more than 1000 of them. Listeners poll max(seq) and
+--read the new events by seq; rows older than a day are deleted by the listeners.
+CREATE TABLE ChangeFeed (
+                            seq bigserial,
+                            kind char(1) NOT NULL,  ---'B', 'R' or 'H'
+                            hotelID integer,
+                            bookingDate date,
+                            changedAt timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                            PRIMARY KEY(seq)
 );
 
+---Adds the events of one statement, a (hotelID, bookingDate) pair each.
+CREATE OR REPLACE FUNCTION feed_events(event_kind char, hotels integer[], dates date[]) RETURNS void AS $events$
+BEGIN
+    IF coalesce(cardinality(hotels), 0) = 0 THEN
+        RETURN;
+    ELSIF cardinality(hotels) > 1000 THEN
+        INSERT INTO ChangeFeed (kind) VALUES (event_kind);
+    ELSE
+        INSERT INTO ChangeFeed (kind, hotelID, bookingDate) SELECT event_kind, H, D FROM unnest(hotels, dates) AS E(H, D);
+    END IF;
+END;
+$events$ LANGUAGE plpgsql;
+
+---The triggers below fire once per statement and write one event per hotel and date (bookings) or per hotel
+---(rooms and hotels) the statement touched, whatever the number of rows.
+CREATE OR REPLACE FUNCTION feed_booking_changes() RETURNS trigger AS $feed$
+DECLARE
+    hotels integer[];
+    dates date[];
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(hotelID), array_agg(bookingDate) INTO hotels, dates
+        FROM (SELECT DISTINCT hotelID, bookingDate FROM new_rows) K;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(hotelID), array_agg(bookingDate) INTO hotels, dates
+        FROM (SELECT DISTINCT hotelID, bookingDate FROM old_rows) K;
+    ELSE
+        SELECT array_agg(hotelID), array_agg(bookingDate) INTO hotels, dates
+        FROM (SELECT hotelID, bookingDate FROM old_rows UNION SELECT hotelID, bookingDate FROM new_rows) K;
+    END IF;
+    PERFORM feed_events('B', hotels, dates);
+    RETURN NULL;
+END;
+$feed$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION feed_hotel_changes() RETURNS trigger AS $feed$
+DECLARE
+    hotels integer[];
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(DISTINCT hotelID) INTO hotels FROM new_rows;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(DISTINCT hotelID) INTO hotels FROM old_rows;
+    ELSE
+        SELECT array_agg(hotelID) INTO hotels FROM (SELECT hotelID FROM old_rows UNION SELECT hotelID FROM new_rows) K;
+    END IF;
+    PERFORM feed_events(TG_ARGV[0], hotels, array_fill(NULL::date, ARRAY[coalesce(cardinality(hotels), 0)]));
+    RETURN NULL;
+END;
+$feed$ LANGUAGE plpgsql;
+
+CREATE TRIGGER roombookings_feed_insert AFTER INSERT ON RoomBookings
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_booking_changes();
+CREATE TRIGGER roombookings_feed_delete AFTER DELETE ON RoomBookings
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_booking_changes();
+CREATE TRIGGER roombookings_feed_update AFTER UPDATE ON RoomBookings
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_booking_changes();
+CREATE TRIGGER rooms_feed_insert AFTER INSERT ON Rooms
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_hotel_changes('R');
+CREATE TRIGGER rooms_feed_delete AFTER DELETE ON Rooms
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_hotel_changes('R');
+CREATE TRIGGER rooms_feed_update AFTER UPDATE ON Rooms
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_hotel_changes('R');
+CREATE TRIGGER hotel_feed_insert AFTER INSERT ON Hotel
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_hotel_changes('H');
+CREATE TRIGGER hotel_feed_delete AFTER DELETE ON Hotel
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_hotel_changes('H');
+CREATE TRIGGER hotel_feed_update AFTER UPDATE ON Hotel
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE feed_hotel_changes('H');
+
+---Lists the range partitions of a partitioned table with their bounds, the default partition excluded.
+CREATE OR REPLACE FUNCTION partition_bounds(parent text)
+RETURNS TABLE(partname text, low date, high date) AS $bounds$
+    SELECT C.relname::text,
+           substring(pg_get_expr(C.relpartbound, C.oid) from 'FROM \(''([^'']+)''\)')::date,
+           substring(pg_get_expr(C.relpartbound, C.oid) from 'TO \(''([^'']+)''\)')::date
+    FROM pg_inherits I, pg_class C
+    WHERE I.inhparent = lower(parent)::regclass AND C.oid = I.inhrelid
+      AND pg_get_expr(C.relpartbound, C.oid) <> 'DEFAULT'
+    ORDER BY 2;
+$bounds$ LANGUAGE sql STABLE;
+
+---Creates the partitions of parent for [first, last) in steps of step (e.g. '1 year' or '1 month'), named
+---after their first day, plus a default partition for rows outside every range. Rows that landed in the
+---default partition are moved into the new partition that covers them. Returns the number created.
+CREATE OR REPLACE FUNCTION create_partitions(parent text, first date, last date, step interval)
+RETURNS integer AS $create$
+DECLARE
+    low date := first;
+    high date;
+    name text;
+    fallback text := lower(parent) || '_default';
+    partkey text := substring(pg_get_partkeydef(lower(parent)::regclass) from '\((.*)\)');
+    created integer := 0;
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I DEFAULT', fallback, lower(parent));
+    WHILE low < last LOOP
+        high := low + step;
+        name := lower(parent) || '_' || to_char(low, 'YYYYMMDD');
+        IF to_regclass(name) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS)', name, lower(parent));
+            EXECUTE format('WITH moved AS (DELETE FROM %I WHERE %s >= %L AND %s < %L RETURNING *) INSERT INTO %I SELECT * FROM moved',
+                           fallback, partkey, low, partkey, high, name);
+            EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)', lower(parent), name, low, high);
+            created := created + 1;
+        END IF;
+        low := high;
+    END LOOP;
+    RETURN created;
+END;
+$create$ LANGUAGE plpgsql;
+
+---Partition maintenance, meant to run regularly (see maintain_partitions.sh): creates the partitions for
+---the next `ahead` steps after the newest one, and when retention is given detaches every partition whose
+---range ended more than retention ago. Detached partitions stay in the database as archive_<name> tables;
+---their bookings no longer count in CustomerBookingCounts.
+CREATE OR REPLACE FUNCTION maintain_partitions(parent text, step interval, ahead integer, retention interval)
+RETURNS text AS $maintain$
+DECLARE
+    newest date;
+    created integer;
+    archived integer := 0;
+    old record;
+BEGIN
+    SELECT max(high) INTO newest FROM partition_bounds(parent);
+    created := create_partitions(parent, COALESCE(newest, date_trunc('year', CURRENT_DATE)::date),
+                                 (CURRENT_DATE + step * ahead)::date, step);
+    IF retention IS NOT NULL THEN
+        FOR old IN SELECT * FROM partition_bounds(parent) WHERE high <= CURRENT_DATE - retention LOOP
+            IF lower(parent) = 'roombookings' THEN
+                EXECUTE format('UPDATE CustomerBookingCounts C SET bookings = C.bookings - A.bookings'
+                               ' FROM (SELECT hotelID, customerID, COUNT(*) AS bookings FROM %I GROUP BY hotelID, customerID) A'
+                               ' WHERE C.hotelID = A.hotelID AND C.customerID = A.customerID', old.partname);
+                DELETE FROM CustomerBookingCounts WHERE bookings <= 0;
+            END IF;
+            EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', lower(parent), old.partname);
+            EXECUTE format('ALTER TABLE %I RENAME TO %I', old.partname, 'archive_' || old.partname);
+            archived := archived + 1;
+        END LOOP;
+    END IF;
+    RETURN parent || ': created ' || created || ', archived ' || archived;
+END;
+$maintain$ LANGUAGE plpgsql;
+
+---Yearly partitions from the oldest sample data up to two years ahead.
+SELECT create_partitions('RoomBookings', DATE '2000-01-01', (date_trunc('year', CURRENT_DATE) + INTERVAL '2 years')::date, '1 year');
+SELECT create_partitions('RoomUpdatesLog', DATE '2000-01-01', (date_trunc('year', CURRENT_DATE) + INTERVAL '2 years')::date, '1 year');
+
 ---The following is the definition of a user-defined sql function for calculating the distance between two lat-long pairs.
 CREATE OR REPLACE FUNCTION calculate_distance(lat1 decimal, long1 decimal, lat2 decimal, long2 decimal)
 RETURNS decimal AS $dist$
 BEGIN RETURN sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
 END;
 $dist$ LANGUAGE plpgsql;
+
+---Returns the hotels strictly closer than radius to (lat, long). The <@ circle test can use the
+---hotel_location_idx GiST index, so only nearby hotels are checked with the exact distance.
+CREATE OR REPLACE FUNCTION hotels_within(lat decimal, long decimal, radius decimal)
+RETURNS TABLE(hotelID integer, hotelName char(30)) AS $within$
+    SELECT H.hotelID, H.hotelName
+    FROM Hotel H
+    WHERE point(H.latitude, H.longitude) <@ circle(point(lat, long), radius)
+      AND point(H.latitude, H.longitude) <-> point(lat, long) < radius;
+$within$ LANGUAGE sql STABLE;
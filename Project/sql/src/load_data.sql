@@ -1,36 +1,27 @@
-COPY Users
-FROM '/extra/CS166/Project/data/users.csv' 
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE users_userID_seq RESTART 101;
-
-COPY Hotel
-FROM '/extra/CS166/Project/data/hotels.csv' 
-WITH DELIMITER ',' CSV HEADER;   
-
-COPY Rooms
-FROM '/extra/CS166/Project/data/rooms.csv' 
-WITH DELIMITER ',' CSV HEADER;
-
-COPY MaintenanceCompany
-FROM '/extra/CS166/Project/data/company.csv' 
-WITH DELIMITER ',' CSV HEADER;
-
-COPY RoomBookings
-FROM '/extra/CS166/Project/data/bookings.csv' 
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE RoomBookings_bookingID_seq RESTART 501;
-
-COPY RoomRepairs
-FROM '/extra/CS166/Project/data/roomRepairs.csv' 
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomRepairs_repairID_seq RESTART 11;
-
-COPY RoomRepairRequests
-FROM '/extra/CS166/Project/data/roomRepairRequests.csv' 
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomRepairRequests_requestNumber_seq RESTART 11;
-
-COPY RoomUpdatesLog
-FROM '/extra/CS166/Project/data/roomUpdatesLog.csv' 
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomUpdatesLog_updateNumber_seq RESTART 51;
+---Loads the CSV files from the client side with psql's \copy, so they do not have to be on the server.
+---Run from create_db.sh, which passes the data directory as -v datadir=...
+---For large data sets use the BulkLoader java tool instead, it loads tables in parallel.
+\cd :datadir
+
+\copy Users FROM 'users.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy Hotel FROM 'hotels.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy Rooms FROM 'rooms.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy MaintenanceCompany FROM 'company.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy RoomBookings FROM 'bookings.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy RoomRepairs (repairID, companyID, hotelID, roomNumber, repairDate) FROM 'roomRepairs.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy RoomRepairRequests FROM 'roomRepairRequests.csv' WITH DELIMITER ',' CSV HEADER
+
+\copy RoomUpdatesLog FROM 'roomUpdatesLog.csv' WITH DELIMITER ',' CSV HEADER
+
+---Continue the serial columns after the largest loaded id instead of hard-coded values.
+SELECT setval('users_userID_seq', COALESCE((SELECT max(userID) FROM Users), 0) + 1, false);
+SELECT setval('RoomBookings_bookingID_seq', COALESCE((SELECT max(bookingID) FROM RoomBookings), 0) + 1, false);
+SELECT setval('roomRepairs_repairID_seq', COALESCE((SELECT max(repairID) FROM RoomRepairs), 0) + 1, false);
+SELECT setval('roomRepairRequests_requestNumber_seq', COALESCE((SELECT max(requestNumber) FROM RoomRepairRequests), 0) + 1, false);
+SELECT setval('roomUpdatesLog_updateNumber_seq', COALESCE((SELECT max(updateNumber) FROM RoomUpdatesLog), 0) + 1, false);
@@ -0,0 +1,41 @@
+---Fills an empty schema with synthetic rows for plan checks and benchmarks.
+---Sizes are psql variables, e.g.  psql -v hotels=20000 -v rooms=50 -v bookings=5000000 -f synthetic_data.sql
+---Each (hotel, room, date) is booked at most once so the unique booking constraint holds.
+
+INSERT INTO Users (userID, name, password, userType)
+SELECT i, 'user' || i, 'xyz', CASE WHEN i <= :hotels THEN 'manager' ELSE 'customer' END
+FROM generate_series(1, :users) AS i;
+
+INSERT INTO Hotel (hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID)
+SELECT i, 'hotel' || i, ((i * 7919) % 18000) / 100.0 - 90, ((i * 104729) % 36000) / 100.0 - 180,
+       DATE '1950-01-01' + (i % 20000), 1 + (i % (:hotels / 2 + 1))
+FROM generate_series(1, :hotels) AS i;
+
+INSERT INTO Rooms (hotelID, roomNumber, price, imageURL)
+SELECT h, r, 100 + ((h * 31 + r * 17) % 1900), 'img' || h || '_' || r
+FROM generate_series(1, :hotels) AS h, generate_series(1, :rooms) AS r;
+
+INSERT INTO MaintenanceCompany (companyID, name, addrress)
+SELECT i, 'company' || i, 'address' || i FROM generate_series(1, 100) AS i;
+
+INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate)
+SELECT :hotels + 1 + (i::bigint * 7919) % (:users - :hotels),
+       1 + i % :hotels,
+       1 + (i / :hotels) % :rooms,
+       DATE '2015-01-01' + i / (:hotels * :rooms)
+FROM generate_series(0, :bookings - 1) AS i;
+
+INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate, status)
+SELECT 1 + i % 100, 1 + i % :hotels, 1 + i % :rooms, DATE '2020-01-01' + i % 1000,
+       CASE WHEN i % 100 = 0 THEN 'requested' ELSE 'completed' END
+FROM generate_series(0, :bookings / 50) AS i;
+
+INSERT INTO RoomRepairRequests (managerID, repairID)
+SELECT H.managerUserID, RR.repairID FROM RoomRepairs RR, Hotel H WHERE H.hotelID = RR.hotelID;
+
+INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn)
+SELECT H.managerUserID, H.hotelID, 1 + i % :rooms, TIMESTAMP '2016-01-01' + i * INTERVAL '1 minute'
+FROM generate_series(0, :bookings / 5) AS i, Hotel H WHERE H.hotelID = 1 + i % :hotels;
+
+SELECT setval('users_userid_seq', (SELECT max(userID) FROM Users));
+ANALYZE;